@@ -0,0 +1,91 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * The direction of a segment of a branch only depends on how many turns were made before it, and
+ * how many of them were by the hour angle. So, instead of calling sin and cos for each step of
+ * each vertex, fractalclock_table_vert.glsl looks them up in this table, computed once per frame.
+ * <p>
+ * For the segment n of a branch (the first one being 1), after h of its n turns were hour turns,
+ * the entry {@code index(n, h)} has the cos and the sin of the segment angle, and its length.
+ */
+public class AngleTable {
+    // The longest branch drawn has the deep MAX_DEEP - 1, so it has this number of segments.
+    static final int MAX_SEGMENTS = FractalGeometry.MAX_DEEP - 1;
+    // Must be the same value of ANGLE_TABLE_SIZE in fractalclock_table_vert.glsl
+    static final int SIZE = index(MAX_SEGMENTS + 1, 0);
+    
+    private final float[] table = new float[3 * SIZE];
+    private int segments = 0;
+    
+    static int index(int segment, int hourTurns) {
+        return segment * (segment + 1) / 2 - 1 + hourTurns;
+    }
+    
+    /**
+     * Fills the table for branches with up to the given number of segments.
+     *
+     * @param baseLength the length of the first segment, clockSize * min(screenSize).
+     * @return the number of entries filled.
+     */
+    int update(float[] time, float baseLength, int segments) {
+        if (segments > MAX_SEGMENTS) {
+            throw new IllegalArgumentException("segments must be at most " + MAX_SEGMENTS + ", was " + segments);
+        }
+        final double PI = 3.141592653f;
+        final double hourAngle = 2.0 * PI * time[0];
+        final double minAngle = 2.0 * PI * time[1];
+        
+        this.segments = Math.max(0, segments);
+        float length = baseLength;
+        for (int n = 1; n <= segments; n++) {
+            for (int h = 0; h <= n; h++) {
+                double angle = h * hourAngle + (n - h) * minAngle;
+                int i = 3 * index(n, h);
+                table[i] = (float) Math.cos(angle);
+                table[i + 1] = (float) Math.sin(angle);
+                table[i + 2] = length;
+            }
+            length = length * FractalGeometry.LENGTH_RATIO;
+        }
+        return index(this.segments + 1, 0);
+    }
+    
+    /**
+     * The entries of the table, each one with the cos, the sin and the length.
+     */
+    float[] getTable() {
+        return table;
+    }
+    
+    int getSegments() {
+        return segments;
+    }
+    
+    /**
+     * Java port of fractalclock_table_vert.glsl. Computes gl_Position.xy for the given vertex id.
+     */
+    void position(int vertexID, float[] screenSize, float[] out) {
+        int branchIndex = vertexID / 2;
+        int deep = 31 - Integer.numberOfLeadingZeros(branchIndex + 1);
+        int id = branchIndex + 1 - (1 << deep);
+        deep += vertexID % 2;
+        
+        float x = 0.0f;
+        float y = 0.0f;
+        int hourTurns = 0;
+        int start = 0;
+        for (int i = 1; i < deep; i++) {
+            if (id % 2 == 0) {
+                // rotate left
+                hourTurns++;
+            }
+            id = id / 2;
+            int entry = 3 * (start + hourTurns);
+            x += table[entry + 2] * table[entry + 1];
+            y += table[entry + 2] * table[entry];
+            start += i + 1;
+        }
+        out[0] = x / screenSize[0];
+        out[1] = y / screenSize[1];
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Something that can compute the end points of the branches of the fractal on the CPU, to be
+ * streamed to the GPU by the renderer.
+ */
+interface BranchProducer {
+    void setScreenSize(float width, float height);
+    
+    void setClockSize(float clockSize);
+    
+    void setTime(float hour, float min);
+    
+    void setDeep(int deep);
+    
+    /**
+     * Computes the branches for the current parameters.
+     */
+    void compute();
+    
+    /**
+     * Writes the two end points of count branches, starting at the branch firstBranch, in the
+     * buffer current position, in the same coordinates of gl_Position.
+     *
+     * @return the number of floats written.
+     */
+    int fill(FloatBuffer out, int firstBranch, int count);
+}
@@ -0,0 +1,87 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * The CPU side of the streamed render mode. It asks a BranchProducer for the end points of the
+ * branches and keeps them in a direct buffer, ready to be uploaded. The renderer alternates
+ * between BUFFER_COUNT vertex buffers, so it never writes in the one the GPU may still be drawing.
+ */
+public class BranchStream {
+    static final int BUFFER_COUNT = 2;
+    // In auto mode, fractals at least this deep are streamed, if the device has enough cores to
+    // compute them.
+    static final int AUTO_STREAM_DEEP = 14;
+    static final int AUTO_STREAM_CORES = 4;
+    
+    private final BranchProducer producer;
+    private FloatBuffer vertices;
+    private int vertexCount = 0;
+    private int currentBuffer = BUFFER_COUNT - 1;
+    
+    BranchStream(BranchProducer producer) {
+        this.producer = producer;
+        vertices = allocate(0);
+    }
+    
+    /**
+     * Whether the auto render mode should stream a fractal with the given deep.
+     */
+    static boolean preferStream(int deep, int cores) {
+        return deep >= AUTO_STREAM_DEEP && cores >= AUTO_STREAM_CORES;
+    }
+    
+    /**
+     * Computes the branches drawn by the renderer and writes them in the vertex buffer.
+     *
+     * @return the number of vertices, two for each branch.
+     */
+    int prepare(float[] time, float clockSize, float[] screenSize, int deep) {
+        int branches = FractalGeometry.branchCount(deep);
+        if (vertices.capacity() < 4 * branches) {
+            // Grows to the next power of two, so increasing the deep one by one don't reallocate
+            // every time.
+            vertices = allocate(Integer.highestOneBit(4 * branches - 1) << 1);
+        }
+        
+        producer.setScreenSize(screenSize[0], screenSize[1]);
+        producer.setClockSize(clockSize);
+        producer.setTime(time[0], time[1]);
+        producer.setDeep(deep);
+        producer.compute();
+        
+        vertices.clear();
+        producer.fill(vertices, FractalGeometry.FIRST_BRANCH, branches);
+        vertices.flip();
+        
+        vertexCount = 2 * branches;
+        return vertexCount;
+    }
+    
+    /**
+     * The vertices written by the last call to prepare(), each one with x and y.
+     */
+    FloatBuffer getVertices() {
+        return vertices;
+    }
+    
+    int getVertexCount() {
+        return vertexCount;
+    }
+    
+    /**
+     * Moves to the next vertex buffer, and returns its index.
+     */
+    int nextBuffer() {
+        currentBuffer = (currentBuffer + 1) % BUFFER_COUNT;
+        return currentBuffer;
+    }
+    
+    private static FloatBuffer allocate(int floats) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(floats * 4);
+        bb.order(ByteOrder.nativeOrder());
+        return bb.asFloatBuffer();
+    }
+}
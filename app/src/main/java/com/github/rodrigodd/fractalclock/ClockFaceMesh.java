@@ -0,0 +1,138 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * The triangles of the clock: the two pointers and the hour or minute marks, each one a quad of
+ * two triangles, in pixels from the center of the screen, with y up.
+ * <p>
+ * The pointers come first, because they move each frame, so only them need to be uploaded again.
+ * The marks after them are only generated when the clock type or the radius changes. The clock
+ * types and the dimensions are also used by SoftwareRenderer, so both draw the same clock.
+ */
+class ClockFaceMesh {
+    static final int CLOCK_NONE = -1;
+    static final int CLOCK_POINTERS = 0;
+    static final int CLOCK_HOUR_MARKS = 1;
+    static final int CLOCK_MIN_MARKS = 2;
+    
+    /**
+     * The clock type of a value of the "clock_type" preference. A unknown value, like the empty
+     * one of a new install, shows the hour marks.
+     */
+    static int clockTypeOf(String preference) {
+        switch (preference) {
+            case "no_clock":
+                return CLOCK_NONE;
+            case "only_pointers":
+                return CLOCK_POINTERS;
+            case "min_marks":
+                return CLOCK_MIN_MARKS;
+            case "hour_marks":
+            default:
+                return CLOCK_HOUR_MARKS;
+        }
+    }
+    
+    static final int FLOATS_PER_VERTEX = 2;
+    static final int VERTICES_PER_QUAD = 6;
+    static final int POINTER_VERTICES = 2 * VERTICES_PER_QUAD;
+    static final int MAX_VERTICES = (2 + 60) * VERTICES_PER_QUAD;
+    
+    // Relative to the length of the pointers.
+    static final float HOUR_MARK_WIDTH = 1 / 50.0f;
+    static final float POINTER_WIDTH = 1 / 25.0f;
+    // The minute marks are hairlines.
+    static final float MIN_MARK_WIDTH = 1.0f;
+    
+    private final float[] vertices = new float[MAX_VERTICES * FLOATS_PER_VERTEX];
+    private int clockType = CLOCK_NONE;
+    private float radius = 0.0f;
+    private int vertexCount = 0;
+    
+    /**
+     * Generates the marks of the clock, if the type or the radius changed.
+     *
+     * @param clockType one of the CLOCK_* constants.
+     * @param radius    the length of the pointers, in pixels.
+     * @return if the marks changed, so they must be uploaded again.
+     */
+    boolean setClock(int clockType, float radius) {
+        if (clockType == this.clockType && radius == this.radius) {
+            return false;
+        }
+        this.clockType = clockType;
+        this.radius = radius;
+        
+        if (clockType == CLOCK_NONE) {
+            vertexCount = 0;
+            return true;
+        }
+        vertexCount = POINTER_VERTICES;
+        if (clockType == CLOCK_HOUR_MARKS || clockType == CLOCK_MIN_MARKS) {
+            int marks = clockType == CLOCK_HOUR_MARKS ? 12 : 60;
+            for (int i = 0; i < marks; i++) {
+                double a = 2.0 * Math.PI * i / marks;
+                float sx = (float) Math.sin(a) * radius;
+                float sy = (float) Math.cos(a) * radius;
+                if (i % 5 == 0 || clockType == CLOCK_HOUR_MARKS) {
+                    vertexCount = putQuad(vertexCount, sx * 1.2f, sy * 1.2f, sx * 1.3f, sy * 1.3f,
+                            radius * HOUR_MARK_WIDTH);
+                } else {
+                    vertexCount = putQuad(vertexCount, sx * 1.2f, sy * 1.2f, sx * 1.25f, sy * 1.25f,
+                            MIN_MARK_WIDTH);
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Moves the pointers to the given time, in turns.
+     */
+    void setTime(float hour, float min) {
+        if (clockType == CLOCK_NONE) {
+            return;
+        }
+        final float PI = 3.141592653f;
+        final float width = radius * POINTER_WIDTH;
+        float hs = (float) Math.sin(2.0f * PI * hour);
+        float hc = (float) Math.cos(2.0f * PI * hour);
+        int v = putQuad(0, hs * radius / 5.0f, hc * radius / 5.0f, hs * radius, hc * radius, width);
+        float ms = (float) Math.sin(2.0f * PI * min);
+        float mc = (float) Math.cos(2.0f * PI * min);
+        putQuad(v, 0.0f, 0.0f, ms * radius, mc * radius, width);
+    }
+    
+    float[] getVertices() {
+        return vertices;
+    }
+    
+    /**
+     * The number of vertices of the pointers and the marks, or 0 without a clock.
+     */
+    int getVertexCount() {
+        return vertexCount;
+    }
+    
+    /**
+     * Writes the two triangles of the segment from (x0, y0) to (x1, y1), with the given width, and
+     * returns the vertex after them.
+     */
+    private int putQuad(int vertex, float x0, float y0, float x1, float y1, float width) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        // Half of the width, across the segment.
+        float nx = length == 0.0f ? 0.0f : -dy / length * width / 2.0f;
+        float ny = length == 0.0f ? 0.0f : dx / length * width / 2.0f;
+        
+        int o = vertex * FLOATS_PER_VERTEX;
+        final float[] out = vertices;
+        out[o++] = x0 - nx; out[o++] = y0 - ny;
+        out[o++] = x0 + nx; out[o++] = y0 + ny;
+        out[o++] = x1 - nx; out[o++] = y1 - ny;
+        out[o++] = x0 + nx; out[o++] = y0 + ny;
+        out[o++] = x1 + nx; out[o++] = y1 + ny;
+        out[o++] = x1 - nx; out[o] = y1 - ny;
+        return vertex + VERTICES_PER_QUAD;
+    }
+}
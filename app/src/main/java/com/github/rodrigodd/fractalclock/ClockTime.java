@@ -0,0 +1,30 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * The turns of the clock pointers, and the point in the color gradients, at a wall clock time.
+ * It is computed in each draw, so it don't allocate.
+ */
+class ClockTime {
+    static final long NANOS_PER_HOUR = 60 * 60 * 1000000000L;
+    // The color gradients go around once each 20 hours.
+    static final long GRADIENT_PERIOD = 20 * NANOS_PER_HOUR;
+    
+    // The fraction of a turn of the hour and the minute pointers.
+    float hour;
+    float min;
+    // The point in the color gradients, in [0, 1).
+    float abrtTime;
+    
+    /**
+     * @param timeNanoseconds   the wall clock time, in nanoseconds since the epoch.
+     * @param offsetNanoseconds the offset of the time zone at that time.
+     */
+    void set(long timeNanoseconds, long offsetNanoseconds) {
+        long daytimeNanoseconds = (timeNanoseconds + offsetNanoseconds) % (24 * NANOS_PER_HOUR);
+        
+        min = (float) ((double) (daytimeNanoseconds % NANOS_PER_HOUR) / NANOS_PER_HOUR);
+        hour = (float) ((double) (daytimeNanoseconds % (12 * NANOS_PER_HOUR)) / (12 * NANOS_PER_HOUR));
+        
+        abrtTime = (float) ((double) (timeNanoseconds % GRADIENT_PERIOD) / GRADIENT_PERIOD);
+    }
+}
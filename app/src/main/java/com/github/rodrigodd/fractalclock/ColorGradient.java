@@ -1,43 +1,148 @@
 package com.github.rodrigodd.fractalclock;
 
-import android.content.res.Resources;
-import android.graphics.Color;
-import android.graphics.Paint;
-
-import androidx.annotation.ArrayRes;
 import androidx.annotation.ColorInt;
 
+/**
+ * A cyclic gradient of colors, where point 1 wraps back to point 0.
+ * <p>
+ * Each color has a stop, a point in [0, 1) where the gradient is exactly that color, and between
+ * two stops the colors are interpolated. When the colors change, the whole gradient is baked in a
+ * table of LUT_SIZE packed colors, so getColor is a single lookup that never allocates, no matter
+ * how many stops there are. The interpolation can be done in linear light, instead of in sRGB,
+ * so a gradient between two saturated colors don't get darker in the middle.
+ * <p>
+ * The colors returned are always opaque.
+ */
 public class ColorGradient {
+    static final int LUT_SIZE = 1024;
+
+    // The sRGB value of each 8 bit channel, in linear light.
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            double c = i / 255.0;
+            SRGB_TO_LINEAR[i] = (float) (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+        }
+    }
+
+    private final @ColorInt int[] lut = new int[LUT_SIZE];
     private @ColorInt int[] colors;
-    private float[] keys;
-    
-    ColorGradient(@ColorInt int[] colors){
-        this.colors = colors;
-        keys = new float[colors.length+1];
-        for(int i = 0;i<colors.length+1;i++){
-            keys[i] = (float) i/(colors.length+1);
+    private float[] stops;
+    private boolean linearLight = false;
+
+    /**
+     * A gradient with evenly spaced stops.
+     */
+    ColorGradient(@ColorInt int[] colors) {
+        setColors(colors);
+    }
+
+    ColorGradient(@ColorInt int[] colors, float[] stops) {
+        setColors(colors, stops);
+    }
+
+    /**
+     * Changes the colors, with evenly spaced stops.
+     */
+    void setColors(@ColorInt int[] colors) {
+        setColors(colors, evenStops(colors.length));
+    }
+
+    /**
+     * Changes the colors and their stops. The stops must be increasing, and in [0, 1).
+     */
+    void setColors(@ColorInt int[] colors, float[] stops) {
+        if (colors.length == 0) {
+            throw new IllegalArgumentException("a gradient needs at least one color");
         }
+        if (colors.length != stops.length) {
+            throw new IllegalArgumentException(
+                    colors.length + " colors, but " + stops.length + " stops");
+        }
+        for (int i = 0; i < stops.length; i++) {
+            if (!(stops[i] >= 0.0f && stops[i] < 1.0f) || (i > 0 && stops[i] <= stops[i - 1])) {
+                throw new IllegalArgumentException("stops must be increasing and in [0, 1)");
+            }
+        }
+        this.colors = colors.clone();
+        this.stops = stops.clone();
+        bake();
     }
-    
-    void setColors(@ColorInt int[] colors)  {
-        this.colors =  colors;
+
+    /**
+     * If the colors are interpolated in linear light, instead of in sRGB.
+     */
+    void setLinearLight(boolean linearLight) {
+        if (linearLight != this.linearLight) {
+            this.linearLight = linearLight;
+            bake();
+        }
     }
-    
+
+    boolean isLinearLight() {
+        return linearLight;
+    }
+
     @ColorInt
     int getColor(float point) {
-        point %= 1;
-        int i;
-        for (i = 0; i<(colors.length) && keys[i] < point; i++);
-        int ci = i%colors.length;
-        int li = ((i-1 + colors.length)%colors.length);
-        int A = colors[li];
-        int B = colors[ci];
-        float t = (point - keys[li])/(keys[i] - keys[li]);
-        
-        int red = (int) (Color.red(A) * t + Color.red(B) * (1 - t) + 0.5f);
-        int green = (int) (Color.green(A) * t + Color.green(B) * (1 - t) + 0.5f);
-        int blue = (int) (Color.blue(A) * t + Color.blue(B) * (1 - t) + 0.5f);
-        
-        return Color.rgb(red, green, blue);
+        point -= (float) Math.floor(point);
+        // point may round to 1 when it is slightly below an integer.
+        return lut[Math.min((int) (point * LUT_SIZE), LUT_SIZE - 1)];
+    }
+
+    static float[] evenStops(int count) {
+        float[] stops = new float[count];
+        for (int i = 0; i < count; i++) {
+            stops[i] = (float) i / count;
+        }
+        return stops;
+    }
+
+    private void bake() {
+        final int n = colors.length;
+        // The number of stops before the entry.
+        int passed = 0;
+        for (int i = 0; i < LUT_SIZE; i++) {
+            // The start of the entry, so a stop in it has its exact color.
+            float point = (float) i / LUT_SIZE;
+            while (passed < n && stops[passed] <= point) {
+                passed++;
+            }
+            // Before the first stop, the gradient comes around from the last one.
+            int previous = passed == 0 ? n - 1 : passed - 1;
+            int next = (previous + 1) % n;
+
+            float start = stops[previous];
+            float end = stops[next];
+            // Going around the end of the gradient.
+            if (end <= start) end += 1.0f;
+            float p = point < start ? point + 1.0f : point;
+            float t = (p - start) / (end - start);
+
+            lut[i] = mix(colors[previous], colors[next], t);
+        }
+    }
+
+    private int mix(int a, int b, float t) {
+        int rgb = 0xff000000;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int ca = (a >>> shift) & 0xff;
+            int cb = (b >>> shift) & 0xff;
+            int c;
+            if (linearLight) {
+                float linear = SRGB_TO_LINEAR[ca] * (1.0f - t) + SRGB_TO_LINEAR[cb] * t;
+                c = linearToSrgb(linear);
+            } else {
+                c = (int) (ca * (1.0f - t) + cb * t + 0.5f);
+            }
+            rgb |= c << shift;
+        }
+        return rgb;
+    }
+
+    private static int linearToSrgb(float linear) {
+        double c = linear <= 0.0031308 ? linear * 12.92 : 1.055 * Math.pow(linear, 1 / 2.4) - 0.055;
+        return Math.max(0, Math.min(255, (int) (c * 255.0 + 0.5)));
     }
 }
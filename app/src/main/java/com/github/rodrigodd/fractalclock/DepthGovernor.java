@@ -0,0 +1,121 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * Chooses the deep of the fractal from the measured frame times, so a frame fits in the frame
+ * budget.
+ * <p>
+ * Each deep doubles the number of branches, and so roughly doubles the frame time. The deep is
+ * lowered when the average of the last frames exceeds the budget, and only raised when the
+ * frames take less than LOWER_FRACTION of the budget, so the doubled frame would still fit with
+ * some margin. After a change, the frames are only measured again after SETTLE_NANOS, so the deep
+ * don't oscillate between two values. The deep never exceeds the deep chosen by the user.
+ * <p>
+ * The time is read from a Clock, so it can be tested with synthetic timings.
+ */
+class DepthGovernor {
+    interface Clock {
+        long nanoTime();
+    }
+    
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+    
+    // About 60 fps, leaving some of the 16.6ms to the compositor.
+    static final long DEFAULT_BUDGET_NANOS = 12_000_000L;
+    static final int MIN_DEEP = 6;
+    // The number of frames averaged before deciding.
+    static final int WINDOW = 8;
+    // Raising the deep doubles the frame time, so it must stay below this after doubled.
+    static final float LOWER_FRACTION = 0.4f;
+    static final long SETTLE_NANOS = 1_000_000_000L;
+    
+    private final Clock clock;
+    private final long budgetNanos;
+    
+    private int maxDeep = MIN_DEEP;
+    private int deep = MIN_DEEP;
+    
+    private long frameStart;
+    private boolean frameRunning = false;
+    private long windowNanos = 0;
+    private int windowFrames = 0;
+    private long lastChange;
+    
+    DepthGovernor(Clock clock, long budgetNanos) {
+        this.clock = clock;
+        this.budgetNanos = budgetNanos;
+        this.lastChange = clock.nanoTime() - SETTLE_NANOS;
+    }
+    
+    /**
+     * The deep chosen by the user, that is the upper bound of the deep. A new bound resets the
+     * deep to it, so the governor starts from what the user asked.
+     */
+    void setMaxDeep(int maxDeep) {
+        if (maxDeep == this.maxDeep) {
+            return;
+        }
+        this.maxDeep = maxDeep;
+        this.deep = maxDeep;
+        resetWindow();
+        lastChange = clock.nanoTime();
+    }
+    
+    int getMaxDeep() {
+        return maxDeep;
+    }
+    
+    /**
+     * The deep that must be drawn.
+     */
+    int getDeep() {
+        return deep;
+    }
+    
+    void frameStarted() {
+        frameStart = clock.nanoTime();
+        frameRunning = true;
+    }
+    
+    /**
+     * Measures the frame started by the last call to frameStarted, and updates the deep.
+     */
+    void frameFinished() {
+        if (!frameRunning) {
+            return;
+        }
+        long now = clock.nanoTime();
+        long frameNanos = now - frameStart;
+        frameRunning = false;
+        if (now - lastChange < SETTLE_NANOS) {
+            // The frames are still settling in the new deep
+            return;
+        }
+        
+        windowNanos += frameNanos;
+        windowFrames++;
+        if (windowFrames < WINDOW) {
+            return;
+        }
+        long average = windowNanos / windowFrames;
+        resetWindow();
+        
+        int minDeep = Math.min(MIN_DEEP, maxDeep);
+        if (average > budgetNanos && deep > minDeep) {
+            deep--;
+            lastChange = now;
+        } else if (average < budgetNanos * LOWER_FRACTION && deep < maxDeep) {
+            deep++;
+            lastChange = now;
+        }
+    }
+    
+    private void resetWindow() {
+        windowNanos = 0;
+        windowFrames = 0;
+    }
+}
@@ -5,7 +5,6 @@ import android.app.Dialog;
 import android.app.WallpaperInfo;
 import android.app.WallpaperManager;
 import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
@@ -17,7 +16,6 @@ import android.view.inputmethod.EditorInfo;
 import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.TextView;
-import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
@@ -191,14 +189,7 @@ public class FractalClockPreferencesActivity extends AppCompatActivity {
                                         0, 0, 0,
                                         null
                                 );
-                                
-                                Context context = activity.getApplicationContext();
-                                CharSequence text = activity.getResources().getText(R.string.toast_saved_wallpaper);
-                                int duration = Toast.LENGTH_LONG;
-                                
-                                Toast toast = Toast.makeText(context, text, duration);
-                                toast.show();
-                                
+                                // The wallpaper shows a toast when the screenshot is saved.
                             }
                             return true;
                         }
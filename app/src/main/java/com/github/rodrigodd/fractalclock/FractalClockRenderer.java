@@ -4,30 +4,27 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
 import android.net.Uri;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLUtils;
 import android.os.Build;
+import android.os.Debug;
 import android.provider.MediaStore;
+import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -35,276 +32,558 @@ import javax.microedition.khronos.opengles.GL10;
 public class FractalClockRenderer implements GLSurfaceView.Renderer {
     private static final String TAG = "FractalClockRenderer";
     
-    private final Context context;
+    // The fractal is computed by the vertex shader, or by the CPU and streamed to the GPU each
+    // frame. In auto mode, the renderer choose between them based on the deep.
+    static final int RENDER_MODE_AUTO = 0;
+    static final int RENDER_MODE_SHADER = 1;
+    static final int RENDER_MODE_STREAM = 2;
+    // Compute a single subtree on the CPU, and draw it once for each node of a deep.
+    static final int RENDER_MODE_INSTANCED = 3;
     
+    // Shared by all renderers, because only one of them draws at a time.
+    private static ForkJoinPool geometryPool;
     
-    private int clockProgram;
+    private final Context context;
     
-    private Bitmap clockBitmap;
-    private boolean clockBitmapUpdated = true;
-    private int clockTexture = -1;
+    // The GL objects of this renderer, created again lazily when the context is lost. The programs
+    // and the vertex ids are shared with the renderers of the other engines.
+    private final GlResources resources = new GlResources();
+    private final GlShareGroup group;
     
-    private int fullscreenTriBuffer;
-    private int fullscreenIndexBuffer;
+    // The pointers and the marks of the clock. Only the pointers are uploaded each frame, the marks
+    // are uploaded again when the clock type or size changes, or the context is lost.
+    private int clockType = ClockFaceMesh.CLOCK_NONE;
+    private final ClockFaceMesh clockMesh = new ClockFaceMesh();
+    private boolean clockMeshDirty = true;
+    private final GlResources.Buffer clockBuffer =
+            resources.buffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_DYNAMIC_DRAW);
+    private final FloatBuffer clockVertexBuffer = ByteBuffer
+            .allocateDirect(ClockFaceMesh.MAX_VERTICES * ClockFaceMesh.FLOATS_PER_VERTEX * 4)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
     
-    private int fractalProgram;
+    private final AngleTable angleTable = new AngleTable();
     
-    private int vertexIDBuffer;
     // For a deep of 19, there are 2^20 - 1 branches. Ignoring the root and two more branches, there are
     // 2^20 - 4 branches.
-    private final int MAX_SIZE = (1 << 20) - 4;
+    static final int MAX_SIZE = (1 << 20) - 4;
     private int maxDeep = 16;
+    private int requestedDeep = 16;
+    // The branches shorter than this are not drawn, see FractalGeometry.visibleDeep.
+    private static final float MIN_BRANCH_PIXELS = 1.0f;
+    // The vertices of requestedDeep not drawn in the last frame, because they were too short.
+    private int skippedVertices = 0;
+    // Chooses maxDeep from the frame times, when the deep is adaptive.
+    private volatile DepthGovernor depthGovernor;
     private int size = (1 << maxDeep) - 3;
     
+    private int renderMode = RENDER_MODE_AUTO;
+    private final GlResources.Buffer[] streamBuffers = new GlResources.Buffer[BranchStream.BUFFER_COUNT];
+    private final BranchStream branchStream;
+    
+    private int subtreeDeep = 10;
+    private final SubtreeInstances subtreeInstances;
+    
     private final float[] screenSize = { 1.0f, 1.0f };
     private float clockSize = 0.5f;
     private final float[] time = { -0.15f, 0.15f };
     
-    private final float[] hourPointerColor = { 1.0f, 0.0f, 0.0f };
-    private final float[] minPointerColor = { 0.0f, 0.0f, 1.0f };
+    // The colors of the fractal, sampled by fractalclock_frag.glsl. Without a gradient, it goes
+    // from the minute color to the hour color.
+    private final GradientTexture fractalGradient = new GradientTexture();
+    private GradientTexture appliedFractalGradient;
+    private final GlResources.Texture gradientTexture =
+            resources.texture(GLES20.GL_RGBA, GLES20.GL_LINEAR);
+    private static final int GRADIENT_TEXTURE_UNIT = 1;
     private final float[] backgroundColor = { 0.0f, 1.0f, 0.0f };
     private final float[] clockColor = { 1.0f, 1.0f, 0.0f };
     
+    // The values set by the main thread, only written there and then published as a whole to the
+    // GL thread, that copies them to the fields above at the start of each frame.
+    private final RenderState pendingState = new RenderState();
+    private final RenderStateBuffer renderStates = new RenderStateBuffer();
+    private long appliedSequence = -1;
+    
+    // The timings of the frames, and a overlay showing them.
+    private FrameStats frameStats;
+    private boolean showStats = false;
+    private final GlResources.Buffer overlayBuffer =
+            resources.buffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STREAM_DRAW);
+    // For each level, p50, p95, p99 and max, a bar for each stat, with 6 vertices of 2 floats.
+    private static final int OVERLAY_LEVELS = 4;
+    private static final int OVERLAY_BAR_FLOATS = 6 * 2;
+    private final float[] overlayVertex = new float[(OVERLAY_LEVELS * FrameStats.COUNT + 1) * OVERLAY_BAR_FLOATS];
+    private final FloatBuffer overlayVertexBuffer = ByteBuffer.allocateDirect(overlayVertex.length * 4)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    // The colors of the levels, from max to p50, and of the frame budget line.
+    private static final float[][] OVERLAY_COLORS = {
+            { 1.0f, 0.2f, 0.2f, 0.8f },
+            { 1.0f, 0.6f, 0.2f, 0.8f },
+            { 1.0f, 1.0f, 0.2f, 0.8f },
+            { 0.2f, 1.0f, 0.2f, 0.8f },
+            { 1.0f, 1.0f, 1.0f, 0.8f },
+    };
+    private static final double[] OVERLAY_FRACTIONS = { 1.0, 0.99, 0.95, 0.50 };
+    // The budget line is in the middle of the overlay, so a bar fills it at twice the budget.
+    private static final long OVERLAY_BUDGET_NANOS = 16_666_667L;
+    
+    // Debug counters of the last frame, only updated when countAllocations is true.
+    private boolean countAllocations = false;
+    private int frameAllocations = 0;
+    private int frameUniformUploads = 0;
+    
+    // Only used in the GL thread.
     private boolean takeScreenshot = false;
+    private ScreenshotPipeline.Callback screenshotCallback;
+    private final ScreenshotPipeline screenshotPipeline;
+    // With GLES3, the pixels are read in a pixel buffer, and only mapped in the next frame, so
+    // glReadPixels don't wait for the GPU to finish drawing.
+    private boolean usePixelBuffer = false;
+    private final GlResources.Buffer pixelBuffer =
+            resources.buffer(GLES30.GL_PIXEL_PACK_BUFFER, GLES30.GL_STREAM_READ);
+    private ScreenshotPipeline.Frame pendingScreenshot;
+    private ScreenshotPipeline.Callback pendingScreenshotCallback;
+    // Requests a frame from the GL thread, so a pending screenshot is finished.
+    private Runnable renderRequest;
+    
+    /**
+     * @param group the objects shared with the renderers of the other engines. The GLSurfaceView
+     *              must create its contexts with it.
+     */
+    FractalClockRenderer(Context context, GlShareGroup group) {
+        this(context, group, new FractalGeometry(getGeometryPool()));
+    }
     
-    FractalClockRenderer(Context context) {
+    FractalClockRenderer(Context context, GlShareGroup group, BranchProducer branchProducer) {
         this.context = context;
+        this.group = group;
+        this.branchStream = new BranchStream(branchProducer);
+        this.subtreeInstances = new SubtreeInstances(getGeometryPool());
+        for (int i = 0; i < BranchStream.BUFFER_COUNT; i++) {
+            streamBuffers[i] = resources.buffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STREAM_DRAW);
+        }
+        this.screenshotPipeline = new ScreenshotPipeline(new ScreenshotPipeline.Sink() {
+            @Override
+            public void save(int[] pixels, int width, int height) throws Exception {
+                Bitmap bitmap = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+                saveBitmap(bitmap);
+            }
+        });
     }
     
-    public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+    static synchronized ForkJoinPool getGeometryPool() {
+        // ForkJoinPool was only added in API 21. In older devices the geometry is computed in
+        // the GL thread.
+        if (geometryPool == null && Build.VERSION.SDK_INT >= 21) {
+            geometryPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        }
+        return geometryPool;
+    }
     
+    /**
+     * Called when a new GL context is created, only the first time or after the last one was
+     * lost. The GL objects are created again lazily, by the frames that use them.
+     */
+    public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+        resources.onContextCreated();
+        
         GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         GLES20.glEnable( GLES20.GL_BLEND );
         
-        Resources res = context.getResources();
-        {
-            int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER,
-                    stringFromStream(res.openRawResource(R.raw.fractalclock_vert))
-            );
-            int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER,
-                    stringFromStream(res.openRawResource(R.raw.fractalclock_frag))
-            );
-            fractalProgram = createProgram(vertexShader, fragmentShader);
-        }
-    
-        {
-            int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER,
-                    stringFromStream(res.openRawResource(R.raw.fullscreen_vert))
-            );
-            int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER,
-                    stringFromStream(res.openRawResource(R.raw.fullscreen_frag))
-            );
-            clockProgram = createProgram(vertexShader, fragmentShader);
-        }
-    
-        int[] gen = {0, 0, 0};
-        GLES20.glGenBuffers(3, gen, 0);
-        
-        {
-            vertexIDBuffer = gen[0];
-        
-            // There is MAX_SIZE branches, each with 2 vertices, each with 4 bytes
-            ByteBuffer bb = ByteBuffer.allocateDirect(MAX_SIZE * 2 * 4);
-            bb.order(ByteOrder.nativeOrder());
-            IntBuffer vertexBuffer = bb.asIntBuffer();
-            for (int i = 0; i < 2 * MAX_SIZE; i++) {
-                // The first 3 branches are ignored, so vertices starts at index 6.
-                vertexBuffer.put(i + 6);
-            }
-            vertexBuffer.position(0);
-        
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexIDBuffer);
-            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, 2 * MAX_SIZE * 4, vertexBuffer, GLES20.GL_STATIC_DRAW);
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        }
-    
-        {
-            fullscreenTriBuffer = gen[1];
-            
-            final float[] vertex = {
-                    -1.0f, -1.0f,   0.0f,  1.0f,
-                     3.0f, -1.0f,   2.0f,  1.0f,
-                    -1.0f,  3.0f,   0.0f, -1.0f
-            };
-            
-            int size = (vertex.length + 8 * 4) * 4;
-            ByteBuffer bb = ByteBuffer.allocateDirect(size);
-            bb.order(ByteOrder.nativeOrder());
-            FloatBuffer vertexBuffer = bb.asFloatBuffer();
-            vertexBuffer.put(vertex);
-            vertexBuffer.put(8 * 4, 0.0f);
-            vertexBuffer.position(0);
-            
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, fullscreenTriBuffer);
-            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, size, vertexBuffer, GLES20.GL_STATIC_DRAW);
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        }
-        
-        {
-            fullscreenIndexBuffer = gen[2];
-            
-            final short[] indexes = {
-                    0, 1, 2,
-                    
-                    3, 4, 5,
-                    4, 6, 5,
-                    
-                    7,  8, 9,
-                    8, 10, 9
-            };
-    
-            ByteBuffer bb = ByteBuffer.allocateDirect(indexes.length * 2);
-            bb.order(ByteOrder.nativeOrder());
-            ShortBuffer vertexBuffer = bb.asShortBuffer();
-            vertexBuffer.put(indexes);
-            vertexBuffer.position(0);
-    
-            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, fullscreenIndexBuffer);
-            GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexes.length * 2, vertexBuffer, GLES20.GL_STATIC_DRAW);
-            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-        }
-    }
-    
-    private FloatBuffer getPointersVertex() {
-        float radius = clockSize * Math.min(screenSize[0], screenSize[1]);
-        float hwidth = radius * (1.0f / 50.f);
-        final float[] vertex = {
-                -hwidth, radius/5.0f, 1.0f, 1.0f,
-                 hwidth, radius/5.0f, 1.0f, 1.0f,
-                -hwidth, radius,      1.0f, 1.0f,
-                 hwidth, radius,      1.0f, 1.0f,
-                
-                -hwidth, 0.0f,        1.0f, 1.0f,
-                 hwidth, 0.0f,        1.0f, 1.0f,
-                -hwidth, radius,      1.0f, 1.0f,
-                 hwidth, radius,      1.0f, 1.0f,
-        };
-        float hour = time[0] *  (float)Math.PI * 2.0f;
-        for (int i = 0; i < 16; i+=4) {
-            float x = (float) ( Math.cos(hour) * vertex[i + 0] + Math.sin(hour) * vertex[i + 1]);
-            float y = (float) (-Math.sin(hour) * vertex[i + 0] + Math.cos(hour) * vertex[i + 1]);
-            vertex[i + 0] = x / screenSize[0];
-            vertex[i + 1] = y / screenSize[1];
-        }
-        float min = time[1] * (float)Math.PI * 2.0f;
-        for (int i = 16; i < 32; i+=4) {
-            float x = (float) ( Math.cos(min) * vertex[i + 0] + Math.sin(min) * vertex[i + 1]);
-            float y = (float) (-Math.sin(min) * vertex[i + 0] + Math.cos(min) * vertex[i + 1]);
-            vertex[i + 0] = x / screenSize[0];
-            vertex[i + 1] = y / screenSize[1];
-        }
-    
-        ByteBuffer bb = ByteBuffer.allocateDirect(vertex.length * 4);
-        bb.order(ByteOrder.nativeOrder());
-        FloatBuffer vertexBuffer = bb.asFloatBuffer();
-        vertexBuffer.put(vertex);
-        vertexBuffer.position(0);
-        
-        return vertexBuffer;
+        // A screenshot read in the lost context can't be mapped anymore.
+        if (pendingScreenshot != null) {
+            screenshotPipeline.cancel(pendingScreenshot);
+            pendingScreenshot = null;
+            ScreenshotPipeline.reportBusy(pendingScreenshotCallback);
+            pendingScreenshotCallback = null;
+        }
+        String glVersion = GLES20.glGetString(GLES20.GL_VERSION);
+        boolean gles3 = Build.VERSION.SDK_INT >= 18
+                && glVersion != null && glVersion.startsWith("OpenGL ES 3");
+        usePixelBuffer = gles3;
     }
     
     public void onDrawFrame(GL10 unused) {
+        // The shared objects are used by one renderer at a time.
+        synchronized (group.frameLock) {
+            group.beginFrame(this, frameStats);
+            drawTimedFrame();
+            group.endFrame();
+        }
+    }
+    
+    @SuppressWarnings("deprecation")
+    private void drawTimedFrame() {
+        long frameStart = System.nanoTime();
+        int allocationsBefore = 0;
+        if (countAllocations) {
+            allocationsBefore = Debug.getThreadAllocCount();
+            ShaderProgram.resetCounters();
+        }
+        applyState();
+        int deep = Math.min(requestedDeep, FractalGeometry.visibleDeep(clockSize,
+                Math.min(screenSize[0], screenSize[1]), MIN_BRANCH_PIXELS));
+        skippedVertices = 2 * (FractalGeometry.branchCount(requestedDeep)
+                - FractalGeometry.branchCount(deep));
+        DepthGovernor governor = depthGovernor;
+        if (governor != null) {
+            governor.setMaxDeep(deep);
+            applyDeep(governor.getDeep());
+            governor.frameStarted();
+            drawFrame();
+            // The draw calls only queue the work, so wait for the GPU to finish it, to know the
+            // real cost of the frame.
+            GLES20.glFinish();
+            governor.frameFinished();
+        } else {
+            applyDeep(deep);
+            drawFrame();
+        }
+        FrameStats stats = frameStats;
+        if (stats != null) {
+            stats.record(FrameStats.GL_FRAME, System.nanoTime() - frameStart);
+            if (showStats) {
+                drawStatsOverlay(stats);
+            }
+        }
+        if (countAllocations) {
+            int allocations = Debug.getThreadAllocCount() - allocationsBefore;
+            if (allocations != frameAllocations) {
+                Log.d(TAG, "onDrawFrame allocated " + allocations + " objects, uploaded "
+                        + ShaderProgram.uniformUploads + " uniforms");
+            }
+            frameAllocations = allocations;
+            frameUniformUploads = ShaderProgram.uniformUploads;
+        }
+    }
+    
+    private void drawFrame() {
         /// CLEAR SCREEN
         GLES20.glClearColor(backgroundColor[0], backgroundColor[1], backgroundColor[2], 1.0f);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
         
         /// DRAW CLOCK
-        if (clockBitmap != null) {
-            
-            if (clockBitmapUpdated) {
-                clockBitmapUpdated = false;
-                if (clockTexture < 0) {
-                    clockTexture = createTexture(clockBitmap);
+        drawClock();
+        /// RENDER FRACTAL
+        updateGradientTexture();
+        switch (currentRenderMode()) {
+            case RENDER_MODE_STREAM:
+                drawStreamedFractal();
+                break;
+            case RENDER_MODE_INSTANCED:
+                if (subtreeInstances.update(time, clockSize, screenSize, maxDeep, subtreeDeep)) {
+                    drawShaderFractal(subtreeInstances.getTopVertexCount());
+                    drawInstancedFractal();
                 } else {
-                    GLES20.glDeleteTextures(1, new int[]{clockTexture}, 0);
-                    clockTexture = createTexture(clockBitmap);
+                    // The fractal is too shallow to be split
+                    drawShaderFractal(2 * size);
                 }
-            }
-            
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, fullscreenTriBuffer);
-            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 3*4*4, 8 * 4 * 4, getPointersVertex());
-    
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, clockTexture);
-            
-            GLES20.glUseProgram(clockProgram);
-    
-            int screenSizeHandle = GLES20.glGetUniformLocation(clockProgram, "screenSize");
-            GLES20.glUniform2fv(screenSizeHandle, 1, screenSize, 0);
-    
-            int colorHandle = GLES20.glGetUniformLocation(clockProgram, "color");
-            GLES20.glUniform3fv(colorHandle, 1, clockColor, 0);
-    
-            int s_textureHandle = GLES20.glGetUniformLocation(clockProgram, "s_texture");
-            GLES20.glUniform1i(s_textureHandle, 0);
-    
-            int vertexHandle = GLES20.glGetAttribLocation(clockProgram, "vertex");
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, fullscreenTriBuffer);
-            GLES20.glEnableVertexAttribArray(vertexHandle);
-            GLES20.glVertexAttribPointer(vertexHandle, 4, GLES20.GL_FLOAT, false, 0, 0);
-    
-            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, fullscreenIndexBuffer);
-            
-            GLES20.glDrawElements(GLES20.GL_TRIANGLES, 15, GLES20.GL_UNSIGNED_SHORT, 0);
-            GLES20.glDisableVertexAttribArray(vertexHandle);
+                break;
+            default:
+                // RENDER_MODE_SHADER, or a mode this version doesn't know.
+                drawShaderFractal(2 * size);
+                break;
+        }
+        // SCREENSHOT
+        if (pendingScreenshot != null) {
+            finishPixelBufferScreenshot();
+        }
+        if (takeScreenshot) {
+            takeScreenshot = false;
+            startScreenshot();
+        }
+    }
     
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    /**
+     * Reads the framebuffer into a frame of the screenshot pipeline. With GLES3 the read is only
+     * started here, and the pixels are copied in the next frame, by finishPixelBufferScreenshot.
+     */
+    private void startScreenshot() {
+        ScreenshotPipeline.Callback callback = screenshotCallback;
+        screenshotCallback = null;
+        int width = (int)screenSize[0];
+        int height = (int)screenSize[1];
+        ScreenshotPipeline.Frame frame = screenshotPipeline.acquire(width, height);
+        if (frame == null) {
+            // The previous screenshots are still being saved.
+            ScreenshotPipeline.reportBusy(callback);
+            return;
         }
-        /// RENDER FRACTAL
-        {
-            GLES20.glUseProgram(fractalProgram);
+        
+        long start = System.nanoTime();
+        if (usePixelBuffer) {
+            int bytes = width * height * 4;
+            resources.reserve(pixelBuffer, bytes);
+            GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            frame.timings.readbackNanos = System.nanoTime() - start;
+            pendingScreenshot = frame;
+            pendingScreenshotCallback = callback;
+            // Nothing else may draw the next frame soon, like when the updates are disabled.
+            if (renderRequest != null) {
+                renderRequest.run();
+            }
+        } else {
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, frame.getBuffer());
+            frame.timings.readbackNanos = System.nanoTime() - start;
+            screenshotPipeline.submit(frame, callback);
+        }
+    }
     
-            int vertexIDHandle = GLES20.glGetAttribLocation(fractalProgram, "vertexIDf");
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexIDBuffer);
-            GLES20.glEnableVertexAttribArray(vertexIDHandle);
-            GLES20.glVertexAttribPointer(vertexIDHandle, 1, GLES20.GL_INT, false, 0, 0);
+    private void finishPixelBufferScreenshot() {
+        ScreenshotPipeline.Frame frame = pendingScreenshot;
+        ScreenshotPipeline.Callback callback = pendingScreenshotCallback;
+        pendingScreenshot = null;
+        pendingScreenshotCallback = null;
+        
+        long start = System.nanoTime();
+        int bytes = frame.getWidth() * frame.getHeight() * 4;
+        resources.bind(pixelBuffer);
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(
+                GLES30.GL_PIXEL_PACK_BUFFER, 0, bytes, GLES30.GL_MAP_READ_BIT);
+        if (mapped != null) {
+            ByteBuffer target = frame.getBuffer();
+            target.put(mapped);
+            target.rewind();
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        }
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        frame.timings.readbackNanos += System.nanoTime() - start;
+        
+        if (mapped != null) {
+            screenshotPipeline.submit(frame, callback);
+        } else {
+            screenshotPipeline.cancel(frame);
+            ScreenshotPipeline.reportBusy(callback);
+        }
+    }
     
-            int screenSizeHandle = GLES20.glGetUniformLocation(fractalProgram, "screenSize");
-            GLES20.glUniform2fv(screenSizeHandle, 1, screenSize, 0);
+    /**
+     * Draws a bar for p50, p95, p99 and max of each stat, at the top of the screen, with a line
+     * marking the frame budget.
+     */
+    private void drawStatsOverlay(FrameStats stats) {
+        final float left = -0.95f;
+        final float width = 1.9f;
+        final float barHeight = 0.02f;
+        final float top = 0.95f;
+        int o = 0;
+        for (int level = 0; level < OVERLAY_LEVELS; level++) {
+            for (int stat = 0; stat < FrameStats.COUNT; stat++) {
+                long nanos = stats.get(stat).getPercentile(OVERLAY_FRACTIONS[level]);
+                float fraction = Math.min(1.0f, nanos / (2.0f * OVERLAY_BUDGET_NANOS));
+                float y = top - stat * barHeight * 1.5f;
+                o = putRectangle(overlayVertex, o, left, y - barHeight, left + width * fraction, y);
+            }
+        }
+        float budgetX = left + width / 2.0f;
+        float bottom = top - FrameStats.COUNT * barHeight * 1.5f;
+        o = putRectangle(overlayVertex, o, budgetX - 0.002f, bottom, budgetX + 0.002f, top);
+        
+        overlayVertexBuffer.position(0);
+        overlayVertexBuffer.put(overlayVertex, 0, o);
+        overlayVertexBuffer.position(0);
+        resources.upload(overlayBuffer, o * 4, overlayVertexBuffer);
+        
+        ShaderProgram program = group.resources.get(group.overlayProgram);
+        program.use();
+        int positionHandle = program.attribute("position");
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 0, 0);
+        final int barsVertices = FrameStats.COUNT * 6;
+        for (int level = 0; level <= OVERLAY_LEVELS; level++) {
+            float[] color = OVERLAY_COLORS[level];
+            program.set4f("color", color[0], color[1], color[2], color[3]);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES, level * barsVertices,
+                    level < OVERLAY_LEVELS ? barsVertices : 6);
+        }
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
     
-            int clockSizeHandle = GLES20.glGetUniformLocation(fractalProgram, "clockSize");
-            GLES20.glUniform1f(clockSizeHandle, clockSize);
+    private static int putRectangle(float[] out, int o, float x0, float y0, float x1, float y1) {
+        out[o++] = x0; out[o++] = y0;
+        out[o++] = x1; out[o++] = y0;
+        out[o++] = x0; out[o++] = y1;
+        out[o++] = x1; out[o++] = y0;
+        out[o++] = x1; out[o++] = y1;
+        out[o++] = x0; out[o++] = y1;
+        return o;
+    }
     
-            int timeHandle = GLES20.glGetUniformLocation(fractalProgram, "time");
-            GLES20.glUniform2fv(timeHandle, 1, time, 0);
+    /**
+     * Uploads the gradient texels, only if the colors changed since the last upload.
+     */
+    private void updateGradientTexture() {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + GRADIENT_TEXTURE_UNIT);
+        if (resources.bind(gradientTexture)) {
+            fractalGradient.invalidate();
+        }
+        if (!fractalGradient.isDirty()) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            return;
+        }
+        long uploadStart = System.nanoTime();
+        resources.upload(gradientTexture, GradientTexture.SIZE, 1, fractalGradient.takeTexels());
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        if (frameStats != null) {
+            frameStats.record(FrameStats.TEXTURE_UPLOAD, System.nanoTime() - uploadStart);
+        }
+    }
     
-            int maxDeepHandle = GLES20.glGetUniformLocation(fractalProgram, "maxDeep");
-            GLES20.glUniform1i(maxDeepHandle, maxDeep);
+    private int currentRenderMode() {
+        if (renderMode != RENDER_MODE_AUTO) {
+            return renderMode;
+        }
+        if (BranchStream.preferStream(maxDeep, Runtime.getRuntime().availableProcessors())) {
+            return RENDER_MODE_STREAM;
+        } else if (maxDeep >= BranchStream.AUTO_STREAM_DEEP) {
+            // Without enough cores to compute the whole fractal, compute only a subtree.
+            return RENDER_MODE_INSTANCED;
+        } else {
+            return RENDER_MODE_SHADER;
+        }
+    }
     
-            int hourColorHandle = GLES20.glGetUniformLocation(fractalProgram, "hourColor");
-            GLES20.glUniform3fv(hourColorHandle, 1, hourPointerColor, 0);
+    /**
+     * Draws the pointers and the marks of the clock in a single draw call.
+     */
+    private void drawClock() {
+        float radius = clockSize * Math.min(screenSize[0], screenSize[1]) / 2.0f;
+        if (clockMesh.setClock(clockType, radius)) {
+            clockMeshDirty = true;
+        }
+        int vertexCount = clockMesh.getVertexCount();
+        if (vertexCount == 0) {
+            return;
+        }
+        clockMesh.setTime(time[0], time[1]);
+        if (resources.bind(clockBuffer)) {
+            clockMeshDirty = true;
+        }
+        
+        // Without changes in the marks, only the pointers are uploaded.
+        int floats = (clockMeshDirty ? vertexCount : ClockFaceMesh.POINTER_VERTICES)
+                * ClockFaceMesh.FLOATS_PER_VERTEX;
+        clockMeshDirty = false;
+        clockVertexBuffer.position(0);
+        clockVertexBuffer.put(clockMesh.getVertices(), 0, floats);
+        clockVertexBuffer.position(0);
+        resources.upload(clockBuffer, floats * 4, clockVertexBuffer);
+        
+        ShaderProgram program = group.resources.get(group.clockProgram);
+        program.set2fv("screenSize", screenSize);
+        program.set3fv("color", clockColor);
+        program.use();
+        
+        int positionHandle = program.attribute("position");
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 0, 0);
+        
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, vertexCount);
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
     
-            int minColorHandle = GLES20.glGetUniformLocation(fractalProgram, "minColor");
-            GLES20.glUniform3fv(minColorHandle, 1, minPointerColor, 0);
+    private void drawShaderFractal(int vertexCount) {
+        if (vertexCount <= 0) {
+            return;
+        }
+        
+        ShaderProgram table = group.resources.get(group.tableProgram);
+        ShaderProgram program = table != null ? table : group.resources.get(group.fractalProgram);
+        program.set2fv("screenSize", screenSize);
+        if (program != table) {
+            program.set1f("clockSize", clockSize);
+            program.set2fv("time", time);
+        }
+        program.set1i("maxDeep", maxDeep);
+        program.set1i("gradient", GRADIENT_TEXTURE_UNIT);
+        program.use();
+        
+        int vertexIDHandle = program.attribute("vertexIDf");
+        group.bindVertexIDBuffer(vertexIDHandle, vertexCount);
+        
+        if (program == table) {
+            float baseLength = clockSize * Math.min(screenSize[0], screenSize[1]);
+            int entries = angleTable.update(time, baseLength, maxDeep - 1);
+            if (entries > 0) {
+                program.set3fvArray("angleTable", entries, angleTable.getTable(), 0);
+            }
+        }
+        
+        GLES20.glDrawArrays(GLES20.GL_LINES, 0, vertexCount);
+        GLES20.glDisableVertexAttribArray(vertexIDHandle);
+        
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
     
-            GLES20.glDrawArrays(GLES20.GL_LINES, 0, 2 * size);
-            GLES20.glDisableVertexAttribArray(vertexIDHandle);
+    /**
+     * Uploads the vertices to the next stream buffer, and leaves it bound.
+     */
+    private void uploadStreamBuffer(FloatBuffer vertices, int bytes) {
+        resources.upload(streamBuffers[branchStream.nextBuffer()], bytes, vertices);
+    }
     
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    private void drawStreamedFractal() {
+        int vertexCount = branchStream.prepare(time, clockSize, screenSize, maxDeep);
+        if (vertexCount == 0) {
+            return;
         }
-        // SCREENSHOT
-        if (takeScreenshot) {
-            takeScreenshot = false;
-            int width = (int)screenSize[0];
-            int height = (int)screenSize[1];
-            int screenshotSize = width * height;
-            ByteBuffer bb = ByteBuffer.allocateDirect(screenshotSize * 4);
-            bb.order(ByteOrder.nativeOrder());
-            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, bb);
-            int[] pixelsBuffer = new int[screenshotSize];
-            bb.asIntBuffer().get(pixelsBuffer);
-        
-            for (int i = 0; i < screenshotSize; ++i) {
-                // The alpha and green channels' positions are preserved while the      red and blue are swapped
-                pixelsBuffer[i] = ((pixelsBuffer[i] & 0xff00ff00)) |    ((pixelsBuffer[i] & 0x000000ff) << 16) | ((pixelsBuffer[i] & 0x00ff0000) >> 16);
-            }
         
-            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            bitmap.setPixels(pixelsBuffer, screenshotSize-width, -width, 0, 0, width, height);
-            
-            saveBitmap(bitmap);
+        uploadStreamBuffer(branchStream.getVertices(), vertexCount * 2 * 4);
+        
+        ShaderProgram program = group.resources.get(group.streamProgram);
+        program.set1i("maxDeep", maxDeep);
+        program.set1i("gradient", GRADIENT_TEXTURE_UNIT);
+        program.use();
+        
+        int positionHandle = program.attribute("position");
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 0, 0);
+        
+        // The vertex id is only used for the color
+        int vertexIDHandle = program.attribute("vertexIDf");
+        group.bindVertexIDBuffer(vertexIDHandle, vertexCount);
+        
+        GLES20.glDrawArrays(GLES20.GL_LINES, 0, vertexCount);
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glDisableVertexAttribArray(vertexIDHandle);
+        
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+    
+    private void drawInstancedFractal() {
+        int vertexCount = subtreeInstances.getMeshVertexCount();
+        uploadStreamBuffer(subtreeInstances.getMesh(), vertexCount * 2 * 4);
+        
+        ShaderProgram program = group.resources.get(group.instancedProgram);
+        program.set2fv("screenSize", screenSize);
+        program.set1i("maxDeep", maxDeep);
+        program.set1i("gradient", GRADIENT_TEXTURE_UNIT);
+        program.use();
+        
+        int positionHandle = program.attribute("position");
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 0, 0);
+        
+        int vertexIDHandle = program.attribute("vertexIDf");
+        group.bindVertexIDBuffer(vertexIDHandle, vertexCount);
+        
+        // GLES2 has no instanced draw, so each instance is a draw call with its own uniforms.
+        final float[] instances = subtreeInstances.getInstances();
+        final int instanceCount = subtreeInstances.getInstanceCount();
+        for (int i = 0; i < instanceCount; i++) {
+            int offset = i * SubtreeInstances.FLOATS_PER_INSTANCE;
+            program.set3f("instanceRotation",
+                    instances[offset], instances[offset + 1], instances[offset + 2]);
+            program.set2f("instanceOffset", instances[offset + 3], instances[offset + 4]);
+            program.set2f("instanceColor", instances[offset + 5], instances[offset + 6]);
+            GLES20.glDrawArrays(GLES20.GL_LINES, 0, vertexCount);
         }
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glDisableVertexAttribArray(vertexIDHandle);
+        
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
     }
     
     public void onSurfaceChanged(GL10 unused, int width, int height) {
@@ -313,89 +592,136 @@ public class FractalClockRenderer implements GLSurfaceView.Renderer {
         GLES20.glViewport(0, 0, width, height);
     }
     
-    void setClockSize(float clockSize) {
-        this.clockSize = clockSize;
+    /**
+     * The stats where the frame timings are recorded, or null to not record them.
+     */
+    void setFrameStats(FrameStats frameStats) {
+        this.frameStats = frameStats;
     }
     
-    void setTime(float hour, float min) {
-        time[0] = hour;
-        time[1] = min;
+    /**
+     * The bytes of the buffers and textures of this renderer, not counting the shared ones.
+     */
+    int getGlBytes() {
+        return resources.getBytes();
     }
     
-    private static int createProgram(int vertexShader, int fragmentShader) {
-        int program = GLES20.glCreateProgram();
-        GLES20.glAttachShader(program, vertexShader);
-        GLES20.glAttachShader(program, fragmentShader);
-        GLES20.glLinkProgram(program);
-        int[] linkStatus = new int[1];
-        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-        if (linkStatus[0] != GLES20.GL_TRUE) {
-            GLES20.glDeleteProgram(program);
-            throw new RuntimeException("Could not link program: "
-                    + GLES20.glGetProgramInfoLog(program));
-        }
-        return program;
+    /**
+     * The number of vertices of the requested deep that the last frame didn't draw, because their
+     * branches were shorter than a pixel.
+     */
+    int getSkippedVertices() {
+        return skippedVertices;
     }
     
-    private static int loadShader(int type, String shaderCode) {
-        int shader = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(shader, shaderCode);
-        GLES20.glCompileShader(shader);
-        
-        int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
-        if (compiled[0] == 0) {
-            RuntimeException error = new RuntimeException("Could not compile program: "
-                    + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            throw error;
+    void setShowStats(boolean showStats) {
+        pendingState.showStats = showStats;
+    }
+    
+    /**
+     * Counts the allocations of each frame, for debugging. Debug.getThreadAllocCount only counts
+     * while allocation counting is started.
+     */
+    @SuppressWarnings("deprecation")
+    void setCountAllocations(boolean countAllocations) {
+        this.countAllocations = countAllocations;
+        if (countAllocations) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
         }
-        
-        return shader;
     }
     
-    private static int createTexture(Bitmap image) {
-        int[] gen = new int[1];
-        GLES20.glGenTextures(1, gen, 0);
-        int texture = gen[0];
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_ALPHA, image, 0);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-        return texture;
+    /**
+     * The number of objects allocated by the last frame, when counting allocations.
+     */
+    int getFrameAllocations() {
+        return frameAllocations;
     }
     
-    private static void updateTexture(int texture, Bitmap image) {
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
-        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, image);
+    /**
+     * The number of uniforms uploaded by the last frame, when counting allocations.
+     */
+    int getFrameUniformUploads() {
+        return frameUniformUploads;
     }
     
-    private static String stringFromStream(InputStream inputStream) {
-        try {
-            try {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-                try {
-                    StringBuilder result = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        result.append(line).append("\n");
-                    }
-                    return result.toString();
-                } finally {
-                    reader.close();
-                }
-            } finally {
-                inputStream.close();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "Error: can't show help.";
+    /**
+     * Publishes the values set since the last call, like the time and the colors, so the next
+     * frame draws all of them. Must be called in the same thread that set them, before requesting
+     * the render.
+     */
+    void publishState() {
+        renderStates.publish(pendingState);
+    }
+    
+    /**
+     * Copies the last published state, if there is a new one, to the fields read by the frame.
+     */
+    private void applyState() {
+        RenderState state = renderStates.acquire();
+        if (state.sequence == appliedSequence) {
+            return;
+        }
+        appliedSequence = state.sequence;
+        time[0] = state.hour;
+        time[1] = state.min;
+        clockSize = state.clockSize;
+        requestedDeep = state.deep;
+        clockType = state.clockType;
+        renderMode = state.renderMode;
+        subtreeDeep = state.subtreeDeep;
+        showStats = state.showStats;
+        setColor(backgroundColor, state.backgroundColor);
+        setColor(clockColor, state.clockColor);
+        if (state.fractalGradient == null) {
+            fractalGradient.setTwoColors(state.minPointerColor, state.hourPointerColor);
+        } else if (state.fractalGradient != appliedFractalGradient) {
+            fractalGradient.set(state.fractalGradient);
         }
+        appliedFractalGradient = state.fractalGradient;
     }
     
+    private static void setColor(float[] rgb, int color) {
+        rgb[0] = (float)(color >> 16 & 0xFF)/((float)0xFF);
+        rgb[1] = (float)(color >> 8 & 0xFF)/((float)0xFF);
+        rgb[2] = (float)(color & 0xFF)/((float)0xFF);
+    }
+    
+    void setClockSize(float clockSize) {
+        pendingState.clockSize = clockSize;
+    }
+    
+    void setTime(float hour, float min) {
+        pendingState.hour = hour;
+        pendingState.min = min;
+    }
+    
+    /**
+     * Sets the deep chosen by the user. This is only the upper bound of the deep drawn, that stops
+     * where the branches get shorter than a pixel, and is lowered by the adaptive deep.
+     */
     void setDeep(int deep) {
+        pendingState.deep = deep;
+    }
+    
+    /**
+     * Lowers the deep when the frames don't fit in the frame budget, and raises it back up to the
+     * deep chosen by the user when they fit.
+     */
+    void setAdaptiveDeep(boolean adaptive) {
+        if (adaptive == (depthGovernor != null)) {
+            return;
+        }
+        if (adaptive) {
+            // The GL thread gives it the requested deep.
+            depthGovernor = new DepthGovernor(DepthGovernor.SYSTEM_CLOCK, DepthGovernor.DEFAULT_BUDGET_NANOS);
+        } else {
+            depthGovernor = null;
+        }
+    }
+    
+    private void applyDeep(int deep) {
         maxDeep = deep;
         if (deep == 0) {
             size = 0;
@@ -404,43 +730,89 @@ public class FractalClockRenderer implements GLSurfaceView.Renderer {
         }
     }
     
-    void setClockBitmap(Bitmap bitmap) {
-        if (clockBitmap != null) {
-            clockBitmap.recycle();
-        }
-        clockBitmap = bitmap;
-        clockBitmapUpdated = true;
+    void setRenderMode(int renderMode) {
+        pendingState.renderMode = renderMode;
+    }
+    
+    /**
+     * The deep of the subtree drawn for each instance, in the instanced render mode.
+     */
+    void setSubtreeDeep(int subtreeDeep) {
+        pendingState.subtreeDeep = subtreeDeep;
+    }
+    
+    /**
+     * @param clockType one of the ClockFaceMesh.CLOCK_* constants.
+     */
+    void setClockType(int clockType) {
+        pendingState.clockType = clockType;
     }
     
     void setHourPointerColor(int color) {
-        hourPointerColor[0] = (float)(color >> 16 & 0xFF)/((float)0xFF);
-        hourPointerColor[1] = (float)(color >> 8 & 0xFF)/((float)0xFF);
-        hourPointerColor[2] = (float)(color & 0xFF)/((float)0xFF);
+        pendingState.hourPointerColor = color;
     }
     
     void setMinPointerColor(int color) {
-        minPointerColor[0] = (float)(color >> 16 & 0xFF)/((float)0xFF);
-        minPointerColor[1] = (float)(color >> 8 & 0xFF)/((float)0xFF);
-        minPointerColor[2] = (float)(color & 0xFF)/((float)0xFF);
+        pendingState.minPointerColor = color;
+    }
+    
+    /**
+     * Colors the fractal with a gradient, instead of going from the minute color to the hour
+     * color, when it is null. The gradient is baked by the caller, possibly in other thread, and
+     * after it is published it belongs to the GL thread, so it must not be changed anymore.
+     */
+    void setFractalGradient(GradientTexture gradient) {
+        pendingState.fractalGradient = gradient;
     }
     
     void setBackgroundColor(int color) {
-        backgroundColor[0] = (float)(color >> 16 & 0xFF)/((float)0xFF);
-        backgroundColor[1] = (float)(color >> 8 & 0xFF)/((float)0xFF);
-        backgroundColor[2] = (float)(color & 0xFF)/((float)0xFF);
+        pendingState.backgroundColor = color;
     }
     
     void setClockColor(int color) {
-        clockColor[0] = (float)(color >> 16 & 0xFF)/((float)0xFF);
-        clockColor[1] = (float)(color >> 8 & 0xFF)/((float)0xFF);
-        clockColor[2] = (float)(color & 0xFF)/((float)0xFF);
+        pendingState.clockColor = color;
+    }
+    
+    /**
+     * Called by the GL thread when it needs one more frame, like GLSurfaceView.requestRender.
+     */
+    void setRenderRequest(Runnable renderRequest) {
+        this.renderRequest = renderRequest;
     }
     
-    void requestScreenshot() {
+    /**
+     * Saves pixels drawn by SoftwareRenderer in the gallery, for when there is no GL context. The
+     * callback is called in a background thread.
+     */
+    void saveScreenshot(int[] pixels, int width, int height, ScreenshotPipeline.Callback callback) {
+        ScreenshotPipeline.Frame frame = screenshotPipeline.acquire(width, height);
+        if (frame == null) {
+            ScreenshotPipeline.reportBusy(callback);
+            return;
+        }
+        frame.setPixels(pixels);
+        screenshotPipeline.submit(frame, callback);
+    }
+    
+    /**
+     * Must be called when the engine is destroyed, after the GL thread is stopped, so the thread of
+     * the screenshots ends with the ones still being saved.
+     */
+    void release() {
+        screenshotPipeline.shutdown();
+    }
+    
+    /**
+     * Saves the next frame in the gallery. The callback is called in a background thread.
+     * <p>
+     * Must be called in the GL thread, with GLSurfaceView.queueEvent.
+     */
+    void requestScreenshot(ScreenshotPipeline.Callback callback) {
+        screenshotCallback = callback;
         takeScreenshot = true;
     }
     
-    private void saveBitmap(Bitmap source) {
+    private void saveBitmap(Bitmap source) throws Exception {
         String image_name = new SimpleDateFormat("yyyy-MM-dd_HHmmss", Locale.US).format(new Date());
         ContentResolver cr = context.getContentResolver();
         
@@ -448,7 +820,7 @@ public class FractalClockRenderer implements GLSurfaceView.Renderer {
         values.put(MediaStore.Images.Media.TITLE, image_name);
         values.put(MediaStore.Images.Media.DISPLAY_NAME, image_name);
         values.put(MediaStore.Images.Media.DESCRIPTION, "A screenshot from FractalClock Live Wallpaper");
-        values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+        values.put(MediaStore.Images.Media.MIME_TYPE, "image/png");
         // Add the date meta data to ensure the image is added at the front of the gallery
         values.put(MediaStore.Images.Media.DATE_ADDED, System.currentTimeMillis());
         if (Build.VERSION.SDK_INT >= 29) {
@@ -469,11 +841,13 @@ public class FractalClockRenderer implements GLSurfaceView.Renderer {
                         imageOut.close();
                     }
         
-                    long id = ContentUris.parseId(url);
-                    // Wait until MINI_KIND thumbnail is generated.
-                    Bitmap miniThumb = MediaStore.Images.Thumbnails.getThumbnail(cr, id, MediaStore.Images.Thumbnails.MINI_KIND, null);
-                    // This is for backward compatibility.
-                    storeThumbnail(cr, miniThumb, id, 50F, 50F, MediaStore.Images.Thumbnails.MICRO_KIND);
+                    if (Build.VERSION.SDK_INT < 29) {
+                        long id = ContentUris.parseId(url);
+                        // Wait until MINI_KIND thumbnail is generated.
+                        Bitmap miniThumb = MediaStore.Images.Thumbnails.getThumbnail(cr, id, MediaStore.Images.Thumbnails.MINI_KIND, null);
+                        // This is for backward compatibility.
+                        storeThumbnail(cr, miniThumb, id, 50F, 50F, MediaStore.Images.Thumbnails.MICRO_KIND);
+                    }
                 } else {
                     cr.delete(url, null, null);
                     url = null;
@@ -483,6 +857,7 @@ public class FractalClockRenderer implements GLSurfaceView.Renderer {
             if (url != null) {
                 cr.delete(url, null, null);
             }
+            throw e;
         }
     }
     
@@ -1,40 +1,109 @@
 package com.github.rodrigodd.fractalclock;
 
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.PorterDuff;
+import android.net.Uri;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.provider.MediaStore;
 import android.service.wallpaper.WallpaperService;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.SurfaceHolder;
+import android.view.WindowManager;
+import android.widget.Toast;
 
 import androidx.preference.PreferenceManager;
 
-import java.util.Calendar;
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
 import javax.microedition.khronos.egl.EGLDisplay;
 
 public class FractalClockWallpaperService extends WallpaperService {
+    private static final String TAG = "FractalClockWallpaper";
+    
+    private static final int[] MSAA_CONFIG_ATTRIBS = {
+            EGL10.EGL_LEVEL, 0,
+            EGL10.EGL_RENDERABLE_TYPE, 4,  // EGL_OPENGL_ES2_BIT
+            EGL10.EGL_COLOR_BUFFER_TYPE, EGL10.EGL_RGB_BUFFER,
+            EGL10.EGL_RED_SIZE, 8,
+            EGL10.EGL_GREEN_SIZE, 8,
+            EGL10.EGL_BLUE_SIZE, 8,
+            EGL10.EGL_DEPTH_SIZE, 16,
+            EGL10.EGL_SAMPLE_BUFFERS, 1,
+            EGL10.EGL_SAMPLES, 4,  // This is for 8x MSAA.
+            EGL10.EGL_NONE
+    };
+    private static final int[] CONFIG_ATTRIBS = {
+            EGL10.EGL_LEVEL, 0,
+            EGL10.EGL_RENDERABLE_TYPE, 4,  // EGL_OPENGL_ES2_BIT
+            EGL10.EGL_COLOR_BUFFER_TYPE, EGL10.EGL_RGB_BUFFER,
+            EGL10.EGL_RED_SIZE, 8,
+            EGL10.EGL_GREEN_SIZE, 8,
+            EGL10.EGL_BLUE_SIZE, 8,
+            EGL10.EGL_DEPTH_SIZE, 16,
+            EGL10.EGL_NONE
+    };
+    
+    /**
+     * Checks if the device has any EGL config with GLES2, otherwise the GLSurfaceView would fail.
+     */
+    private static boolean hasEglConfig() {
+        EGL10 egl = (EGL10) EGLContext.getEGL();
+        EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+        if (display == EGL10.EGL_NO_DISPLAY || !egl.eglInitialize(display, new int[2])) {
+            return false;
+        }
+        int[] configCounts = new int[1];
+        boolean ok = egl.eglChooseConfig(display, CONFIG_ATTRIBS, null, 0, configCounts);
+        return ok && configCounts[0] > 0;
+    }
+    
+    // The GL objects shared by the engines, like the preview and the wallpaper in the home screen,
+    // while both are alive.
+    private GlShareGroup shareGroup;
+    // Only one poster is exported at a time, by any engine.
+    private final AtomicBoolean exportingPoster = new AtomicBoolean(false);
     
     @Override
     public Engine onCreateEngine() {
+        if (shareGroup == null) {
+            shareGroup = new GlShareGroup(this);
+        }
         return new FractalClockEngine();
     }
     
     private class FractalClockEngine extends Engine {
         
+        private static final int POSTER_WIDTH = 7680;
+        private static final int POSTER_HEIGHT = 4320;
+        
         private final Handler handler = new Handler();
-        final private float hourStickWidth = 1 / 70.0f;
-        final private float minStickWidth = 1 / 100.0f;
         private boolean update;
         private long updateDelay;
+        private boolean smoothAnimation;
         private boolean displayClock;
         private int clockType;
         private int clockScale;
@@ -44,25 +113,77 @@ public class FractalClockWallpaperService extends WallpaperService {
         private int screenHeight = -1;
         
         private ColorGradient fractalColorGradient;
+        private boolean useFractalGradient;
         private ColorGradient minColorGradient;
         private ColorGradient hourColorGradient;
         private ColorGradient clockColorGradient;
         private ColorGradient backgroundColorGradient;
         
-        private FractalClockDrawer fractalClockDrawer;
-        
         private FractalClockRenderer fractalClockRenderer;
-        SharedPreferences.OnSharedPreferenceChangeListener updatePrefs = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        private final PreferenceListener updatePrefs = new PreferenceListener();
+        // Bakes the fractal gradient out of the main thread.
+        private final ExecutorService preferenceWorker = Executors.newSingleThreadExecutor();
+        private final PreferenceBatcher<GradientTexture> preferenceBatcher = new PreferenceBatcher<>(
+                new PreferenceBatcher.MainThread() {
+                    @Override
+                    public void post(Runnable runnable) {
+                        handler.post(runnable);
+                    }
+                    
+                    @Override
+                    public void postDelayed(Runnable runnable, long delayMillis) {
+                        handler.postDelayed(runnable, delayMillis);
+                    }
+                    
+                    @Override
+                    public void removeCallbacks(Runnable runnable) {
+                        handler.removeCallbacks(runnable);
+                    }
+                    
+                    @Override
+                    public long uptimeMillis() {
+                        return SystemClock.uptimeMillis();
+                    }
+                },
+                preferenceWorker,
+                new PreferenceBatcher.Stage<GradientTexture>() {
+                    @Override
+                    public GradientTexture prepare(Set<String> keys) {
+                        return keys == null || keys.contains("fractal_gradient") ? bakeFractalGradient() : null;
+                    }
+                    
+                    @Override
+                    public void publish(Set<String> keys, GradientTexture fractalGradient) {
+                        SharedPreferences prefs = PreferenceManager
+                                .getDefaultSharedPreferences(FractalClockWallpaperService.this);
+                        updatePrefs.apply(prefs, keys, fractalGradient);
+                    }
+                });
+        
+        private class PreferenceListener implements SharedPreferences.OnSharedPreferenceChangeListener {
             @Override
             public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
-                
+                // A slider changes its preference at each step, so the changes are applied in
+                // batches.
+                preferenceBatcher.changed(key);
+            }
+            
+            /**
+             * Applies the preferences of the keys, or all of them if keys is null.
+             *
+             * @param fractalGradient the baked fractal gradient, if "fractal_gradient" is in the
+             *                        keys.
+             */
+            void apply(SharedPreferences prefs, Set<String> keys, GradientTexture fractalGradient) {
                 if (update) {
                     handler.removeCallbacks(drawRunner);
                 }
-                
-                if (key == null) {
+                frameSkipper.invalidate();
+
+                if (keys == null) {
                     setUpdateEnabled(prefs);
                     setUpdateFrequency(prefs);
+                    setSmoothAnimation(prefs);
                     setClockType(prefs);
                     setBackgroundColor(prefs);
                     setMinPointerColor(prefs);
@@ -70,16 +191,24 @@ public class FractalClockWallpaperService extends WallpaperService {
                     setClockColor(prefs);
                     setClockScale(prefs);
                     setFractalDeep(prefs);
-                } else switch (key) {
+                    setRenderMode(prefs);
+                    setSubtreeDeep(prefs);
+                    setAdaptiveDeep(prefs);
+                    setShowStats(prefs);
+                    setSkipThreshold(prefs);
+                    setFractalGradient(prefs, fractalGradient);
+                } else for (String key : keys) switch (key) {
                     case "update_enabled":
                         setUpdateEnabled(prefs);
                         break;
                     case "update_freq":
                         setUpdateFrequency(prefs);
                         break;
+                    case "smooth_animation":
+                        setSmoothAnimation(prefs);
+                        break;
                     case "clock_type":
                         setClockType(prefs);
-                        fractalClockDrawer.updateClockTexture();
                         break;
                     case "background_color":
                         setBackgroundColor(prefs);
@@ -99,10 +228,32 @@ public class FractalClockWallpaperService extends WallpaperService {
                     case "fractal_deep":
                         setFractalDeep(prefs);
                         break;
+                    case "render_mode":
+                        setRenderMode(prefs);
+                        break;
+                    case "subtree_deep":
+                        setSubtreeDeep(prefs);
+                        break;
+                    case "adaptive_deep":
+                        setAdaptiveDeep(prefs);
+                        break;
+                    case "show_stats":
+                        setShowStats(prefs);
+                        break;
+                    case "skip_threshold":
+                        setSkipThreshold(prefs);
+                        break;
+                    case "fractal_gradient":
+                        setFractalGradient(prefs, fractalGradient);
+                        break;
+                }
+                if (!update || !smoothAnimation) {
+                    stopFrames();
                 }
+                updateTimeTick();
                 handler.post(drawRunner);
             }
-            
+
             private void setUpdateEnabled(SharedPreferences prefs) {
                 update = prefs.getBoolean("update_enabled", false);
             }
@@ -115,27 +266,20 @@ public class FractalClockWallpaperService extends WallpaperService {
                             .putString("update_freq", "16")
                             .apply();
                 }
+                scheduler.setPeriod(updateDelay);
             }
             
+            private void setSmoothAnimation(SharedPreferences prefs) {
+                smoothAnimation = prefs.getBoolean("smooth_animation", false);
+            }
+
             private void setClockType(SharedPreferences prefs) {
-                switch (prefs.getString("clock_type", "")) {
-                    case "no_clock":
-                        displayClock = false;
-                        break;
-                    case "only_pointers":
-                        displayClock = true;
-                        clockType = 0;
-                        break;
-                    default:
-                    case "hour_marks":
-                        displayClock = true;
-                        clockType = 1;
-                        break;
-                    case "min_marks":
-                        displayClock = true;
-                        clockType = 2;
-                        break;
+                int type = ClockFaceMesh.clockTypeOf(prefs.getString("clock_type", ""));
+                displayClock = type != ClockFaceMesh.CLOCK_NONE;
+                if (displayClock) {
+                    clockType = type;
                 }
+                fractalClockRenderer.setClockType(displayClock ? clockType : ClockFaceMesh.CLOCK_NONE);
             }
             
             private void setBackgroundColor(SharedPreferences prefs) {
@@ -166,16 +310,165 @@ public class FractalClockWallpaperService extends WallpaperService {
             private void setFractalDeep(SharedPreferences prefs) {
                 fractalDeep = prefs.getInt("fractal_deep", 12);
             }
-        };
+            
+            private void setRenderMode(SharedPreferences prefs) {
+                switch (prefs.getString("render_mode", "")) {
+                    default:
+                    case "auto":
+                        fractalClockRenderer.setRenderMode(FractalClockRenderer.RENDER_MODE_AUTO);
+                        break;
+                    case "shader":
+                        fractalClockRenderer.setRenderMode(FractalClockRenderer.RENDER_MODE_SHADER);
+                        break;
+                    case "stream":
+                        fractalClockRenderer.setRenderMode(FractalClockRenderer.RENDER_MODE_STREAM);
+                        break;
+                    case "instanced":
+                        fractalClockRenderer.setRenderMode(FractalClockRenderer.RENDER_MODE_INSTANCED);
+                        break;
+                }
+            }
+            
+            private void setSubtreeDeep(SharedPreferences prefs) {
+                fractalClockRenderer.setSubtreeDeep(prefs.getInt("subtree_deep", 10));
+            }
+            
+            private void setAdaptiveDeep(SharedPreferences prefs) {
+                fractalClockRenderer.setAdaptiveDeep(prefs.getBoolean("adaptive_deep", false));
+            }
+            
+            private void setShowStats(SharedPreferences prefs) {
+                fractalClockRenderer.setShowStats(prefs.getBoolean("show_stats", false));
+            }
+            
+            private void setFractalGradient(SharedPreferences prefs, GradientTexture fractalGradient) {
+                useFractalGradient = prefs.getBoolean("fractal_gradient", false);
+                fractalClockRenderer.setFractalGradient(useFractalGradient ? fractalGradient : null);
+            }
+            
+            private void setSkipThreshold(SharedPreferences prefs) {
+                // In tenths of a pixel.
+                frameSkipper.setThreshold(prefs.getInt("skip_threshold", 5) / 10.0f);
+            }
+        }
+        
+        /**
+         * The texels of the fractal gradient, baked in the worker.
+         */
+        private GradientTexture bakeFractalGradient() {
+            GradientTexture texture = new GradientTexture();
+            texture.setGradient(fractalColorGradient);
+            return texture;
+        }
+        
         private WallpaperGLSurfaceView glSurfaceView;
+        // Only used when there is no EGL config for GLES2, instead of glSurfaceView.
+        private SoftwareRenderer softwareRenderer;
+        private int[] softwareFramebuffer;
+        private Bitmap softwareBitmap;
+        // The time of the last frame, used by exportPoster.
+        private float lastTimeHour, lastTimeMin, lastAbrtTime;
+        private final ClockTime clockTime = new ClockTime();
+        private final ScreenshotPipeline.Callback screenshotCallback = new ScreenshotPipeline.Callback() {
+            @Override
+            public void onScreenshotDone(final boolean saved, ScreenshotPipeline.Timings timings,
+                                         Exception error) {
+                if (saved) {
+                    Log.i(TAG, "Screenshot saved: " + timings);
+                } else if (error != null) {
+                    Log.e(TAG, "Screenshot not saved", error);
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        int text = saved ? R.string.toast_saved_wallpaper : R.string.toast_save_failed;
+                        Toast.makeText(getApplicationContext(), text, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        };
         private final Runnable drawRunner = new Runnable() {
             @Override
             public void run() {
+                if (scheduledDrawTime != 0) {
+                    long latency = SystemClock.uptimeMillis() - scheduledDrawTime;
+                    frameStats.record(FrameStats.SCHEDULER_LATENCY, latency * 1000000L);
+                    scheduledDrawTime = 0;
+                }
+                long start = System.nanoTime();
                 draw();
+                frameStats.record(FrameStats.ENGINE_DRAW, System.nanoTime() - start);
+            }
+        };
+        private final FrameStats frameStats = new FrameStats();
+        private final FrameSkipper frameSkipper = new FrameSkipper();
+        // The uptime when the posted draw should run, or 0 if it is not posted with a delay.
+        private long scheduledDrawTime = 0;
+        private final RedrawScheduler scheduler = new RedrawScheduler(new RedrawScheduler.TimeSource() {
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+            
+            @Override
+            public long uptimeMillis() {
+                return SystemClock.uptimeMillis();
+            }
+        });
+        // TimeZone.getDefault() clones the zone, so it is only read again when the zone changes.
+        private TimeZone timeZone = TimeZone.getDefault();
+        // When redrawing each minute, the system minute tick is used, instead of a posted draw.
+        private boolean timeTickRegistered = false;
+        private final BroadcastReceiver timeTickReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (update && visible) {
+                    drawRunner.run();
+                }
+            }
+        };
+        private final BroadcastReceiver timeChangeReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                timeZone = TimeZone.getDefault();
+                scheduler.reset();
+                frameSkipper.invalidate();
+                if (framesRunning) {
+                    vsyncTimeline.sync(System.currentTimeMillis(), System.nanoTime());
+                }
+                handler.removeCallbacks(drawRunner);
+                handler.post(drawRunner);
+            }
+        };
+
+        // In the smooth animation mode, the draws are driven by the vsync, instead of the handler.
+        private final Choreographer choreographer = Choreographer.getInstance();
+        private final VsyncTimeline vsyncTimeline;
+        private boolean framesRunning = false;
+        private boolean framePosted = false;
+        private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                framePosted = false;
+                if (!update || !smoothAnimation || !visible) {
+                    framesRunning = false;
+                    return;
+                }
+                frameStats.recordVsync(vsyncTimeline.frame(frameTimeNanos));
+                long start = System.nanoTime();
+                draw(vsyncTimeline.wallNanos(frameTimeNanos));
+                frameStats.record(FrameStats.ENGINE_DRAW, System.nanoTime() - start);
             }
         };
         
         private FractalClockEngine() {
+            float refreshRate = ((WindowManager) getSystemService(WINDOW_SERVICE))
+                    .getDefaultDisplay().getRefreshRate();
+            if (refreshRate < 1) {
+                refreshRate = 60;
+            }
+            vsyncTimeline = new VsyncTimeline((long) (1e9 / refreshRate));
+            
             SharedPreferences prefs = PreferenceManager
                     .getDefaultSharedPreferences(FractalClockWallpaperService.this);
             prefs.registerOnSharedPreferenceChangeListener(updatePrefs);
@@ -186,75 +479,134 @@ public class FractalClockWallpaperService extends WallpaperService {
             clockColorGradient = new ColorGradient(new int[]{ 0 });
             backgroundColorGradient = new ColorGradient(getResources().getIntArray(R.array.backgroundColorGradient));
             
-            fractalClockDrawer = new FractalClockDrawer();
-            
-            glSurfaceView = new WallpaperGLSurfaceView(FractalClockWallpaperService.this);
-            glSurfaceView.setEGLContextClientVersion(2);
-            glSurfaceView.setEGLConfigChooser(
-                    new GLSurfaceView.EGLConfigChooser() {
-                        @Override
-                        public EGLConfig chooseConfig(EGL10 egl10, EGLDisplay eglDisplay) {
-                            int[] attribs = {
-                                    EGL10.EGL_LEVEL, 0,
-                                    EGL10.EGL_RENDERABLE_TYPE, 4,  // EGL_OPENGL_ES2_BIT
-                                    EGL10.EGL_COLOR_BUFFER_TYPE, EGL10.EGL_RGB_BUFFER,
-                                    EGL10.EGL_RED_SIZE, 8,
-                                    EGL10.EGL_GREEN_SIZE, 8,
-                                    EGL10.EGL_BLUE_SIZE, 8,
-                                    EGL10.EGL_DEPTH_SIZE, 16,
-                                    EGL10.EGL_SAMPLE_BUFFERS, 1,
-                                    EGL10.EGL_SAMPLES, 4,  // This is for 8x MSAA.
-                                    EGL10.EGL_NONE
-                            };
-                            EGLConfig[] configs = new EGLConfig[1];
-                            int[] configCounts = new int[1];
-                            egl10.eglChooseConfig(eglDisplay, attribs, configs, 1, configCounts);
-                            
-                            if (configCounts[0] == 0) {
-                                // Failed! Error handling.
-                                return null;
-                            } else {
-                                return configs[0];
+            fractalClockRenderer = new FractalClockRenderer(FractalClockWallpaperService.this, shareGroup);
+            fractalClockRenderer.setFrameStats(frameStats);
+            if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+                fractalClockRenderer.setCountAllocations(true);
+            }
+            if (hasEglConfig()) {
+                glSurfaceView = new WallpaperGLSurfaceView(FractalClockWallpaperService.this);
+                // The context shares the programs and the vertex ids with the other engines.
+                glSurfaceView.setEGLContextFactory(shareGroup);
+                // Keep the buffers and textures while the wallpaper is hidden, so showing it again
+                // don't upload all of them again.
+                glSurfaceView.setPreserveEGLContextOnPause(true);
+                glSurfaceView.setEGLConfigChooser(
+                        new GLSurfaceView.EGLConfigChooser() {
+                            @Override
+                            public EGLConfig chooseConfig(EGL10 egl10, EGLDisplay eglDisplay) {
+                                EGLConfig[] configs = new EGLConfig[1];
+                                int[] configCounts = new int[1];
+                                egl10.eglChooseConfig(eglDisplay, MSAA_CONFIG_ATTRIBS, configs, 1, configCounts);
+                                if (configCounts[0] == 0) {
+                                    // Try again without MSAA.
+                                    egl10.eglChooseConfig(eglDisplay, CONFIG_ATTRIBS, configs, 1, configCounts);
+                                }
+                                
+                                if (configCounts[0] == 0) {
+                                    // Failed! Error handling.
+                                    return null;
+                                } else {
+                                    return configs[0];
+                                }
                             }
-                        }
-                    });
-            fractalClockRenderer = new FractalClockRenderer(FractalClockWallpaperService.this);
-            glSurfaceView.setRenderer(fractalClockRenderer);
-            glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+                        });
+                // Set before the GL thread is started by setRenderer.
+                final GLSurfaceView surfaceView = glSurfaceView;
+                fractalClockRenderer.setRenderRequest(new Runnable() {
+                    @Override
+                    public void run() {
+                        surfaceView.requestRender();
+                    }
+                });
+                glSurfaceView.setRenderer(fractalClockRenderer);
+                glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+            } else {
+                // There is no GLES2, so draw the fractal in the CPU, directly in the surface.
+                softwareRenderer = new SoftwareRenderer(FractalClockRenderer.getGeometryPool());
+            }
             
-            updatePrefs.onSharedPreferenceChanged(prefs, null);
+            IntentFilter timeChanges = new IntentFilter();
+            timeChanges.addAction(Intent.ACTION_TIME_CHANGED);
+            timeChanges.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            registerReceiver(timeChangeReceiver, timeChanges);
+            
+            // The first time, the preferences are applied before drawing.
+            updatePrefs.apply(prefs, null, bakeFractalGradient());
             
             draw();
         }
-        
+
         @Override
         public void onDestroy() {
             super.onDestroy();
             SharedPreferences prefs = PreferenceManager
                     .getDefaultSharedPreferences(FractalClockWallpaperService.this);
             prefs.unregisterOnSharedPreferenceChangeListener(updatePrefs);
+            preferenceBatcher.cancel();
+            preferenceWorker.shutdown();
+            unregisterReceiver(timeChangeReceiver);
+            visible = false;
+            updateTimeTick();
+            stopFrames();
             if (glSurfaceView != null) {
                 glSurfaceView.onDestroy();
             }
+            fractalClockRenderer.release();
         }
         
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
             this.visible = visible;
+            if (visible) {
+                frameSkipper.invalidate();
+            }
             if (update) {
                 if (visible) {
                     handler.post(drawRunner);
                 } else {
                     handler.removeCallbacks(drawRunner);
+                    scheduler.reset();
+                }
+            }
+            if (!visible) {
+                stopFrames();
+            }
+            if (glSurfaceView != null) {
+                if (visible) {
+                    glSurfaceView.onResume();
+                } else {
+                    glSurfaceView.onPause();
                 }
             }
+            updateTimeTick();
         }
-        
+
         @Override
         public Bundle onCommand(String action, int x, int y, int z, Bundle extras, boolean resultRequested) {
             if (action.equals(this.getClass().getPackage().getName() + ".SAVE_WALLPAPER")) {
-                fractalClockRenderer.requestScreenshot();
+                saveWallpaper();
+            } else if (action.equals(this.getClass().getPackage().getName() + ".EXPORT_POSTER")) {
+                // x and y are the size of the poster, by default 8K, and at most 16K.
+                exportPoster(Math.min(x > 0 ? x : POSTER_WIDTH, PosterExporter.MAX_SIZE),
+                        Math.min(y > 0 ? y : POSTER_HEIGHT, PosterExporter.MAX_SIZE));
+            } else if (action.equals(this.getClass().getPackage().getName() + ".DUMP_STATS")) {
+                String stats = frameStats.dump()
+                        + "frames: drawn=" + frameSkipper.getDrawnFrames()
+                        + " skipped=" + frameSkipper.getSkippedFrames() + "\n"
+                        + "subpixel vertices skipped: " + fractalClockRenderer.getSkippedVertices() + "\n"
+                        + "gl memory: shared=" + shareGroup.getGlBytes()
+                        + " own=" + fractalClockRenderer.getGlBytes()
+                        + " contexts=" + shareGroup.getContextCount() + "\n"
+                        + "preferences: changes=" + preferenceBatcher.getChanges()
+                        + " applied=" + preferenceBatcher.getPublished() + "\n";
+                Log.i(TAG, "Frame stats:\n" + stats);
+                if (resultRequested) {
+                    Bundle result = new Bundle();
+                    result.putString("stats", stats);
+                    return result;
+                }
             }
             return super.onCommand(action, x, y, z, extras, resultRequested);
         }
@@ -265,7 +617,8 @@ public class FractalClockWallpaperService extends WallpaperService {
             
             screenWidth = width;
             screenHeight = height;
-            
+            frameSkipper.invalidate();
+
             updateDimensions();
             
             if (update) {
@@ -281,161 +634,220 @@ public class FractalClockWallpaperService extends WallpaperService {
             if (update) {
                 handler.removeCallbacks(drawRunner);
             }
+            stopFrames();
+            updateTimeTick();
         }
-        
+
         private void updateDimensions() {
-            if (fractalClockDrawer != null) {
-                fractalClockDrawer.updateDimensions();
-            }
             if (fractalClockRenderer != null) {
                 fractalClockRenderer.setClockSize(clockScale / 40.0f);
             }
         }
         
         private void draw() {
-            long start;
-            
-            if (update) start = System.nanoTime();
-            else start = 0;
-            
+            draw(System.currentTimeMillis() * 1000000L);
+        }
+        
+        /**
+         * Draws the clock at the given wall clock time, in nanoseconds since the epoch, and
+         * schedules the next draw.
+         */
+        private void draw(long timeNanoseconds) {
             if (screenWidth > 0 && screenHeight > 0) {
-                Calendar today00 = Calendar.getInstance();
-                today00.set(Calendar.HOUR_OF_DAY, 0);
-                today00.set(Calendar.MINUTE, 0);
-                today00.set(Calendar.SECOND, 0);
-                today00.set(Calendar.MILLISECOND, 0);
-                
-                final long today00Milliseconds = today00.getTimeInMillis();
-                final long timeMilliseconds = Calendar.getInstance().getTimeInMillis();
-                long daytimeMilliseconds = timeMilliseconds - today00Milliseconds;
-                final int msph = 1000 * 60 * 60;
-                
-                float timeMin = ((float) (daytimeMilliseconds % (msph))) / ((float) msph);
-                float timeHour = ((float) (daytimeMilliseconds % (12 * msph))) / ((float) (12 * msph));
-                
-                final int h20 = 20 * 60 * 60 * 1000;
-                float abrtTime = ((float) (timeMilliseconds % (h20))) / h20;
+                long offset = timeZone.getOffset(timeNanoseconds / 1000000L) * 1000000L;
+                clockTime.set(timeNanoseconds, offset);
+                float timeMin = clockTime.min;
+                float timeHour = clockTime.hour;
+                float abrtTime = clockTime.abrtTime;
                 
-                final ColorGradient grad = fractalColorGradient;
-                fractalClockRenderer.setHourPointerColor(hourColorGradient.getColor(abrtTime));
-                fractalClockRenderer.setMinPointerColor(minColorGradient.getColor(abrtTime));
-                fractalClockRenderer.setClockColor(clockColorGradient.getColor(abrtTime));
+                lastTimeHour = timeHour;
+                lastTimeMin = timeMin;
+                lastAbrtTime = abrtTime;
                 
-                //fractalClockRenderer.setScreenSize(screenWidth, screenHeight);
-                fractalClockRenderer.setDeep(fractalDeep);
-                
-                fractalClockRenderer.setBackgroundColor(backgroundColorGradient.getColor(abrtTime));
-                
-                fractalClockRenderer.setTime(timeHour, timeMin);
-                
-                glSurfaceView.requestRender();
+                int hourColor = hourColorGradient.getColor(abrtTime);
+                int minColor = minColorGradient.getColor(abrtTime);
+                int clockColor = clockColorGradient.getColor(abrtTime);
+                int backgroundColor = backgroundColorGradient.getColor(abrtTime);
+                float rootLength = clockScale / 40.0f * Math.min(screenWidth, screenHeight);
+                if (frameSkipper.shouldDraw(timeHour, timeMin, rootLength, fractalDeep,
+                        hourColor, minColor, clockColor, backgroundColor)) {
+                    fractalClockRenderer.setHourPointerColor(hourColor);
+                    fractalClockRenderer.setMinPointerColor(minColor);
+                    fractalClockRenderer.setClockColor(clockColor);
+                    
+                    //fractalClockRenderer.setScreenSize(screenWidth, screenHeight);
+                    fractalClockRenderer.setDeep(fractalDeep);
+                    
+                    fractalClockRenderer.setBackgroundColor(backgroundColor);
+                    
+                    fractalClockRenderer.setTime(timeHour, timeMin);
+                    // The GL thread sees all the values above at once.
+                    fractalClockRenderer.publishState();
+                    
+                    if (softwareRenderer != null) {
+                        drawSoftware(timeHour, timeMin, abrtTime);
+                    } else {
+                        glSurfaceView.requestRender();
+                    }
+                }
             }
             if (update && visible) {
                 handler.removeCallbacks(drawRunner);
-                if (visible) {
-                    if (updateDelay == 1000) {
-                        Calendar next_second = Calendar.getInstance();
-                        next_second.add(Calendar.SECOND, 1);
-                        next_second.set(Calendar.MILLISECOND, 0);
-                        long delay = next_second.getTimeInMillis() - System.currentTimeMillis();
-                        if (delay < 25) {
-                            handler.postDelayed(drawRunner, delay);
-                        } else {
-                            handler.postDelayed(drawRunner, delay + 1000);
-                        }
-                    } else if (updateDelay == 60000) {
-                        Calendar next_minute = Calendar.getInstance();
-                        next_minute.add(Calendar.MINUTE, 1);
-                        next_minute.set(Calendar.SECOND, 0);
-                        next_minute.set(Calendar.MILLISECOND, 0);
-                        long delay = next_minute.getTimeInMillis() - System.currentTimeMillis();
-                        if (delay < 25) {
-                            handler.postDelayed(drawRunner, delay);
-                        } else {
-                            handler.postDelayed(drawRunner, delay + 60000);
-                        }
-                    } else {
-                        long elapsed = (long) ((System.nanoTime() - start) / 10e6f);
-                        handler.postDelayed(drawRunner, updateDelay - elapsed);
-                    }
+                if (smoothAnimation) {
+                    startFrames();
+                } else if (!scheduler.usesMinuteTick()) {
+                    // Each minute the draw comes from timeTickReceiver.
+                    scheduledDrawTime = scheduler.next();
+                    handler.postAtTime(drawRunner, scheduledDrawTime);
                 }
             }
         }
         
-        private class FractalClockDrawer {
-            private final Paint clockHourMarkPaint = new Paint();
-            private final Paint clockMinMarkPaint = new Paint();
-            private float clockSize;
-            
-            FractalClockDrawer() {
-                clockHourMarkPaint.setAntiAlias(true);
-                clockHourMarkPaint.setColor(Color.WHITE);
-                clockHourMarkPaint.setStyle(Paint.Style.STROKE);
-                clockHourMarkPaint.setStrokeCap(Paint.Cap.BUTT);
-                
-                clockMinMarkPaint.setAntiAlias(true);
-                clockMinMarkPaint.setColor(Color.WHITE);
-                clockMinMarkPaint.setStyle(Paint.Style.STROKE);
-                clockMinMarkPaint.setStrokeCap(Paint.Cap.BUTT);
+        /**
+         * Posts a draw for the next vsync, if there isn't one already.
+         */
+        private void startFrames() {
+            if (!framesRunning) {
+                vsyncTimeline.sync(System.currentTimeMillis(), System.nanoTime());
+                framesRunning = true;
             }
-            
-            private void updateDimensions() {
-                clockSize = Math.min(screenWidth, screenHeight) * (clockScale / 40.0f);
-                
-                clockHourMarkPaint.setStrokeWidth(clockSize * hourStickWidth);
-                clockHourMarkPaint.setStrokeWidth(clockSize * minStickWidth);
-                updateClockTexture();
+            if (!framePosted) {
+                choreographer.postFrameCallback(frameCallback);
+                framePosted = true;
+            }
+        }
+        
+        private void stopFrames() {
+            if (framePosted) {
+                choreographer.removeFrameCallback(frameCallback);
+                framePosted = false;
+            }
+            framesRunning = false;
+        }
+
+        /**
+         * Registers timeTickReceiver only while it is needed, so the engine isn't woken each
+         * minute otherwise.
+         */
+        private void updateTimeTick() {
+            boolean needed = update && visible && !smoothAnimation && scheduler.usesMinuteTick();
+            if (needed == timeTickRegistered) {
+                return;
+            }
+            if (needed) {
+                registerReceiver(timeTickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
+            } else {
+                unregisterReceiver(timeTickReceiver);
+            }
+            timeTickRegistered = needed;
+        }
+
+        private void drawSoftware(float timeHour, float timeMin, float abrtTime) {
+            if (softwareFramebuffer == null || softwareFramebuffer.length != screenWidth * screenHeight) {
+                softwareFramebuffer = new int[screenWidth * screenHeight];
+                softwareBitmap = Bitmap.createBitmap(screenWidth, screenHeight, Bitmap.Config.ARGB_8888);
             }
+            softwareRenderer.setSize(screenWidth, screenHeight);
+            setupSoftwareRenderer(softwareRenderer, timeHour, timeMin, abrtTime);
+            softwareRenderer.render(softwareFramebuffer);
+            softwareBitmap.setPixels(softwareFramebuffer, 0, screenWidth, 0, 0, screenWidth, screenHeight);
             
-            private void updateClockTexture() {
-                if (displayClock && screenWidth > 0 && screenHeight > 0) {
-                    Bitmap bitmap = Bitmap.createBitmap(screenWidth, screenHeight, Bitmap.Config.ALPHA_8);
-                    bitmap.eraseColor(0);
-                    Canvas canvas = new Canvas(bitmap);
-                    fractalClockDrawer.drawClock(canvas);
-                    fractalClockRenderer.setClockBitmap(bitmap);
-                } else {
-                    fractalClockRenderer.setClockBitmap(null);
+            SurfaceHolder holder = getSurfaceHolder();
+            Canvas canvas = null;
+            try {
+                canvas = holder.lockCanvas();
+                if (canvas != null) {
+                    canvas.drawBitmap(softwareBitmap, 0, 0, null);
+                }
+            } finally {
+                if (canvas != null) {
+                    holder.unlockCanvasAndPost(canvas);
                 }
             }
-            
-            private void drawClock(Canvas canvas) {
-                float x = canvas.getWidth() / 2.0f;
-                float y = canvas.getHeight() / 2.0f;
-                float radius = clockSize / 2.0f;
-                
-                
-                canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
-                canvas.drawRect(
-                        canvas.getWidth() - 1, canvas.getHeight() - 1,
-                        canvas.getWidth(), canvas.getHeight(),
-                        clockHourMarkPaint
-                );
-                
-                if (clockType == 1) {
-                    final float angleStep = 2 * (float) Math.PI / 12.0f;
-                    for (float a = 0.0f; a < 2 * Math.PI; a += angleStep) {
-                        float sx = (float) Math.sin(a) * radius;
-                        float sy = -(float) Math.cos(a) * radius;
-                        
-                        canvas.drawLine(x + sx * 1.2f, y + sy * 1.2f, x + sx * 1.3f, y + sy * 1.3f, clockHourMarkPaint);
+        }
+        
+        private void setupSoftwareRenderer(SoftwareRenderer renderer, float timeHour, float timeMin, float abrtTime) {
+            renderer.setClockSize(clockScale / 40.0f);
+            renderer.setClockType(displayClock ? clockType : ClockFaceMesh.CLOCK_NONE);
+            renderer.setHourPointerColor(hourColorGradient.getColor(abrtTime));
+            renderer.setMinPointerColor(minColorGradient.getColor(abrtTime));
+            renderer.setClockColor(clockColorGradient.getColor(abrtTime));
+            renderer.setBackgroundColor(backgroundColorGradient.getColor(abrtTime));
+            renderer.setFractalGradient(useFractalGradient ? fractalColorGradient : null);
+            renderer.setDeep(Math.min(fractalDeep, FractalGeometry.MAX_DEEP));
+            renderer.setTime(timeHour, timeMin);
+        }
+        
+        /**
+         * Saves the next frame in the gallery, or the last one drawn by the software renderer. The
+         * result is shown in a toast.
+         */
+        private void saveWallpaper() {
+            if (glSurfaceView != null) {
+                glSurfaceView.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        fractalClockRenderer.requestScreenshot(screenshotCallback);
                     }
-                } else if (clockType == 2) {
-                    int i = 0;
-                    final float angleStep = 2 * (float) Math.PI / 60.0f;
-                    for (float a = 0.0f; a < 2 * Math.PI; a += angleStep) {
-                        float sx = (float) Math.sin(a) * radius;
-                        float sy = -(float) Math.cos(a) * radius;
-                        
-                        if (i % 5 == 0) {
-                            canvas.drawLine(x + sx * 1.2f, y + sy * 1.2f, x + sx * 1.3f, y + sy * 1.3f, clockHourMarkPaint);
-                        } else {
-                            canvas.drawLine(x + sx * 1.2f, y + sy * 1.2f, x + sx * 1.25f, y + sy * 1.25f, clockMinMarkPaint);
+                });
+                // The frame must be drawn even if it is equal to the last one.
+                frameSkipper.invalidate();
+                glSurfaceView.requestRender();
+            } else if (softwareBitmap != null) {
+                fractalClockRenderer.saveScreenshot(softwareFramebuffer,
+                        softwareBitmap.getWidth(), softwareBitmap.getHeight(), screenshotCallback);
+            } else {
+                // Nothing was drawn yet.
+                ScreenshotPipeline.reportBusy(screenshotCallback);
+            }
+        }
+        
+        /**
+         * Draws the clock, as it was in the last frame, in a PNG of the given size, and saves it
+         * in the gallery. This is done in a background thread, in bands, so it works for any size.
+         * It is ignored while another poster is being exported.
+         */
+        private void exportPoster(final int width, final int height) {
+            if (!exportingPoster.compareAndSet(false, true)) {
+                Log.w(TAG, "A poster is already being exported");
+                return;
+            }
+            final SoftwareRenderer renderer = new SoftwareRenderer(FractalClockRenderer.getGeometryPool());
+            setupSoftwareRenderer(renderer, lastTimeHour, lastTimeMin, lastAbrtTime);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    String image_name = new SimpleDateFormat("yyyy-MM-dd_HHmmss", Locale.US).format(new Date());
+                    ContentResolver cr = getContentResolver();
+                    
+                    ContentValues values = new ContentValues();
+                    values.put(MediaStore.Images.Media.TITLE, image_name);
+                    values.put(MediaStore.Images.Media.DISPLAY_NAME, image_name);
+                    values.put(MediaStore.Images.Media.DESCRIPTION, "A poster from FractalClock Live Wallpaper");
+                    values.put(MediaStore.Images.Media.MIME_TYPE, "image/png");
+                    values.put(MediaStore.Images.Media.DATE_ADDED, System.currentTimeMillis());
+                    
+                    Uri url = null;
+                    try {
+                        url = cr.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+                        if (url != null) {
+                            OutputStream out = new BufferedOutputStream(cr.openOutputStream(url));
+                            try {
+                                new PosterExporter(renderer).export(width, height, out);
+                            } finally {
+                                out.close();
+                            }
                         }
-                        i++;
+                    } catch (Exception e) {
+                        Log.w(TAG, "Failed to export the poster", e);
+                        if (url != null) {
+                            cr.delete(url, null, null);
+                        }
+                    } finally {
+                        exportingPoster.set(false);
                     }
                 }
-            }
+            }, "PosterExporter").start();
         }
         
         class WallpaperGLSurfaceView extends GLSurfaceView {
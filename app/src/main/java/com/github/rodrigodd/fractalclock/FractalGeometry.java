@@ -0,0 +1,324 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the branches of the fractal on the CPU, the same ones that fractalclock_vert.glsl
+ * computes for each vertex.
+ * <p>
+ * The nodes are stored in the same BFS order used by the shader: node i is the end point of
+ * branch i, and the branch with index 2^n - 1 + id, in deep n, starts at the node with id
+ * {@code id mod 2^(n-1)} in deep n-1. The lowest bit of id is the turn made at the root, so a
+ * even id turns by the hour angle and a odd id turns by the minute angle. Each deep is built from
+ * the deep above it, so a frame costs O(N) instead of the O(N * deep) of the shader.
+ */
+public class FractalGeometry implements BranchProducer {
+    static final float LENGTH_RATIO = 0.7f;
+    // The root branch has length zero, and the next two are the pointers, that are drawn by the
+    // clock program, so the renderer only draw the branches starting from this one.
+    static final int FIRST_BRANCH = 3;
+    // The renderer vertex buffer has room for a fractal with this deep.
+    static final int MAX_DEEP = 19;
+    
+    // Below this number of nodes, forking the work costs more than it saves.
+    private static final int PARALLEL_THRESHOLD = 1 << 12;
+    
+    private final ForkJoinPool pool;
+    private final SubtreeTask[] subtreeTasks;
+    private final RecursiveAction rootTask;
+    // The deep where the tree is split, so each task computes the subtree of one node of it.
+    private final int splitDeep;
+    
+    private final float[] screenSize = { 1.0f, 1.0f };
+    private float clockSize = 0.5f;
+    private final float[] time = { -0.15f, 0.15f };
+    private int maxDeep = 0;
+    
+    // Position and direction of the last segment, for each node, in pixels.
+    private float[] nodeX = new float[0];
+    private float[] nodeY = new float[0];
+    private float[] nodeSin = new float[0];
+    private float[] nodeCos = new float[0];
+    private final float[] deepLength = new float[MAX_DEEP + 1];
+    private float hourSin, hourCos;
+    private float minSin, minCos;
+    private int lastDeep;
+    
+    /**
+     * @param pool the pool where the subtrees are computed, or null to compute everything in the
+     *             calling thread.
+     */
+    FractalGeometry(ForkJoinPool pool) {
+        this.pool = pool;
+        if (pool != null) {
+            // A few tasks per thread, so a slow thread don't hold the others.
+            int tasks = Integer.highestOneBit(Math.max(1, pool.getParallelism() * 4 - 1)) << 1;
+            splitDeep = Integer.numberOfTrailingZeros(tasks);
+            subtreeTasks = new SubtreeTask[tasks];
+            for (int i = 0; i < tasks; i++) {
+                subtreeTasks[i] = new SubtreeTask(i);
+            }
+            rootTask = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(subtreeTasks);
+                }
+            };
+        } else {
+            splitDeep = 0;
+            subtreeTasks = null;
+            rootTask = null;
+        }
+    }
+    
+    @Override
+    public void setScreenSize(float width, float height) {
+        screenSize[0] = width;
+        screenSize[1] = height;
+    }
+    
+    @Override
+    public void setClockSize(float clockSize) {
+        this.clockSize = clockSize;
+    }
+    
+    @Override
+    public void setTime(float hour, float min) {
+        time[0] = hour;
+        time[1] = min;
+    }
+    
+    @Override
+    public void setDeep(int deep) {
+        if (deep < 0 || deep > MAX_DEEP) {
+            throw new IllegalArgumentException("deep must be in [0, " + MAX_DEEP + "], was " + deep);
+        }
+        maxDeep = deep;
+    }
+    
+    int getDeep() {
+        return maxDeep;
+    }
+    
+    /**
+     * The number of branches drawn by the renderer for a given deep, starting at FIRST_BRANCH.
+     */
+    static int branchCount(int deep) {
+        return Math.max(0, (1 << deep) - 4);
+    }
+    
+    /**
+     * The biggest deep where the renderer only draws branches of at least minPixels. Each deep is
+     * LENGTH_RATIO times shorter than the one above it, so the deeper branches would be smaller
+     * than a pixel, only covering the pixels already covered by their parents.
+     *
+     * @param clockSize     the clock size, like in the renderer.
+     * @param minScreenSize the smaller side of the screen, in pixels.
+     */
+    static int visibleDeep(float clockSize, float minScreenSize, float minPixels) {
+        // The pointers, in deep 1, have half of clockSize * minScreenSize, because the clip space
+        // has size 2. The branches in deep n have LENGTH_RATIO^(n-1) of that, and the deepest
+        // branches drawn for a deep d are in deep d - 1.
+        float pointerPixels = clockSize * minScreenSize / 2.0f;
+        double levels = Math.log(minPixels / pointerPixels) / Math.log(LENGTH_RATIO);
+        return Math.max(2, 2 + (int) Math.floor(Math.min(levels, MAX_DEEP)));
+    }
+    
+    int getBranchCount() {
+        return branchCount(maxDeep);
+    }
+    
+    /**
+     * The number of nodes computed by the last call to compute().
+     */
+    int getNodeCount() {
+        return (1 << (lastDeep + 1)) - 1;
+    }
+    
+    /**
+     * Position of a node computed by the last call to compute(), in pixels, with the root at the
+     * origin.
+     */
+    float getNodeX(int node) {
+        return nodeX[node];
+    }
+    
+    float getNodeY(int node) {
+        return nodeY[node];
+    }
+    
+    /**
+     * The sin and cos of the angle of the last segment of the branch that ends in the node.
+     */
+    float getNodeSin(int node) {
+        return nodeSin[node];
+    }
+    
+    float getNodeCos(int node) {
+        return nodeCos[node];
+    }
+    
+    /**
+     * Computes all nodes needed by the branches of the current deep.
+     */
+    @Override
+    public void compute() {
+        // The last branch drawn is in deep maxDeep - 1, so is its end node.
+        lastDeep = Math.max(0, maxDeep - 1);
+        int nodeCount = (1 << (lastDeep + 1)) - 1;
+        if (nodeX.length < nodeCount) {
+            nodeX = new float[nodeCount];
+            nodeY = new float[nodeCount];
+            nodeSin = new float[nodeCount];
+            nodeCos = new float[nodeCount];
+        }
+        
+        final float PI = 3.141592653f;
+        hourSin = (float) Math.sin(2.0f * PI * time[0]);
+        hourCos = (float) Math.cos(2.0f * PI * time[0]);
+        minSin = (float) Math.sin(2.0f * PI * time[1]);
+        minCos = (float) Math.cos(2.0f * PI * time[1]);
+        
+        deepLength[1] = clockSize * Math.min(screenSize[0], screenSize[1]);
+        for (int i = 2; i <= lastDeep; i++) {
+            deepLength[i] = deepLength[i - 1] * LENGTH_RATIO;
+        }
+        
+        nodeX[0] = 0.0f;
+        nodeY[0] = 0.0f;
+        nodeSin[0] = 0.0f;
+        nodeCos[0] = 1.0f;
+        
+        if (pool == null || nodeCount < PARALLEL_THRESHOLD || lastDeep <= splitDeep) {
+            computeSubtree(0, 0, lastDeep);
+        } else {
+            computeSubtree(0, 0, splitDeep);
+            for (SubtreeTask task : subtreeTasks) {
+                task.reinitialize();
+            }
+            rootTask.reinitialize();
+            pool.invoke(rootTask);
+        }
+    }
+    
+    /**
+     * Computes the descendants of the node with the given id, in the given deep, down to the deep
+     * lastDeep.
+     */
+    private void computeSubtree(int id, int deep, int lastDeep) {
+        final float[] nodeX = this.nodeX;
+        final float[] nodeY = this.nodeY;
+        final float[] nodeSin = this.nodeSin;
+        final float[] nodeCos = this.nodeCos;
+        final float hourSin = this.hourSin, hourCos = this.hourCos;
+        final float minSin = this.minSin, minCos = this.minCos;
+        
+        // The descendants of the node in deep n are the nodes whose id are congruent to its id
+        // modulo 2^deep.
+        final int stride = 1 << deep;
+        for (int n = deep + 1; n <= lastDeep; n++) {
+            final int half = 1 << (n - 1);
+            final int parentStart = half - 1;
+            final int childStart = (1 << n) - 1;
+            final float length = deepLength[n];
+            for (int p = id; p < half; p += stride) {
+                int parent = parentStart + p;
+                float x = nodeX[parent];
+                float y = nodeY[parent];
+                float s = nodeSin[parent];
+                float c = nodeCos[parent];
+                
+                // rotate left
+                int child = childStart + p;
+                float cs = s * hourCos + c * hourSin;
+                float cc = c * hourCos - s * hourSin;
+                nodeX[child] = x + length * cs;
+                nodeY[child] = y + length * cc;
+                nodeSin[child] = cs;
+                nodeCos[child] = cc;
+                
+                // rotate right
+                child += half;
+                cs = s * minCos + c * minSin;
+                cc = c * minCos - s * minSin;
+                nodeX[child] = x + length * cs;
+                nodeY[child] = y + length * cc;
+                nodeSin[child] = cs;
+                nodeCos[child] = cc;
+            }
+        }
+    }
+    
+    /**
+     * Writes the two end points of count branches, starting at the branch firstBranch, in the
+     * same coordinates of gl_Position.
+     *
+     * @return the number of floats written, 4 for each branch.
+     */
+    int fill(float[] out, int offset, int firstBranch, int count) {
+        final float invWidth = 1.0f / screenSize[0];
+        final float invHeight = 1.0f / screenSize[1];
+        int o = offset;
+        for (int b = firstBranch; b < firstBranch + count; b++) {
+            int start = parentOf(b);
+            out[o++] = nodeX[start] * invWidth;
+            out[o++] = nodeY[start] * invHeight;
+            out[o++] = nodeX[b] * invWidth;
+            out[o++] = nodeY[b] * invHeight;
+        }
+        return o - offset;
+    }
+    
+    /**
+     * Same as fill(float[], ...), but writing in the buffer at its current position.
+     */
+    @Override
+    public int fill(FloatBuffer out, int firstBranch, int count) {
+        final float invWidth = 1.0f / screenSize[0];
+        final float invHeight = 1.0f / screenSize[1];
+        for (int b = firstBranch; b < firstBranch + count; b++) {
+            int start = parentOf(b);
+            out.put(nodeX[start] * invWidth);
+            out.put(nodeY[start] * invHeight);
+            out.put(nodeX[b] * invWidth);
+            out.put(nodeY[b] * invHeight);
+        }
+        return 4 * count;
+    }
+    
+    /**
+     * Fills the vertices of all branches drawn by the renderer.
+     */
+    int fill(float[] out) {
+        return fill(out, 0, FIRST_BRANCH, getBranchCount());
+    }
+    
+    /**
+     * The node where a branch starts. The root branch starts and ends at the root.
+     */
+    static int parentOf(int branch) {
+        if (branch == 0) return 0;
+        int deep = 31 - Integer.numberOfLeadingZeros(branch + 1);
+        int half = 1 << (deep - 1);
+        int id = branch + 1 - (half << 1);
+        return half - 1 + (id & (half - 1));
+    }
+    
+    private class SubtreeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final int id;
+        
+        SubtreeTask(int id) {
+            this.id = id;
+        }
+        
+        @Override
+        protected void compute() {
+            computeSubtree(id, splitDeep, lastDeep);
+        }
+    }
+}
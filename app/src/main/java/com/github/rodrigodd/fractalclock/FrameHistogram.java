@@ -0,0 +1,140 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * A histogram of durations, in nanoseconds, with a fixed number of buckets, so recording a value
+ * never allocates.
+ * <p>
+ * The buckets are log-scaled: each power of two is split in SUB_BUCKETS buckets, so a percentile
+ * is off by at most 1/SUB_BUCKETS of its value. Durations above MAX_NANOS are counted in the last
+ * bucket, but the max is always exact.
+ */
+class FrameHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // About 18 minutes
+    private static final int MAX_EXPONENT = 40;
+    static final long MAX_NANOS = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    
+    private final String name;
+    private final int[] buckets = new int[BUCKET_COUNT];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+    
+    FrameHistogram(String name) {
+        this.name = name;
+    }
+    
+    String getName() {
+        return name;
+    }
+    
+    synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[bucketOf(Math.min(nanos, MAX_NANOS))]++;
+        count++;
+        total += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+    
+    synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+    
+    synchronized long getCount() {
+        return count;
+    }
+    
+    synchronized long getMax() {
+        return max;
+    }
+    
+    synchronized long getMean() {
+        return count == 0 ? 0 : total / count;
+    }
+    
+    /**
+     * The smallest duration that is greater or equal to the given fraction of the recorded
+     * durations, rounded up to the end of its bucket, but never above the max.
+     */
+    synchronized long getPercentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(bucketEnd(i), max);
+            }
+        }
+        return max;
+    }
+    
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int mantissa = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+    
+    /**
+     * The largest duration that falls in the bucket.
+     */
+    static long bucketEnd(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long mantissa = bucket % SUB_BUCKETS;
+        long start = (SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS);
+        return start + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+    
+    /**
+     * Appends a line with the count, mean, p50, p95, p99 and max, in milliseconds.
+     */
+    void appendTo(StringBuilder out) {
+        long count, mean, p50, p95, p99, max;
+        synchronized (this) {
+            count = this.count;
+            mean = getMean();
+            p50 = getPercentile(0.50);
+            p95 = getPercentile(0.95);
+            p99 = getPercentile(0.99);
+            max = this.max;
+        }
+        out.append(name).append(": n=").append(count);
+        appendMillis(out.append(" mean="), mean);
+        appendMillis(out.append(" p50="), p50);
+        appendMillis(out.append(" p95="), p95);
+        appendMillis(out.append(" p99="), p99);
+        appendMillis(out.append(" max="), max);
+        out.append('\n');
+    }
+    
+    private static void appendMillis(StringBuilder out, long nanos) {
+        long micros = nanos / 1000;
+        out.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) out.append('0');
+        if (fraction < 10) out.append('0');
+        out.append(fraction).append("ms");
+    }
+}
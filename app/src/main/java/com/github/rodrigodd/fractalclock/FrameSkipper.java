@@ -0,0 +1,118 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * Decides if a new frame would look different from the last frame presented, so frames that
+ * would only move the fractal by a fraction of a pixel can be skipped.
+ * <p>
+ * Each segment of a branch in deep s has turned by s angles, each one the hour angle or the minute
+ * angle. If these angles change by at most delta, the segment turns by at most s * delta, and its
+ * end moves by at most its length times that. So no tip of the fractal moves more than
+ * {@code delta * sum(s * L1 * LENGTH_RATIO^(s - 1))}, for the segments down to the last drawn
+ * deep. The bound is measured from the last presented frame, so many small changes add up until
+ * one is drawn. Any change of the colors is always drawn.
+ */
+class FrameSkipper {
+    private float threshold = 0;
+    
+    private boolean hasLastFrame = false;
+    private float lastHour, lastMin;
+    private float lastRootLength;
+    private int lastDeep;
+    private int lastHourColor, lastMinColor, lastClockColor, lastBackgroundColor;
+    
+    private long drawnFrames = 0;
+    private long skippedFrames = 0;
+    
+    /**
+     * The largest movement, in pixels, of a frame that is skipped. Zero never skips a frame.
+     */
+    void setThreshold(float pixels) {
+        threshold = pixels;
+    }
+    
+    float getThreshold() {
+        return threshold;
+    }
+    
+    /**
+     * Forces the next frame to be drawn, because something that this class don't track changed,
+     * like the screen size or the clock type.
+     */
+    void invalidate() {
+        hasLastFrame = false;
+    }
+    
+    /**
+     * Returns if the frame must be drawn, and if it is, takes it as the last presented frame.
+     *
+     * @param timeHour   the hour pointer, in turns.
+     * @param timeMin    the minute pointer, in turns.
+     * @param rootLength the length of the pointers, the first segment of each branch, in pixels.
+     * @param deep       the deep of the fractal.
+     */
+    synchronized boolean shouldDraw(float timeHour, float timeMin, float rootLength, int deep,
+                                    int hourColor, int minColor, int clockColor, int backgroundColor) {
+        boolean draw = !hasLastFrame
+                || threshold <= 0
+                || rootLength != lastRootLength
+                || deep != lastDeep
+                || hourColor != lastHourColor
+                || minColor != lastMinColor
+                || clockColor != lastClockColor
+                || backgroundColor != lastBackgroundColor
+                || displacementBound(turnDelta(timeHour, lastHour), turnDelta(timeMin, lastMin),
+                        rootLength, deep) >= threshold;
+        if (!draw) {
+            skippedFrames++;
+            return false;
+        }
+        drawnFrames++;
+        hasLastFrame = true;
+        lastHour = timeHour;
+        lastMin = timeMin;
+        lastRootLength = rootLength;
+        lastDeep = deep;
+        lastHourColor = hourColor;
+        lastMinColor = minColor;
+        lastClockColor = clockColor;
+        lastBackgroundColor = backgroundColor;
+        return true;
+    }
+    
+    synchronized long getDrawnFrames() {
+        return drawnFrames;
+    }
+    
+    synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+    
+    synchronized void resetCounters() {
+        drawnFrames = 0;
+        skippedFrames = 0;
+    }
+    
+    /**
+     * The difference between two angles in turns, the short way around.
+     */
+    static float turnDelta(float a, float b) {
+        float delta = Math.abs(a - b) % 1.0f;
+        return Math.min(delta, 1.0f - delta);
+    }
+    
+    /**
+     * An upper bound of how much any tip of the fractal moves, in pixels, when the hour and the
+     * minute pointers turn by the given amounts, in turns.
+     */
+    static float displacementBound(float hourDelta, float minDelta, float rootLength, int deep) {
+        float delta = 2.0f * (float) Math.PI * Math.max(hourDelta, minDelta);
+        // The segments of the branches drawn, from deep 1 to deep - 1.
+        float sum = 0;
+        float length = rootLength;
+        for (int s = 1; s < Math.max(deep, 2); s++) {
+            sum += s * length;
+            length *= FractalGeometry.LENGTH_RATIO;
+        }
+        return delta * sum;
+    }
+}
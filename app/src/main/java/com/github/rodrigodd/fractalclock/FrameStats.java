@@ -0,0 +1,80 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * The timing statistics of a wallpaper engine: the time spent preparing a frame in the main
+ * thread, drawing it in the GL thread, uploading textures, and how late the scheduled redraws run,
+ * and also the time spent loading the programs when a GL context is created.
+ * <p>
+ * Each one is a FrameHistogram, so recording a duration don't allocate. In the smooth animation
+ * mode, the vsyncs that were missed are also counted.
+ */
+class FrameStats {
+    static final int ENGINE_DRAW = 0;
+    static final int GL_FRAME = 1;
+    static final int TEXTURE_UPLOAD = 2;
+    static final int SCHEDULER_LATENCY = 3;
+    // Loading or compiling a program, when a context is created.
+    static final int PROGRAM_LOAD = 4;
+    static final int COUNT = 5;
+    
+    private final FrameHistogram[] histograms = {
+            new FrameHistogram("engine draw"),
+            new FrameHistogram("gl frame"),
+            new FrameHistogram("texture upload"),
+            new FrameHistogram("scheduler latency"),
+            new FrameHistogram("program load"),
+    };
+    private long vsyncFrames = 0;
+    private long missedVsyncs = 0;
+
+    void record(int stat, long nanos) {
+        histograms[stat].record(nanos);
+    }
+    
+    FrameHistogram get(int stat) {
+        return histograms[stat];
+    }
+    
+    /**
+     * Counts a frame drawn in a vsync, and the vsyncs that passed without a frame before it.
+     */
+    synchronized void recordVsync(int missed) {
+        vsyncFrames++;
+        missedVsyncs += missed;
+    }
+    
+    synchronized long getVsyncFrames() {
+        return vsyncFrames;
+    }
+    
+    synchronized long getMissedVsyncs() {
+        return missedVsyncs;
+    }
+    
+    void reset() {
+        for (FrameHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        synchronized (this) {
+            vsyncFrames = 0;
+            missedVsyncs = 0;
+        }
+    }
+
+    /**
+     * All the statistics as text, one line for each.
+     */
+    String dump() {
+        StringBuilder out = new StringBuilder();
+        for (FrameHistogram histogram : histograms) {
+            histogram.appendTo(out);
+        }
+        synchronized (this) {
+            if (vsyncFrames > 0) {
+                out.append("vsync: frames=").append(vsyncFrames)
+                        .append(" missed=").append(missedVsyncs).append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,272 @@
+package com.github.rodrigodd.fractalclock;
+
+import android.opengl.GLES20;
+
+/**
+ * The buffers, textures and programs of a renderer. Each one is described on the CPU, and the GL
+ * object is only created when it is first used in a context, so after the context is lost they are
+ * created again lazily, by the next frame that needs them.
+ * <p>
+ * The storage of buffers and textures is reused while it is large enough, or has the same
+ * dimensions, with glBufferSubData and glTexSubImage2D, instead of being allocated again.
+ * <p>
+ * All methods must be called in the GL thread.
+ */
+class GlResources {
+    
+    interface ProgramSource {
+        /**
+         * Compiles and links the program in the current context. May return null, if the program
+         * is not supported, so it is not tried again until the context is recreated.
+         */
+        ShaderProgram create();
+    }
+    
+    static final class Buffer {
+        final int target;
+        final int usage;
+        private int handle;
+        private int generation = -1;
+        private int capacity;
+        
+        private Buffer(int target, int usage) {
+            this.target = target;
+            this.usage = usage;
+        }
+    }
+    
+    static final class Texture {
+        final int format;
+        final int filter;
+        private int handle;
+        private int generation = -1;
+        private int width;
+        private int height;
+        
+        private Texture(int format, int filter) {
+            this.format = format;
+            this.filter = filter;
+        }
+    }
+    
+    static final class Program {
+        private final ProgramSource source;
+        private ShaderProgram program;
+        private int generation = -1;
+        
+        private Program(ProgramSource source) {
+            this.source = source;
+        }
+    }
+    
+    // Incremented for each new context, the objects of the older ones are gone.
+    private int generation = 0;
+    // Debug counter, of the GL objects created since the start.
+    int creations = 0;
+    // The storage of the buffers and textures in the current context.
+    private int bytes = 0;
+    // If an object was created, or had its storage or contents changed, since takeModified.
+    private boolean modified = false;
+    
+    Buffer buffer(int target, int usage) {
+        return new Buffer(target, usage);
+    }
+    
+    /**
+     * A 2D texture, clamped to the edges, with the given format for both the internal and the
+     * uploaded pixels, in unsigned bytes.
+     */
+    Texture texture(int format, int filter) {
+        return new Texture(format, filter);
+    }
+    
+    Program program(ProgramSource source) {
+        return new Program(source);
+    }
+    
+    /**
+     * Must be called when a GL context is created, because all the objects of the previous one
+     * are lost. They are not deleted, because the context that owned them is already gone.
+     */
+    void onContextCreated() {
+        generation++;
+        bytes = 0;
+        ShaderProgram.invalidateCurrent();
+    }
+    
+    /**
+     * Binds the buffer, creating it if it doesn't exist in this context.
+     *
+     * @return if the buffer was just created, so it has no storage.
+     */
+    boolean bind(Buffer buffer) {
+        boolean created = false;
+        if (buffer.generation != generation) {
+            buffer.handle = genBuffer();
+            buffer.generation = generation;
+            buffer.capacity = 0;
+            creations++;
+            created = true;
+        }
+        bindBuffer(buffer.target, buffer.handle);
+        return created;
+    }
+    
+    /**
+     * Binds the buffer, and makes sure it has storage for at least the given bytes.
+     */
+    void reserve(Buffer buffer, int bytes) {
+        bind(buffer);
+        if (buffer.capacity < bytes) {
+            bufferData(buffer.target, bytes, null, buffer.usage);
+            this.bytes += bytes - buffer.capacity;
+            buffer.capacity = bytes;
+            modified = true;
+        }
+    }
+    
+    /**
+     * Binds the buffer, and uploads the data at its start, reusing the storage if it is large
+     * enough.
+     */
+    void upload(Buffer buffer, int bytes, java.nio.Buffer data) {
+        bind(buffer);
+        if (buffer.capacity < bytes) {
+            bufferData(buffer.target, bytes, data, buffer.usage);
+            this.bytes += bytes - buffer.capacity;
+            buffer.capacity = bytes;
+        } else {
+            bufferSubData(buffer.target, bytes, data);
+        }
+        modified = true;
+    }
+    
+    /**
+     * Binds the texture in the active unit, creating it if it doesn't exist in this context.
+     *
+     * @return if the texture was just created, so it has no pixels.
+     */
+    boolean bind(Texture texture) {
+        if (texture.generation != generation) {
+            texture.handle = genTexture();
+            texture.generation = generation;
+            texture.width = 0;
+            texture.height = 0;
+            creations++;
+            bindTexture(texture.handle);
+            texParameters(texture.filter);
+            return true;
+        }
+        bindTexture(texture.handle);
+        return false;
+    }
+    
+    /**
+     * Binds the texture in the active unit and uploads the pixels, reusing the storage if it has
+     * the same dimensions.
+     */
+    void upload(Texture texture, int width, int height, java.nio.Buffer pixels) {
+        bind(texture);
+        if (texture.width == width && texture.height == height) {
+            texSubImage(width, height, texture.format, pixels);
+        } else {
+            texImage(width, height, texture.format, pixels);
+            bytes += pixelBytes(texture.format) * (width * height - texture.width * texture.height);
+            texture.width = width;
+            texture.height = height;
+        }
+        modified = true;
+    }
+    
+    /**
+     * The program in this context, linking it if it wasn't yet.
+     */
+    ShaderProgram get(Program program) {
+        if (program.generation != generation) {
+            program.program = program.source.create();
+            program.generation = generation;
+            creations++;
+            modified = true;
+        }
+        return program.program;
+    }
+    
+    /**
+     * If any object was created, or had its storage or contents changed, since the last call.
+     * Clears the flag.
+     */
+    boolean takeModified() {
+        boolean result = modified;
+        modified = false;
+        return result;
+    }
+    
+    /**
+     * The bytes of storage of the buffers and textures in the current context, not counting the
+     * programs, or the padding the driver may add.
+     */
+    int getBytes() {
+        return bytes;
+    }
+    
+    private static int pixelBytes(int format) {
+        switch (format) {
+            case GLES20.GL_ALPHA:
+            case GLES20.GL_LUMINANCE:
+                return 1;
+            case GLES20.GL_LUMINANCE_ALPHA:
+                return 2;
+            case GLES20.GL_RGB:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+    
+    // The GL calls, overridden by the tests.
+    
+    int genBuffer() {
+        int[] handle = {0};
+        GLES20.glGenBuffers(1, handle, 0);
+        return handle[0];
+    }
+    
+    void bindBuffer(int target, int handle) {
+        GLES20.glBindBuffer(target, handle);
+    }
+    
+    void bufferData(int target, int bytes, java.nio.Buffer data, int usage) {
+        GLES20.glBufferData(target, bytes, data, usage);
+    }
+    
+    void bufferSubData(int target, int bytes, java.nio.Buffer data) {
+        GLES20.glBufferSubData(target, 0, bytes, data);
+    }
+    
+    int genTexture() {
+        int[] handle = {0};
+        GLES20.glGenTextures(1, handle, 0);
+        return handle[0];
+    }
+    
+    void bindTexture(int handle) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
+    }
+    
+    void texParameters(int filter) {
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, filter);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, filter);
+    }
+    
+    void texImage(int width, int height, int format, java.nio.Buffer pixels) {
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                format, GLES20.GL_UNSIGNED_BYTE, pixels);
+    }
+    
+    void texSubImage(int width, int height, int format, java.nio.Buffer pixels) {
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                format, GLES20.GL_UNSIGNED_BYTE, pixels);
+    }
+}
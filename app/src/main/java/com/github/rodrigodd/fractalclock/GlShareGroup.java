@@ -0,0 +1,363 @@
+package com.github.rodrigodd.fractalclock;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLSurfaceView;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+
+/**
+ * The GL objects that don't depend on the surface, shared by the renderers of all the engines of
+ * the service, like the preview of the wallpaper picker and the wallpaper in the home screen.
+ * <p>
+ * Each renderer still has its own context, but they are all created by this factory, sharing the
+ * objects of the contexts alive, so the programs and the vertex ids exist only once. The group
+ * keeps the list of the contexts alive, and when the last one is destroyed the shared objects are
+ * gone with it, and they are created again, lazily, in the next context. The buffers and textures that
+ * depend on what each engine draws are kept by its renderer.
+ * <p>
+ * The renderers draw one at a time, holding frameLock, because the objects are shared, and so are
+ * the values of the uniforms of the programs.
+ */
+class GlShareGroup implements GLSurfaceView.EGLContextFactory {
+    private static final String TAG = "GlShareGroup";
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final int[] CONTEXT_ATTRIBS = { EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE };
+    
+    // Held while a renderer draws a frame, or a context is created or destroyed.
+    final Object frameLock = new Object();
+    
+    private final Context context;
+    // The contexts alive, that share the objects.
+    private final ArrayList<EGLContext> contexts = new ArrayList<>();
+    // The renderer that drew the last frame, and the stats where it records the program loads.
+    private Object lastRenderer;
+    private FrameStats frameStats;
+    
+    final GlResources resources = new GlResources();
+    // The linked programs of the previous contexts, or null if the context can't load them.
+    private ProgramBinaryCache programCache;
+    private boolean programCacheChecked = false;
+    
+    final GlResources.Program fractalProgram;
+    // Same as fractalProgram, but looking up the angles in angleTable. It is null when the GPU don't
+    // have enough uniforms for the table.
+    final GlResources.Program tableProgram;
+    final GlResources.Program clockProgram;
+    final GlResources.Program streamProgram;
+    final GlResources.Program instancedProgram;
+    final GlResources.Program overlayProgram;
+    
+    // The id of each vertex, sized for the deepest fractal drawn by any renderer.
+    private final GlResources.Buffer vertexIDBuffer =
+            resources.buffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW);
+    private final VertexIdBuffer vertexIds = new VertexIdBuffer(2 * FractalClockRenderer.MAX_SIZE);
+    
+    GlShareGroup(Context context) {
+        this.context = context;
+        fractalProgram = program(R.raw.fractalclock_vert, R.raw.fractalclock_frag);
+        tableProgram = resources.program(new GlResources.ProgramSource() {
+            @Override
+            public ShaderProgram create() {
+                int[] maxVertexUniforms = new int[1];
+                GLES20.glGetIntegerv(GLES20.GL_MAX_VERTEX_UNIFORM_VECTORS, maxVertexUniforms, 0);
+                // The other uniforms take less than 8 vectors
+                if (maxVertexUniforms[0] < AngleTable.SIZE + 8) {
+                    return null;
+                }
+                try {
+                    return createShaderProgram(R.raw.fractalclock_table_vert, R.raw.fractalclock_frag);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Could not create the angle table program, using the shader loop instead", e);
+                    return null;
+                }
+            }
+        });
+        clockProgram = program(R.raw.clock_vert, R.raw.clock_frag);
+        streamProgram = program(R.raw.fractalclock_stream_vert, R.raw.fractalclock_frag);
+        instancedProgram = program(R.raw.fractalclock_instanced_vert, R.raw.fractalclock_frag);
+        overlayProgram = program(R.raw.overlay_vert, R.raw.overlay_frag);
+    }
+    
+    @Override
+    public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config) {
+        synchronized (frameLock) {
+            EGLContext shared = contexts.isEmpty() ? EGL10.EGL_NO_CONTEXT : contexts.get(0);
+            EGLContext created = egl.eglCreateContext(display, config, shared, CONTEXT_ATTRIBS);
+            if (created == null || created == EGL10.EGL_NO_CONTEXT) {
+                // GLSurfaceView throws with the EGL error.
+                return created;
+            }
+            if (contexts.isEmpty()) {
+                // A new group, the objects of the last one are gone.
+                resources.onContextCreated();
+                programCache = null;
+                programCacheChecked = false;
+            }
+            contexts.add(created);
+            lastRenderer = null;
+            return created;
+        }
+    }
+    
+    @Override
+    public void destroyContext(EGL10 egl, EGLDisplay display, EGLContext context) {
+        synchronized (frameLock) {
+            contexts.remove(context);
+            lastRenderer = null;
+            if (!egl.eglDestroyContext(display, context)) {
+                Log.e(TAG, "eglDestroyContext failed: 0x" + Integer.toHexString(egl.eglGetError()));
+            }
+        }
+    }
+    
+    /**
+     * The number of contexts alive, one for each engine that is drawing with GL.
+     */
+    int getContextCount() {
+        synchronized (frameLock) {
+            return contexts.size();
+        }
+    }
+    
+    /**
+     * The bytes of the shared buffers and textures, that exist only once for all the contexts.
+     */
+    int getGlBytes() {
+        return resources.getBytes();
+    }
+    
+    /**
+     * Must be called by a renderer, holding frameLock, before drawing a frame.
+     *
+     * @param stats where the time to load the programs is recorded, or null.
+     */
+    void beginFrame(Object renderer, FrameStats stats) {
+        if (lastRenderer != renderer) {
+            // Other context, where no program is in use yet.
+            ShaderProgram.invalidateCurrent();
+            lastRenderer = renderer;
+        }
+        frameStats = stats;
+    }
+    
+    /**
+     * Must be called by a renderer, holding frameLock, after drawing a frame.
+     */
+    void endFrame() {
+        // The changes to shared objects are only guaranteed to be seen by other contexts after
+        // they are finished. Most frames change none, so they don't wait for the GPU.
+        if (resources.takeModified() && contexts.size() > 1) {
+            GLES20.glFinish();
+        }
+    }
+    
+    private GlResources.Program program(final int vertexResource, final int fragmentResource) {
+        return resources.program(new GlResources.ProgramSource() {
+            @Override
+            public ShaderProgram create() {
+                return createShaderProgram(vertexResource, fragmentResource);
+            }
+        });
+    }
+    
+    /**
+     * Points the attribute to the id of each vertex, growing the buffer if it has less than the
+     * given number of vertices, or was lost with the context.
+     */
+    void bindVertexIDBuffer(int vertexIDHandle, int vertexCount) {
+        if (resources.bind(vertexIDBuffer)) {
+            vertexIds.invalidate();
+        }
+        if (!vertexIds.fits(vertexCount)) {
+            ByteBuffer ids = vertexIds.grow(vertexCount);
+            resources.upload(vertexIDBuffer, vertexIds.getBytes(), ids);
+        }
+        GLES20.glEnableVertexAttribArray(vertexIDHandle);
+        GLES20.glVertexAttribPointer(vertexIDHandle, 1,
+                vertexIds.isShort() ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_FLOAT, false, 0, 0);
+    }
+    
+    /**
+     * The cache of the program binaries, if the current context can load them, or null.
+     */
+    private ProgramBinaryCache getProgramCache() {
+        if (!programCacheChecked) {
+            programCacheChecked = true;
+            String glVersion = GLES20.glGetString(GLES20.GL_VERSION);
+            if (Build.VERSION.SDK_INT >= 18 && glVersion != null && glVersion.startsWith("OpenGL ES 3")) {
+                int[] formats = {0};
+                GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+                if (formats[0] > 0) {
+                    programCache = new ProgramBinaryCache(
+                            new ProgramBinaryCache.DirectoryStorage(new File(context.getCacheDir(), "programs")),
+                            GLES20.glGetString(GLES20.GL_RENDERER), glVersion);
+                }
+            }
+        }
+        return programCache;
+    }
+    
+    /**
+     * Loads the program from the binary cache, or compiles and links it, and saves its binary.
+     */
+    private ShaderProgram createShaderProgram(int vertexResource, int fragmentResource) {
+        long start = System.nanoTime();
+        Resources res = context.getResources();
+        String vertexSource = stringFromStream(res.openRawResource(vertexResource));
+        String fragmentSource = stringFromStream(res.openRawResource(fragmentResource));
+        
+        ProgramBinaryCache cache = getProgramCache();
+        String key = null;
+        int program = 0;
+        if (cache != null) {
+            key = cache.key(vertexSource, fragmentSource);
+            program = loadProgramBinary(cache, key);
+        }
+        if (program == 0) {
+            int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+            int fragmentShader = 0;
+            try {
+                fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+                program = createProgram(vertexShader, fragmentShader, cache != null);
+            } finally {
+                // The linked program don't need the shaders anymore.
+                GLES20.glDeleteShader(vertexShader);
+                if (fragmentShader != 0) {
+                    GLES20.glDeleteShader(fragmentShader);
+                }
+            }
+            if (cache != null) {
+                saveProgramBinary(cache, key, program);
+            }
+        }
+        
+        if (frameStats != null) {
+            frameStats.record(FrameStats.PROGRAM_LOAD, System.nanoTime() - start);
+        }
+        return ShaderProgram.create(program);
+    }
+    
+    /**
+     * Creates a program from the cached binary, or returns 0 if there is none, or the driver
+     * rejects it, in which case it is removed from the cache.
+     */
+    private static int loadProgramBinary(ProgramBinaryCache cache, String key) {
+        ProgramBinaryCache.Entry entry = cache.load(key);
+        if (entry == null) {
+            return 0;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(entry.binary.length);
+        binary.put(entry.binary);
+        binary.position(0);
+        
+        int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, entry.format, binary, entry.binary.length);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            Log.w(TAG, "The cached program binary was rejected, compiling it again");
+            GLES20.glDeleteProgram(program);
+            cache.invalidate(key);
+            return 0;
+        }
+        return program;
+    }
+    
+    private static void saveProgramBinary(ProgramBinaryCache cache, String key, int program) {
+        int[] length = {0};
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]);
+        int[] format = {0};
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+        byte[] bytes = new byte[length[0]];
+        binary.position(0);
+        binary.get(bytes);
+        if (!cache.save(key, new ProgramBinaryCache.Entry(format[0], bytes))) {
+            Log.w(TAG, "Could not save the program binary");
+        }
+    }
+    
+    /**
+     * @param retrievable if the binary of the program will be retrieved, for the cache. Only
+     *                    supported in GLES3.
+     */
+    private static int createProgram(int vertexShader, int fragmentShader, boolean retrievable) {
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        if (retrievable) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
+        GLES20.glLinkProgram(program);
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != GLES20.GL_TRUE) {
+            RuntimeException error = new RuntimeException("Could not link program: "
+                    + GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            throw error;
+        }
+        // So the shaders are freed when they are deleted.
+        GLES20.glDetachShader(program, vertexShader);
+        GLES20.glDetachShader(program, fragmentShader);
+        return program;
+    }
+    
+    private static int loadShader(int type, String shaderCode) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, shaderCode);
+        GLES20.glCompileShader(shader);
+        
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            RuntimeException error = new RuntimeException("Could not compile program: "
+                    + GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            throw error;
+        }
+        
+        return shader;
+    }
+    
+    private static String stringFromStream(InputStream inputStream) {
+        try {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+                try {
+                    StringBuilder result = new StringBuilder();
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        result.append(line).append("\n");
+                    }
+                    return result.toString();
+                } finally {
+                    reader.close();
+                }
+            } finally {
+                inputStream.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return "Error: can't show help.";
+        }
+    }
+}
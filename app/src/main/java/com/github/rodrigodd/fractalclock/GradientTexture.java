@@ -0,0 +1,128 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The texels of the SIZE x 1 texture that colors the fractal. The fragment shader samples it at
+ * {@code vertexID / 2^(maxDeep + 1)}, so a gradient with any number of stops costs the same as
+ * the mix between the minute and the hour colors, that is the default gradient.
+ * <p>
+ * The texels are only rewritten when the colors change, and the renderer only uploads them when
+ * they are marked as dirty, so a frame with the same colors don't touch the texture.
+ */
+class GradientTexture {
+    static final int SIZE = 256;
+    
+    private final int[] colors = new int[SIZE];
+    private final ByteBuffer texels = ByteBuffer.allocateDirect(SIZE * 4).order(ByteOrder.nativeOrder());
+    private boolean dirty = true;
+    // The last colors given to setTwoColors, so setting the same ones each frame is free.
+    private boolean twoColors = false;
+    private int lastMinColor, lastHourColor;
+    
+    GradientTexture() {
+        setTwoColors(0xff0000ff, 0xffff0000);
+    }
+    
+    /**
+     * A gradient from the minute color, at 0, to the hour color, at 1.
+     */
+    synchronized void setTwoColors(int minColor, int hourColor) {
+        if (twoColors && minColor == lastMinColor && hourColor == lastHourColor) {
+            return;
+        }
+        twoColors = true;
+        lastMinColor = minColor;
+        lastHourColor = hourColor;
+        for (int i = 0; i < SIZE; i++) {
+            // The color at the center of the texel, so the linear filter interpolates exactly.
+            setTexel(i, mix(minColor, hourColor, (i + 0.5f) / SIZE));
+        }
+    }
+    
+    synchronized void setGradient(ColorGradient gradient) {
+        twoColors = false;
+        for (int i = 0; i < SIZE; i++) {
+            setTexel(i, gradient.getColor((i + 0.5f) / SIZE));
+        }
+    }
+    
+    /**
+     * Copies the texels of other gradient, like one baked in a worker thread.
+     */
+    void set(GradientTexture gradient) {
+        int[] colors = gradient.getColors();
+        synchronized (this) {
+            twoColors = false;
+            for (int i = 0; i < SIZE; i++) {
+                setTexel(i, colors[i]);
+            }
+        }
+    }
+    
+    private synchronized int[] getColors() {
+        return colors.clone();
+    }
+    
+    private void setTexel(int i, int color) {
+        color |= 0xff000000;
+        if (colors[i] != color) {
+            colors[i] = color;
+            dirty = true;
+        }
+    }
+    
+    /**
+     * Forces the next upload, because the texture was lost with the GL context.
+     */
+    synchronized void invalidate() {
+        dirty = true;
+    }
+    
+    synchronized boolean isDirty() {
+        return dirty;
+    }
+    
+    /**
+     * Returns the texels as RGBA bytes, ready for glTexImage2D, and marks them as uploaded.
+     */
+    synchronized ByteBuffer takeTexels() {
+        texels.position(0);
+        for (int color : colors) {
+            texels.put((byte) (color >> 16));
+            texels.put((byte) (color >> 8));
+            texels.put((byte) color);
+            texels.put((byte) 0xff);
+        }
+        texels.position(0);
+        dirty = false;
+        return texels;
+    }
+    
+    /**
+     * The color the GPU samples at u, with a linear filter and clamped to the edges, for the
+     * software renderer. It isn't synchronized, because the tiles sample it in parallel, so the
+     * colors must not change while rendering.
+     */
+    int sample(float u) {
+        float x = u * SIZE - 0.5f;
+        if (x <= 0.0f) {
+            return colors[0];
+        }
+        if (x >= SIZE - 1) {
+            return colors[SIZE - 1];
+        }
+        int i = (int) x;
+        return mix(colors[i], colors[i + 1], x - i);
+    }
+    
+    static int mix(int a, int b, float t) {
+        int ar = a >> 16 & 0xFF, ag = a >> 8 & 0xFF, ab = a & 0xFF;
+        int br = b >> 16 & 0xFF, bg = b >> 8 & 0xFF, bb = b & 0xFF;
+        int r = (int) (ar + (br - ar) * t + 0.5f);
+        int g = (int) (ag + (bg - ag) * t + 0.5f);
+        int bl = (int) (ab + (bb - ab) * t + 0.5f);
+        return 0xff000000 | r << 16 | g << 8 | bl;
+    }
+}
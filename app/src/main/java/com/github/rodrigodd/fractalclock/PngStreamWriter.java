@@ -0,0 +1,150 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes a 8-bit RGB PNG image row by row, so the whole image never need to be in memory.
+ * <p>
+ * Each row is filtered with the Sub filter and fed to a Deflater, and the compressed data is
+ * written in IDAT chunks of at most CHUNK_SIZE bytes as soon as they are full. The alpha of the
+ * pixels is ignored.
+ */
+class PngStreamWriter {
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final byte FILTER_SUB = 1;
+    
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] row;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final byte[] header = new byte[13];
+    private final byte[] word = new byte[4];
+    private int chunkLength = 0;
+    private int rowsWritten = 0;
+    
+    PngStreamWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+    }
+    
+    PngStreamWriter(OutputStream out, int width, int height, int compressionLevel) throws IOException {
+        if (width <= 0 || height <= 0 || width > (Integer.MAX_VALUE - 1) / 3) {
+            throw new IllegalArgumentException("invalid image size " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.row = new byte[1 + 3 * width];
+        
+        out.write(SIGNATURE);
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 2; // color type: RGB
+        header[10] = 0; // compression: deflate
+        header[11] = 0; // filter: adaptive
+        header[12] = 0; // interlace: none
+        writeChunk("IHDR", header, header.length);
+        // Only created when nothing else can fail, because it holds native memory until end().
+        this.deflater = new Deflater(compressionLevel);
+    }
+    
+    /**
+     * Writes the next rows of the image, from the ARGB pixels in the array, starting at offset.
+     */
+    void writeRows(int[] pixels, int offset, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("writing more rows than the image height");
+        }
+        for (int r = 0; r < rows; r++) {
+            int p = offset + r * width;
+            row[0] = FILTER_SUB;
+            int lastR = 0, lastG = 0, lastB = 0;
+            int o = 1;
+            for (int x = 0; x < width; x++) {
+                int color = pixels[p + x];
+                int cr = color >> 16 & 0xFF;
+                int cg = color >> 8 & 0xFF;
+                int cb = color & 0xFF;
+                row[o++] = (byte) (cr - lastR);
+                row[o++] = (byte) (cg - lastG);
+                row[o++] = (byte) (cb - lastB);
+                lastR = cr;
+                lastG = cg;
+                lastB = cb;
+            }
+            deflater.setInput(row, 0, row.length);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+        rowsWritten += rows;
+    }
+    
+    /**
+     * Flushes the compressed data and writes the end of the image. All rows must have been written.
+     * The output stream is not closed.
+     */
+    void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("only " + rowsWritten + " of " + height + " rows were written");
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+        if (chunkLength > 0) {
+            writeChunk("IDAT", chunk, chunkLength);
+            chunkLength = 0;
+        }
+        deflater.end();
+        writeChunk("IEND", chunk, 0);
+        out.flush();
+    }
+    
+    /**
+     * Frees the native memory of the deflater. It is already done by finish(), but must be done
+     * when the image is abandoned, like when writing it failed.
+     */
+    void end() {
+        deflater.end();
+    }
+    
+    private void deflate() throws IOException {
+        chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+        if (chunkLength == CHUNK_SIZE) {
+            writeChunk("IDAT", chunk, chunkLength);
+            chunkLength = 0;
+        }
+    }
+    
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        putInt(word, 0, length);
+        out.write(word);
+        
+        crc.reset();
+        for (int i = 0; i < 4; i++) {
+            word[i] = (byte) type.charAt(i);
+        }
+        out.write(word);
+        crc.update(word, 0, 4);
+        out.write(data, 0, length);
+        crc.update(data, 0, length);
+        
+        putInt(word, 0, (int) crc.getValue());
+        out.write(word);
+    }
+    
+    private static void putInt(byte[] array, int offset, int value) {
+        array[offset] = (byte) (value >>> 24);
+        array[offset + 1] = (byte) (value >>> 16);
+        array[offset + 2] = (byte) (value >>> 8);
+        array[offset + 3] = (byte) value;
+    }
+}
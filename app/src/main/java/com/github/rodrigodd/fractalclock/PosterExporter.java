@@ -0,0 +1,55 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Exports the fractal clock as a PNG of any resolution, like 8K or 16K posters.
+ * <p>
+ * The image is drawn by a SoftwareRenderer in bands of BAND_HEIGHT rows, and each band is given
+ * to a PngStreamWriter as soon as it is drawn, so only one band is kept in memory, no matter the
+ * size of the image.
+ */
+class PosterExporter {
+    static final int BAND_HEIGHT = SoftwareRenderer.TILE_SIZE;
+    // The biggest width or height of a poster, a 16K poster.
+    static final int MAX_SIZE = 16384;
+    
+    private final SoftwareRenderer renderer;
+    private int[] band = new int[0];
+    
+    /**
+     * @param renderer the renderer used to draw the poster, with the colors, time, deep and clock
+     *                 already set. Its size is changed by export().
+     */
+    PosterExporter(SoftwareRenderer renderer) {
+        this.renderer = renderer;
+    }
+    
+    /**
+     * Draws the poster and writes it as a PNG in out, that is not closed.
+     */
+    void export(int width, int height, OutputStream out) throws IOException {
+        if (width > MAX_SIZE || height > MAX_SIZE) {
+            throw new IllegalArgumentException("poster of " + width + "x" + height
+                    + " is bigger than " + MAX_SIZE + "x" + MAX_SIZE);
+        }
+        PngStreamWriter writer = new PngStreamWriter(out, width, height);
+        try {
+            renderer.setSize(width, height);
+            renderer.prepare();
+            
+            if (band.length < width * BAND_HEIGHT) {
+                band = new int[width * BAND_HEIGHT];
+            }
+            for (int y = 0; y < height; y += BAND_HEIGHT) {
+                int rows = Math.min(BAND_HEIGHT, height - y);
+                renderer.render(band, 0, y, width, rows);
+                writer.writeRows(band, 0, rows);
+            }
+            writer.finish();
+        } finally {
+            writer.end();
+        }
+    }
+}
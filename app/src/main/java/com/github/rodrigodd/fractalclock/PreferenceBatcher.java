@@ -0,0 +1,156 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Merges the preference changes into batches, so dragging a slider, that changes its preference
+ * at each step, is applied a few times per second instead of at each step.
+ * <p>
+ * A batch is started when no preference changed for DEBOUNCE_MILLIS, or MAX_DELAY_MILLIS after the
+ * first change of the batch, so a long drag is still seen while dragging. The heavy work derived
+ * from the preferences is prepared in the worker, and the result is published in the main thread,
+ * only if no newer batch was started in the mean time. The keys of a batch that is not published
+ * are given again to the next one.
+ * <p>
+ * All methods, except the ones of the worker, must be called in the main thread. The main thread
+ * is reached through a MainThread, so the timing can be tested.
+ */
+class PreferenceBatcher<T> {
+    static final long DEBOUNCE_MILLIS = 32;
+    static final long MAX_DELAY_MILLIS = 100;
+    
+    interface MainThread {
+        void post(Runnable runnable);
+        
+        void postDelayed(Runnable runnable, long delayMillis);
+        
+        void removeCallbacks(Runnable runnable);
+        
+        long uptimeMillis();
+    }
+    
+    interface Stage<T> {
+        /**
+         * Called in the worker, with the keys changed, or null if all of them may have changed.
+         */
+        T prepare(Set<String> keys);
+        
+        /**
+         * Called in the main thread, with the result of prepare for the same keys.
+         */
+        void publish(Set<String> keys, T result);
+    }
+    
+    private final MainThread mainThread;
+    private final Executor worker;
+    private final Stage<T> stage;
+    
+    // The keys changed since the last batch started, and the ones of batches not published yet.
+    private final Set<String> pendingKeys = new HashSet<>();
+    private final Set<String> unpublishedKeys = new HashSet<>();
+    private boolean pendingAll = false;
+    private boolean unpublishedAll = false;
+    // The uptime of the first change not in a batch yet, or -1 if there is none.
+    private long firstChange = -1;
+    // Incremented for each batch, only the last one is published.
+    private int batch = 0;
+    // Debug counters.
+    private int changes = 0;
+    private int published = 0;
+    
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    
+    PreferenceBatcher(MainThread mainThread, Executor worker, Stage<T> stage) {
+        this.mainThread = mainThread;
+        this.worker = worker;
+        this.stage = stage;
+    }
+    
+    /**
+     * Adds a changed preference to the next batch.
+     *
+     * @param key the key of the preference, or null if all of them may have changed.
+     */
+    void changed(String key) {
+        changes++;
+        if (key == null) {
+            pendingAll = true;
+        } else {
+            pendingKeys.add(key);
+        }
+        long now = mainThread.uptimeMillis();
+        if (firstChange < 0) {
+            firstChange = now;
+        }
+        mainThread.removeCallbacks(flush);
+        long delay = Math.min(DEBOUNCE_MILLIS, firstChange + MAX_DELAY_MILLIS - now);
+        mainThread.postDelayed(flush, Math.max(0, delay));
+    }
+    
+    /**
+     * Starts a batch with the changes so far, without waiting for the debounce.
+     */
+    void flush() {
+        mainThread.removeCallbacks(flush);
+        if (firstChange < 0) {
+            return;
+        }
+        firstChange = -1;
+        unpublishedAll |= pendingAll;
+        unpublishedKeys.addAll(pendingKeys);
+        pendingAll = false;
+        pendingKeys.clear();
+        
+        final int batch = ++this.batch;
+        final Set<String> keys = unpublishedAll ? null
+                : Collections.unmodifiableSet(new HashSet<>(unpublishedKeys));
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                final T result = stage.prepare(keys);
+                mainThread.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (batch != PreferenceBatcher.this.batch) {
+                            // A newer batch has these keys too.
+                            return;
+                        }
+                        unpublishedAll = false;
+                        unpublishedKeys.clear();
+                        published++;
+                        stage.publish(keys, result);
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Drops the changes not published yet, for when the engine is destroyed.
+     */
+    void cancel() {
+        mainThread.removeCallbacks(flush);
+        batch++;
+        firstChange = -1;
+        pendingAll = false;
+        pendingKeys.clear();
+        unpublishedAll = false;
+        unpublishedKeys.clear();
+    }
+    
+    int getChanges() {
+        return changes;
+    }
+    
+    int getPublished() {
+        return published;
+    }
+}
@@ -0,0 +1,262 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * The binaries of the linked programs, saved by glGetProgramBinary, so the next context can load
+ * them with glProgramBinary instead of compiling the shaders again.
+ * <p>
+ * An entry is keyed by a hash of the shader sources, the GL renderer and the GL version, that
+ * includes the driver version, so a new driver or a change in the shaders never loads a stale
+ * binary. Each entry has a checksum, and a entry that is corrupted, or that the driver rejects, is
+ * removed, and the program is compiled again.
+ */
+class ProgramBinaryCache {
+    private static final int MAGIC = 0x46434250; // "FCBP"
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    interface Storage {
+        /**
+         * The bytes saved with the key, or null if there is none.
+         */
+        byte[] read(String key) throws IOException;
+        
+        void write(String key, byte[] data) throws IOException;
+        
+        void delete(String key);
+    }
+    
+    /**
+     * Stores each entry in a file of the directory.
+     */
+    static class DirectoryStorage implements Storage {
+        private final File directory;
+        
+        DirectoryStorage(File directory) {
+            this.directory = directory;
+        }
+        
+        @Override
+        public byte[] read(String key) throws IOException {
+            File file = new File(directory, key);
+            if (!file.isFile()) {
+                return null;
+            }
+            InputStream in = new FileInputStream(file);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        }
+        
+        @Override
+        public void write(String key, byte[] data) throws IOException {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            // Written to a temporary file first, so a crash never leaves a truncated entry.
+            File temporary = new File(directory, key + ".tmp");
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(new File(directory, key))) {
+                temporary.delete();
+                throw new IOException("Could not save " + key);
+            }
+        }
+        
+        @Override
+        public void delete(String key) {
+            new File(directory, key).delete();
+        }
+    }
+    
+    /**
+     * A program binary, in the format given by glGetProgramBinary.
+     */
+    static final class Entry {
+        final int format;
+        final byte[] binary;
+        
+        Entry(int format, byte[] binary) {
+            this.format = format;
+            this.binary = binary;
+        }
+    }
+    
+    private final Storage storage;
+    private final String renderer;
+    private final String version;
+    // Debug counters, since the creation.
+    private int hits = 0;
+    private int misses = 0;
+    private int invalid = 0;
+    
+    /**
+     * @param renderer the GL_RENDERER string of the context.
+     * @param version  the GL_VERSION string of the context, that includes the driver version.
+     */
+    ProgramBinaryCache(Storage storage, String renderer, String version) {
+        this.storage = storage;
+        this.renderer = renderer;
+        this.version = version;
+    }
+    
+    /**
+     * The key of the program linked from the given shader sources, in this GL driver.
+     */
+    String key(String vertexSource, String fragmentSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, vertexSource);
+            update(digest, fragmentSource);
+            update(digest, renderer);
+            update(digest, version);
+            byte[] hash = digest.digest();
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit(b >> 4 & 0xF, 16));
+                key.append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM and Android version has SHA-256.
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = String.valueOf(value).getBytes(UTF_8);
+        // The length is included, so moving text from one string to the next changes the key.
+        digest.update(new byte[]{
+                (byte) (bytes.length >> 24), (byte) (bytes.length >> 16),
+                (byte) (bytes.length >> 8), (byte) bytes.length
+        });
+        digest.update(bytes);
+    }
+    
+    /**
+     * The binary saved with the key, or null if there is none, or it is corrupted, in which case
+     * it is removed.
+     */
+    Entry load(String key) {
+        byte[] data;
+        try {
+            data = storage.read(key);
+        } catch (IOException e) {
+            data = null;
+        }
+        if (data == null) {
+            misses++;
+            return null;
+        }
+        Entry entry = decode(data);
+        if (entry == null) {
+            invalidate(key);
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+    
+    /**
+     * Saves the binary with the key. A failure only means the program will be compiled again in
+     * the next context.
+     */
+    boolean save(String key, Entry entry) {
+        try {
+            storage.write(key, encode(entry));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Removes a entry that could not be used, like a binary rejected by the driver.
+     */
+    void invalidate(String key) {
+        invalid++;
+        storage.delete(key);
+    }
+    
+    int getHits() {
+        return hits;
+    }
+    
+    int getMisses() {
+        return misses;
+    }
+    
+    int getInvalid() {
+        return invalid;
+    }
+    
+    static byte[] encode(Entry entry) {
+        CRC32 crc = new CRC32();
+        crc.update(entry.binary);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.binary.length + 20);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(entry.format);
+            out.writeInt(entry.binary.length);
+            out.write(entry.binary);
+            out.writeLong(crc.getValue());
+        } catch (IOException e) {
+            // A ByteArrayOutputStream never throws.
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * The entry in the bytes, or null if they are not a valid entry.
+     */
+    static Entry decode(byte[] data) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int format = in.readInt();
+            int length = in.readInt();
+            if (length <= 0 || length != data.length - 20) {
+                return null;
+            }
+            byte[] binary = new byte[length];
+            in.readFully(binary);
+            CRC32 crc = new CRC32();
+            crc.update(binary);
+            if (in.readLong() != crc.getValue()) {
+                return null;
+            }
+            return new Entry(format, binary);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * Chooses when the next redraw of the clock must happen.
+ * <p>
+ * When the period divides a minute, like 1 second, the redraws are aligned with the wall clock,
+ * so the clock changes right when a second starts. Otherwise each redraw is one period after the
+ * time the last one was scheduled for, not after when it actually ran, so the latency of the
+ * handler don't accumulate. If the redraws are late by more than a period, the missed ones are
+ * skipped, instead of running in a burst.
+ * <p>
+ * The redraws are returned in uptime, the clock used by Handler.postAtTime. The time is read from
+ * a TimeSource, so jitter and drift can be tested.
+ */
+class RedrawScheduler {
+    interface TimeSource {
+        /**
+         * The wall clock time, in milliseconds since the epoch.
+         */
+        long currentTimeMillis();
+        
+        /**
+         * The monotonic time used to schedule the redraws, in milliseconds.
+         */
+        long uptimeMillis();
+    }
+    
+    static final long MINUTE = 60 * 1000;
+    // A redraw that runs this early, before a wall clock boundary, is taken as being at it.
+    static final long EARLY_TOLERANCE = 20;
+    
+    private final TimeSource time;
+    private long period = 1000;
+    // The uptime the last redraw was scheduled for, or -1 if there is none.
+    private long lastTarget = -1;
+    
+    RedrawScheduler(TimeSource time) {
+        this.time = time;
+    }
+    
+    void setPeriod(long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive, was " + period);
+        }
+        if (period != this.period) {
+            this.period = period;
+            reset();
+        }
+    }
+    
+    long getPeriod() {
+        return period;
+    }
+    
+    /**
+     * Forgets the last redraw, for when the redraws stop, or the wall clock changes.
+     */
+    void reset() {
+        lastTarget = -1;
+    }
+    
+    /**
+     * The redraws of a minute period can be driven by the system minute tick, instead of waking
+     * up the process.
+     */
+    boolean usesMinuteTick() {
+        return period == MINUTE;
+    }
+    
+    /**
+     * Whether the redraws are aligned with multiples of the period in the wall clock.
+     */
+    boolean isAligned() {
+        return MINUTE % period == 0;
+    }
+    
+    /**
+     * The uptime when the next redraw must run, given that a redraw is happening now.
+     */
+    long next() {
+        final long now = time.uptimeMillis();
+        long target;
+        if (isAligned()) {
+            long wall = time.currentTimeMillis();
+            // If this redraw woke up just before the boundary, the next one is the one after it.
+            long boundary = (wall + EARLY_TOLERANCE) / period * period + period;
+            target = now + (boundary - wall);
+        } else if (lastTarget < 0) {
+            target = now + period;
+        } else {
+            target = lastTarget + period;
+            if (target <= now) {
+                // Skip the missed redraws, keeping the phase.
+                target += ((now - target) / period + 1) * period;
+            }
+        }
+        lastTarget = target;
+        return target;
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * The values the main thread sets for each frame, like the time and the colors, that the GL thread
+ * reads while drawing. They are handed over as a whole, by a RenderStateBuffer, so a frame never
+ * mixes the values of two different draws.
+ */
+class RenderState {
+    // Incremented by the buffer for each published state, so the reader knows if it changed.
+    long sequence = 0;
+    
+    float hour = -0.15f;
+    float min = 0.15f;
+    float clockSize = 0.5f;
+    int deep = 16;
+    int clockType = ClockFaceMesh.CLOCK_NONE;
+    int hourPointerColor = 0xffff0000;
+    int minPointerColor = 0xff0000ff;
+    int clockColor = 0xffffff00;
+    int backgroundColor = 0xff00ff00;
+    // One of the FractalClockRenderer.RENDER_MODE_* constants, by default RENDER_MODE_AUTO.
+    int renderMode = 0;
+    int subtreeDeep = 10;
+    boolean showStats = false;
+    // The baked gradient of the fractal, or null to go from the minute color to the hour color.
+    // It is owned by the GL thread after being published, so it must not be changed anymore.
+    GradientTexture fractalGradient;
+    
+    void copyFrom(RenderState state) {
+        sequence = state.sequence;
+        hour = state.hour;
+        min = state.min;
+        clockSize = state.clockSize;
+        deep = state.deep;
+        clockType = state.clockType;
+        hourPointerColor = state.hourPointerColor;
+        minPointerColor = state.minPointerColor;
+        clockColor = state.clockColor;
+        backgroundColor = state.backgroundColor;
+        renderMode = state.renderMode;
+        subtreeDeep = state.subtreeDeep;
+        showStats = state.showStats;
+        fractalGradient = state.fractalGradient;
+    }
+}
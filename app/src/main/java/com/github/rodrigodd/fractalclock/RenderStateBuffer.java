@@ -0,0 +1,54 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the RenderState over from the main thread to the GL thread without locks, with three
+ * states: the one being written, the one being read, and the last one published, in the middle.
+ * <p>
+ * Publishing and acquiring each swap a state with the middle one, in a single atomic operation, so
+ * neither thread ever waits for the other, and the reader always sees all the values of the same
+ * publish. When the writer publishes faster than the reader draws, the states in between are
+ * dropped, and only the latest one is read.
+ * <p>
+ * publish must only be called by one thread, and acquire by one other thread.
+ */
+class RenderStateBuffer {
+    private static final int INDEX = 3;
+    // Set in middle when it has a state that the reader didn't acquire yet.
+    private static final int FRESH = 4;
+    
+    private final RenderState[] states = { new RenderState(), new RenderState(), new RenderState() };
+    // The index of the middle state, with the FRESH bit.
+    private final AtomicInteger middle = new AtomicInteger(1);
+    // Only used by the writer.
+    private int back = 0;
+    private long sequence = 0;
+    // Only used by the reader.
+    private int front = 2;
+    
+    /**
+     * Publishes a copy of the state, replacing the last one if it was not acquired yet.
+     *
+     * @return the sequence number of the published state.
+     */
+    long publish(RenderState state) {
+        RenderState back = states[this.back];
+        back.copyFrom(state);
+        back.sequence = ++sequence;
+        this.back = middle.getAndSet(this.back | FRESH) & INDEX;
+        return sequence;
+    }
+    
+    /**
+     * The last published state, or the same as the last call if nothing was published since. It
+     * is owned by the reader until the next call, and its sequence is 0 if nothing was ever
+     * published.
+     */
+    RenderState acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return states[front];
+    }
+}
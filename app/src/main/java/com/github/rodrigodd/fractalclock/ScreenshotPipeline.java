@@ -0,0 +1,272 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes the pixels read from the framebuffer to a background thread, where they are converted
+ * from the bottom-up RGBA of glReadPixels to top-down ARGB and given to a Sink, that encodes and
+ * saves them.
+ * <p>
+ * There are at most MAX_FRAMES screenshots in flight, each one with its own buffers, that are
+ * reused by the next screenshots. When all of them are in use, acquire() returns null, so the GL
+ * thread never waits for the background thread. The buffers have the size of the screen, so they
+ * are freed when the last screenshot in flight is done. The time spent in each stage is measured.
+ */
+class ScreenshotPipeline {
+    static final int MAX_FRAMES = 2;
+    
+    interface Sink {
+        /**
+         * Saves the ARGB pixels, with width * height pixels, from top to bottom. Called in the
+         * background thread.
+         */
+        void save(int[] pixels, int width, int height) throws Exception;
+    }
+    
+    interface Callback {
+        /**
+         * Called in the background thread when a screenshot is done, or in the calling thread
+         * when it could not even be started.
+         *
+         * @param error what stopped the screenshot from being saved, if anything was thrown.
+         */
+        void onScreenshotDone(boolean saved, Timings timings, Exception error);
+    }
+    
+    /**
+     * The time spent in each stage of a screenshot, in nanoseconds.
+     */
+    static final class Timings {
+        long readbackNanos;
+        long swizzleNanos;
+        long saveNanos;
+        
+        long totalNanos() {
+            return readbackNanos + swizzleNanos + saveNanos;
+        }
+        
+        @Override
+        public String toString() {
+            return "readback " + readbackNanos / 1000 + "us, swizzle " + swizzleNanos / 1000
+                    + "us, save " + saveNanos / 1000 + "us";
+        }
+    }
+    
+    private static final Timings NO_TIMINGS = new Timings();
+    
+    private final Sink sink;
+    private final ThreadPoolExecutor executor;
+    // The frames not in use, and the count of the ones in use, guarded by freeFrames.
+    private final ArrayDeque<Frame> freeFrames = new ArrayDeque<>(MAX_FRAMES);
+    private int busyFrames = 0;
+    
+    ScreenshotPipeline(Sink sink) {
+        this.sink = sink;
+        for (int i = 0; i < MAX_FRAMES; i++) {
+            freeFrames.add(new Frame());
+        }
+        this.executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_FRAMES),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ScreenshotPipeline");
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Gets a free frame, with a buffer big enough for width * height RGBA pixels, or null if all
+     * frames are in use. The frame must be given back by submit() or cancel().
+     */
+    Frame acquire(int width, int height) {
+        Frame frame;
+        synchronized (freeFrames) {
+            frame = freeFrames.poll();
+            if (frame == null) {
+                return null;
+            }
+            busyFrames++;
+        }
+        frame.resize(width, height);
+        return frame;
+    }
+    
+    /**
+     * Converts and saves the pixels of the frame in the background thread, and then calls the
+     * callback.
+     */
+    void submit(Frame frame, Callback callback) {
+        frame.callback = callback;
+        try {
+            executor.execute(frame);
+        } catch (RejectedExecutionException e) {
+            // The pipeline was shut down.
+            cancel(frame);
+            reportBusy(callback);
+        }
+    }
+    
+    void cancel(Frame frame) {
+        frame.callback = null;
+        release(frame);
+    }
+    
+    private void release(Frame frame) {
+        synchronized (freeFrames) {
+            freeFrames.add(frame);
+            busyFrames--;
+            if (busyFrames == 0) {
+                for (Frame free : freeFrames) {
+                    free.trim();
+                }
+            }
+        }
+    }
+    
+    /**
+     * The bytes of the buffers of the frames not in use.
+     */
+    long getFreeBytes() {
+        synchronized (freeFrames) {
+            long bytes = 0;
+            for (Frame free : freeFrames) {
+                bytes += free.rgba.capacity() + 4L * free.argb.length;
+            }
+            return bytes;
+        }
+    }
+    
+    /**
+     * Reports a screenshot that could not be taken because all frames are in use.
+     */
+    static void reportBusy(Callback callback) {
+        if (callback != null) {
+            callback.onScreenshotDone(false, NO_TIMINGS, null);
+        }
+    }
+    
+    /**
+     * Stops the background thread once the screenshots in flight are saved. The next ones are
+     * reported as not saved.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+    
+    /**
+     * Converts the RGBA pixels read by glReadPixels, from bottom to top, to ARGB pixels from top to
+     * bottom. The source must be in little endian order.
+     */
+    static void swizzle(IntBuffer rgba, int[] argb, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int row = (height - 1 - y) * width;
+            rgba.position(y * width);
+            rgba.get(argb, row, width);
+            for (int i = row; i < row + width; i++) {
+                // In little endian the int is ABGR, so the red and blue are swapped.
+                int pixel = argb[i];
+                argb[i] = (pixel & 0xff00ff00) | ((pixel & 0x000000ff) << 16) | ((pixel >> 16) & 0x000000ff);
+            }
+        }
+        rgba.rewind();
+    }
+    
+    final class Frame implements Runnable {
+        private ByteBuffer rgba = ByteBuffer.allocateDirect(0);
+        private IntBuffer rgbaInts = rgba.asIntBuffer();
+        private int[] argb = new int[0];
+        private int width, height;
+        // If the pixels were given in argb, so they don't need to be converted.
+        private boolean converted;
+        private Callback callback;
+        final Timings timings = new Timings();
+        
+        private void resize(int width, int height) {
+            this.width = width;
+            this.height = height;
+            int size = width * height;
+            if (argb.length < size) {
+                rgba = ByteBuffer.allocateDirect(4 * size).order(ByteOrder.LITTLE_ENDIAN);
+                rgbaInts = rgba.asIntBuffer();
+                argb = new int[size];
+            }
+            rgba.clear();
+            converted = false;
+            timings.readbackNanos = 0;
+            timings.swizzleNanos = 0;
+            timings.saveNanos = 0;
+        }
+        
+        private void trim() {
+            rgba = ByteBuffer.allocateDirect(0);
+            rgbaInts = rgba.asIntBuffer();
+            argb = new int[0];
+        }
+        
+        /**
+         * The buffer where glReadPixels must write the RGBA pixels, at position 0.
+         */
+        ByteBuffer getBuffer() {
+            return rgba;
+        }
+        
+        /**
+         * Copies ARGB pixels that are already from top to bottom, like the ones of
+         * SoftwareRenderer, instead of reading them in the buffer.
+         */
+        void setPixels(int[] pixels) {
+            System.arraycopy(pixels, 0, argb, 0, width * height);
+            converted = true;
+        }
+        
+        int getWidth() {
+            return width;
+        }
+        
+        int getHeight() {
+            return height;
+        }
+        
+        @Override
+        public void run() {
+            boolean saved = false;
+            Exception error = null;
+            try {
+                long start = System.nanoTime();
+                if (!converted) {
+                    swizzle(rgbaInts, argb, width, height);
+                }
+                long swizzled = System.nanoTime();
+                timings.swizzleNanos = swizzled - start;
+                sink.save(argb, width, height);
+                timings.saveNanos = System.nanoTime() - swizzled;
+                saved = true;
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                Callback callback = this.callback;
+                this.callback = null;
+                try {
+                    if (callback != null) {
+                        callback.onScreenshotDone(saved, timings, error);
+                    }
+                } finally {
+                    // Only now the timings can be reused.
+                    release(this);
+                }
+            }
+        }
+    }
+}
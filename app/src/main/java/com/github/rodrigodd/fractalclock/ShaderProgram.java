@@ -0,0 +1,235 @@
+package com.github.rodrigodd.fractalclock;
+
+import android.opengl.GLES20;
+
+import java.util.HashMap;
+
+/**
+ * A linked GL program, with the locations of its uniforms and attributes resolved once, and the
+ * last value of each uniform, so a uniform is only uploaded when its value changes.
+ * <p>
+ * The values set while the program is not in use are uploaded by use(). Looking up a uniform by
+ * its name don't allocate, so a frame that only sets uniforms and draws allocates nothing. A
+ * uniform or attribute that is not active in the program is ignored, like a location of -1.
+ */
+class ShaderProgram {
+    // Debug counters, of all programs, since the last reset.
+    static int uniformUploads = 0;
+    static int programSwitches = 0;
+    
+    // The program in use in the current context, to skip redundant glUseProgram.
+    private static ShaderProgram current;
+    
+    private final int program;
+    private final HashMap<String, Uniform> uniforms = new HashMap<>();
+    // The same uniforms, to be iterated without allocating a iterator.
+    private Uniform[] uniformList = new Uniform[0];
+    private final HashMap<String, Integer> attributes = new HashMap<>();
+    private final Uniform missingUniform = new Uniform(-1, GLES20.GL_FLOAT);
+    
+    ShaderProgram(int program) {
+        this.program = program;
+    }
+    
+    /**
+     * Wraps a linked program, resolving all its active uniforms and attributes.
+     */
+    static ShaderProgram create(int program) {
+        ShaderProgram shaderProgram = new ShaderProgram(program);
+        int[] count = new int[1];
+        int[] size = new int[1];
+        int[] type = new int[1];
+        
+        GLES20.glGetProgramiv(program, GLES20.GL_ACTIVE_UNIFORMS, count, 0);
+        for (int i = 0; i < count[0]; i++) {
+            String name = GLES20.glGetActiveUniform(program, i, size, 0, type, 0);
+            int location = GLES20.glGetUniformLocation(program, name);
+            shaderProgram.addUniform(arrayName(name), location, type[0]);
+        }
+        
+        GLES20.glGetProgramiv(program, GLES20.GL_ACTIVE_ATTRIBUTES, count, 0);
+        for (int i = 0; i < count[0]; i++) {
+            String name = GLES20.glGetActiveAttrib(program, i, size, 0, type, 0);
+            shaderProgram.addAttribute(name, GLES20.glGetAttribLocation(program, name));
+        }
+        return shaderProgram;
+    }
+    
+    /**
+     * The name of a uniform array is reported with a "[0]" suffix.
+     */
+    private static String arrayName(String name) {
+        int bracket = name.indexOf('[');
+        return bracket < 0 ? name : name.substring(0, bracket);
+    }
+    
+    void addUniform(String name, int location, int type) {
+        Uniform uniform = new Uniform(location, type);
+        uniforms.put(name, uniform);
+        Uniform[] list = new Uniform[uniformList.length + 1];
+        System.arraycopy(uniformList, 0, list, 0, uniformList.length);
+        list[uniformList.length] = uniform;
+        uniformList = list;
+    }
+    
+    void addAttribute(String name, int location) {
+        attributes.put(name, location);
+    }
+    
+    /**
+     * Must be called when the GL context is recreated, because the program in use is lost.
+     */
+    static void invalidateCurrent() {
+        current = null;
+    }
+    
+    static void resetCounters() {
+        uniformUploads = 0;
+        programSwitches = 0;
+    }
+    
+    int getProgram() {
+        return program;
+    }
+    
+    /**
+     * Makes this the program in use, uploading the uniforms changed since it was last used.
+     */
+    void use() {
+        if (current != this) {
+            current = this;
+            useProgram();
+            programSwitches++;
+        }
+        final Uniform[] uniformList = this.uniformList;
+        for (int i = 0; i < uniformList.length; i++) {
+            if (uniformList[i].dirty) {
+                upload(uniformList[i]);
+            }
+        }
+    }
+    
+    /**
+     * The location of an attribute, or -1 if it is not active.
+     */
+    int attribute(String name) {
+        Integer location = attributes.get(name);
+        return location == null ? -1 : location;
+    }
+    
+    void set1i(String name, int value) {
+        set(name, value, 0, 0, 0);
+    }
+    
+    void set1f(String name, float value) {
+        set(name, value, 0, 0, 0);
+    }
+    
+    void set2f(String name, float x, float y) {
+        set(name, x, y, 0, 0);
+    }
+    
+    void set2fv(String name, float[] value) {
+        set(name, value[0], value[1], 0, 0);
+    }
+    
+    void set3f(String name, float x, float y, float z) {
+        set(name, x, y, z, 0);
+    }
+    
+    void set3fv(String name, float[] value) {
+        set(name, value[0], value[1], value[2], 0);
+    }
+    
+    void set4f(String name, float x, float y, float z, float w) {
+        set(name, x, y, z, w);
+    }
+    
+    /**
+     * Uploads count vec3 of a uniform array, from values starting at offset. The values of arrays
+     * are not kept, so they are always uploaded, and the program must be in use.
+     */
+    void set3fvArray(String name, int count, float[] values, int offset) {
+        Uniform uniform = uniform(name);
+        if (uniform.location >= 0) {
+            uploadArray(uniform.location, count, values, offset);
+            uniformUploads++;
+        }
+    }
+    
+    private Uniform uniform(String name) {
+        Uniform uniform = uniforms.get(name);
+        return uniform == null ? missingUniform : uniform;
+    }
+    
+    private void set(String name, float x, float y, float z, float w) {
+        Uniform uniform = uniform(name);
+        if (uniform.location < 0) {
+            return;
+        }
+        float[] value = uniform.value;
+        if (uniform.uploaded && value[0] == x && value[1] == y && value[2] == z && value[3] == w) {
+            return;
+        }
+        value[0] = x;
+        value[1] = y;
+        value[2] = z;
+        value[3] = w;
+        uniform.dirty = true;
+        if (current == this) {
+            upload(uniform);
+        }
+    }
+    
+    private void upload(Uniform uniform) {
+        uniform.dirty = false;
+        uniform.uploaded = true;
+        uploadUniform(uniform.location, uniform.type, uniform.value);
+        uniformUploads++;
+    }
+    
+    void useProgram() {
+        GLES20.glUseProgram(program);
+    }
+    
+    void uploadUniform(int location, int type, float[] value) {
+        switch (type) {
+            case GLES20.GL_INT:
+            case GLES20.GL_BOOL:
+            case GLES20.GL_SAMPLER_2D:
+                GLES20.glUniform1i(location, (int) value[0]);
+                break;
+            case GLES20.GL_FLOAT_VEC2:
+                GLES20.glUniform2f(location, value[0], value[1]);
+                break;
+            case GLES20.GL_FLOAT_VEC3:
+                GLES20.glUniform3f(location, value[0], value[1], value[2]);
+                break;
+            case GLES20.GL_FLOAT_VEC4:
+                GLES20.glUniform4f(location, value[0], value[1], value[2], value[3]);
+                break;
+            default:
+            case GLES20.GL_FLOAT:
+                GLES20.glUniform1f(location, value[0]);
+                break;
+        }
+    }
+    
+    void uploadArray(int location, int count, float[] values, int offset) {
+        GLES20.glUniform3fv(location, count, values, offset);
+    }
+    
+    private static final class Uniform {
+        final int location;
+        final int type;
+        final float[] value = new float[4];
+        boolean dirty = false;
+        // The program starts with all uniforms zeroed, but the first value is always uploaded.
+        boolean uploaded = false;
+        
+        Uniform(int location, int type) {
+            this.location = location;
+            this.type = type;
+        }
+    }
+}
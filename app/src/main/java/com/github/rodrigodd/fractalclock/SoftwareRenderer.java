@@ -0,0 +1,454 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws the same image of FractalClockRenderer, but on the CPU, in a int[] of ARGB pixels, for
+ * when GLES2 is not available.
+ * <p>
+ * The image is split in tiles of TILE_SIZE pixels, that are drawn in parallel. Each tile only
+ * writes its own pixels, so no lock is needed. The lines of the fractal are first distributed to
+ * the tiles they touch, keeping their order, so each tile only draws the lines that cross it.
+ * After the first frame, drawing a frame of the same size and deep allocates nothing.
+ */
+public class SoftwareRenderer {
+    static final int TILE_SIZE = 64;
+    
+    // Each segment of the clock has x0, y0, x1, y1 and width, in pixels.
+    private static final int SEGMENT_SIZE = 5;
+    
+    private final ForkJoinPool pool;
+    private final FractalGeometry geometry;
+    private final RecursiveAction rootTask;
+    private TileTask[] tileTasks = new TileTask[0];
+    
+    private int width = 1;
+    private int height = 1;
+    private float clockSize = 0.5f;
+    private final float[] time = { -0.15f, 0.15f };
+    private int maxDeep = 0;
+    private int clockType = ClockFaceMesh.CLOCK_NONE;
+    
+    private int hourPointerColor = 0xffff0000;
+    private int minPointerColor = 0xff0000ff;
+    private int backgroundColor = 0xff00ff00;
+    private int clockColor = 0xffffff00;
+    // The colors of the fractal, or null to go from the minute color to the hour color.
+    private GradientTexture fractalGradient;
+
+    // The branches, in gl_Position coordinates, and later in pixels.
+    private float[] lines = new float[0];
+    private int lineCount = 0;
+    private final float[] clockSegments = new float[(60 + 2) * SEGMENT_SIZE];
+    private int clockSegmentCount = 0;
+    
+    // The lines of each tile are in tileLines, from tileStart[i] to tileStart[i + 1].
+    private int[] tileStart = new int[1];
+    private int[] tileLines = new int[0];
+    
+    // The region being drawn
+    private int[] target;
+    private int regionX, regionY, regionWidth, regionHeight;
+    private int tilesX, tilesY;
+    
+    /**
+     * @param pool the pool where the tiles are drawn, or null to draw them in the calling thread.
+     */
+    SoftwareRenderer(ForkJoinPool pool) {
+        this.pool = pool;
+        this.geometry = new FractalGeometry(pool);
+        this.rootTask = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                int count = tilesX * tilesY;
+                for (int i = 1; i < count; i++) {
+                    tileTasks[i].fork();
+                }
+                tileTasks[0].invoke();
+                for (int i = 1; i < count; i++) {
+                    tileTasks[i].join();
+                }
+            }
+        };
+    }
+    
+    void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+    
+    int getWidth() {
+        return width;
+    }
+    
+    int getHeight() {
+        return height;
+    }
+    
+    void setClockSize(float clockSize) {
+        this.clockSize = clockSize;
+    }
+    
+    void setTime(float hour, float min) {
+        time[0] = hour;
+        time[1] = min;
+    }
+    
+    void setDeep(int deep) {
+        geometry.setDeep(deep);
+        maxDeep = deep;
+    }
+    
+    void setClockType(int clockType) {
+        this.clockType = clockType;
+    }
+    
+    void setHourPointerColor(int color) {
+        hourPointerColor = color;
+    }
+    
+    void setMinPointerColor(int color) {
+        minPointerColor = color;
+    }
+    
+    void setBackgroundColor(int color) {
+        backgroundColor = color;
+    }
+    
+    void setClockColor(int color) {
+        clockColor = color;
+    }
+    
+    /**
+     * Colors the fractal like FractalClockRenderer.setFractalGradient.
+     */
+    void setFractalGradient(ColorGradient gradient) {
+        if (gradient == null) {
+            fractalGradient = null;
+            return;
+        }
+        if (fractalGradient == null) {
+            fractalGradient = new GradientTexture();
+        }
+        fractalGradient.setGradient(gradient);
+    }
+
+    /**
+     * Draws the whole image in the framebuffer, with width * height pixels, from top to bottom.
+     */
+    void render(int[] framebuffer) {
+        prepare();
+        render(framebuffer, 0, 0, width, height);
+    }
+    
+    /**
+     * Computes the fractal and the clock for the current time. Must be called before drawing the
+     * regions of a frame.
+     */
+    void prepare() {
+        geometry.setScreenSize(width, height);
+        geometry.setClockSize(clockSize);
+        geometry.setTime(time[0], time[1]);
+        geometry.compute();
+        
+        lineCount = geometry.getBranchCount();
+        if (lines.length < 4 * lineCount) {
+            lines = new float[4 * lineCount];
+        }
+        geometry.fill(lines, 0, FractalGeometry.FIRST_BRANCH, lineCount);
+        // From gl_Position to pixels, with the y axis going down.
+        final float halfWidth = width / 2.0f;
+        final float halfHeight = height / 2.0f;
+        for (int i = 0; i < 4 * lineCount; i += 2) {
+            lines[i] = (lines[i] + 1.0f) * halfWidth;
+            lines[i + 1] = (1.0f - lines[i + 1]) * halfHeight;
+        }
+        
+        prepareClock();
+    }
+    
+    private void prepareClock() {
+        clockSegmentCount = 0;
+        if (clockType == ClockFaceMesh.CLOCK_NONE) {
+            return;
+        }
+        final float cx = width / 2.0f;
+        final float cy = height / 2.0f;
+        // The length of the pointers, in pixels.
+        final float radius = clockSize * Math.min(width, height) / 2.0f;
+        
+        if (clockType == ClockFaceMesh.CLOCK_HOUR_MARKS || clockType == ClockFaceMesh.CLOCK_MIN_MARKS) {
+            int marks = clockType == ClockFaceMesh.CLOCK_HOUR_MARKS ? 12 : 60;
+            for (int i = 0; i < marks; i++) {
+                double a = 2.0 * Math.PI * i / marks;
+                float sx = (float) Math.sin(a) * radius;
+                float sy = -(float) Math.cos(a) * radius;
+                if (i % 5 == 0 || clockType == ClockFaceMesh.CLOCK_HOUR_MARKS) {
+                    addClockSegment(cx + sx * 1.2f, cy + sy * 1.2f, cx + sx * 1.3f, cy + sy * 1.3f,
+                            radius * ClockFaceMesh.HOUR_MARK_WIDTH);
+                } else {
+                    addClockSegment(cx + sx * 1.2f, cy + sy * 1.2f, cx + sx * 1.25f, cy + sy * 1.25f,
+                            ClockFaceMesh.MIN_MARK_WIDTH);
+                }
+            }
+        }
+        
+        final float PI = 3.141592653f;
+        final float pointerWidth = radius * ClockFaceMesh.POINTER_WIDTH;
+        float hs = (float) Math.sin(2.0f * PI * time[0]);
+        float hc = (float) Math.cos(2.0f * PI * time[0]);
+        addClockSegment(cx + hs * radius / 5.0f, cy - hc * radius / 5.0f,
+                cx + hs * radius, cy - hc * radius, pointerWidth);
+        float ms = (float) Math.sin(2.0f * PI * time[1]);
+        float mc = (float) Math.cos(2.0f * PI * time[1]);
+        addClockSegment(cx, cy, cx + ms * radius, cy - mc * radius, pointerWidth);
+    }
+    
+    private void addClockSegment(float x0, float y0, float x1, float y1, float width) {
+        int i = clockSegmentCount * SEGMENT_SIZE;
+        clockSegments[i] = x0;
+        clockSegments[i + 1] = y0;
+        clockSegments[i + 2] = x1;
+        clockSegments[i + 3] = y1;
+        clockSegments[i + 4] = width;
+        clockSegmentCount++;
+    }
+    
+    /**
+     * Draws a region of the image, prepared by the last call to prepare(), in the target, that
+     * must have regionWidth * regionHeight pixels.
+     */
+    void render(int[] target, int x, int y, int regionWidth, int regionHeight) {
+        this.target = target;
+        this.regionX = x;
+        this.regionY = y;
+        this.regionWidth = regionWidth;
+        this.regionHeight = regionHeight;
+        tilesX = (regionWidth + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (regionHeight + TILE_SIZE - 1) / TILE_SIZE;
+        int tileCount = tilesX * tilesY;
+        if (tileCount == 0) {
+            return;
+        }
+        
+        binLines(tileCount);
+        
+        if (pool == null || tileCount == 1) {
+            for (int i = 0; i < tileCount; i++) {
+                renderTile(i);
+            }
+        } else {
+            if (tileTasks.length < tileCount) {
+                TileTask[] tasks = new TileTask[tileCount];
+                System.arraycopy(tileTasks, 0, tasks, 0, tileTasks.length);
+                for (int i = tileTasks.length; i < tileCount; i++) {
+                    tasks[i] = new TileTask(i);
+                }
+                tileTasks = tasks;
+            }
+            for (int i = 0; i < tileCount; i++) {
+                tileTasks[i].reinitialize();
+            }
+            rootTask.reinitialize();
+            pool.invoke(rootTask);
+        }
+        this.target = null;
+    }
+    
+    /**
+     * Distributes the lines to the tiles of the region, in two passes: the first one counts the
+     * lines of each tile, and the second writes them.
+     */
+    private void binLines(int tileCount) {
+        if (tileStart.length < tileCount + 1) {
+            tileStart = new int[tileCount + 1];
+        }
+        for (int i = 0; i <= tileCount; i++) {
+            tileStart[i] = 0;
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (int l = 0; l < lineCount; l++) {
+                int i = 4 * l;
+                // A line can cover the pixels around it, due to antialiasing.
+                int tx0 = (int) Math.floor((Math.min(lines[i], lines[i + 2]) - 1.0f - regionX) / TILE_SIZE);
+                int tx1 = (int) Math.floor((Math.max(lines[i], lines[i + 2]) + 1.0f - regionX) / TILE_SIZE);
+                int ty0 = (int) Math.floor((Math.min(lines[i + 1], lines[i + 3]) - 1.0f - regionY) / TILE_SIZE);
+                int ty1 = (int) Math.floor((Math.max(lines[i + 1], lines[i + 3]) + 1.0f - regionY) / TILE_SIZE);
+                if (tx1 < 0 || ty1 < 0 || tx0 >= tilesX || ty0 >= tilesY) {
+                    continue;
+                }
+                tx0 = Math.max(tx0, 0);
+                ty0 = Math.max(ty0, 0);
+                tx1 = Math.min(tx1, tilesX - 1);
+                ty1 = Math.min(ty1, tilesY - 1);
+                for (int ty = ty0; ty <= ty1; ty++) {
+                    for (int tx = tx0; tx <= tx1; tx++) {
+                        int tile = ty * tilesX + tx;
+                        if (pass == 0) {
+                            tileStart[tile + 1]++;
+                        } else {
+                            tileLines[tileStart[tile]++] = l;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int t = 0; t < tileCount; t++) {
+                    tileStart[t + 1] += tileStart[t];
+                }
+                if (tileLines.length < tileStart[tileCount]) {
+                    tileLines = new int[tileStart[tileCount]];
+                }
+            } else {
+                // The second pass moved each start to the start of the next tile.
+                for (int t = tileCount; t > 0; t--) {
+                    tileStart[t] = tileStart[t - 1];
+                }
+                tileStart[0] = 0;
+            }
+        }
+    }
+    
+    private void renderTile(int tile) {
+        // Tile bounds, in pixels of the whole image
+        final int x0 = regionX + (tile % tilesX) * TILE_SIZE;
+        final int y0 = regionY + (tile / tilesX) * TILE_SIZE;
+        final int x1 = Math.min(x0 + TILE_SIZE, regionX + regionWidth);
+        final int y1 = Math.min(y0 + TILE_SIZE, regionY + regionHeight);
+        
+        final int background = 0xff000000 | backgroundColor;
+        for (int y = y0; y < y1; y++) {
+            int row = (y - regionY) * regionWidth - regionX;
+            for (int x = x0; x < x1; x++) {
+                target[row + x] = background;
+            }
+        }
+        
+        for (int s = 0; s < clockSegmentCount; s++) {
+            int i = s * SEGMENT_SIZE;
+            drawSegment(x0, y0, x1, y1,
+                    clockSegments[i], clockSegments[i + 1], clockSegments[i + 2], clockSegments[i + 3],
+                    clockSegments[i + 4], clockColor, clockColor);
+        }
+        
+        // The color of a vertex is sampled at vertexID / 2^(maxDeep + 1), in the gradient, or
+        // in mix(minColor, hourColor, x) without it.
+        final float colorScale = 1.0f / (1 << (maxDeep + 1));
+        final GradientTexture gradient = fractalGradient;
+        for (int j = tileStart[tile]; j < tileStart[tile + 1]; j++) {
+            int l = tileLines[j];
+            int i = 4 * l;
+            int vertexID = 2 * (l + FractalGeometry.FIRST_BRANCH);
+            int colorA, colorB;
+            if (gradient != null) {
+                colorA = gradient.sample(vertexID * colorScale);
+                colorB = gradient.sample((vertexID + 1) * colorScale);
+            } else {
+                colorA = mix(minPointerColor, hourPointerColor, vertexID * colorScale);
+                colorB = mix(minPointerColor, hourPointerColor, (vertexID + 1) * colorScale);
+            }
+            drawSegment(x0, y0, x1, y1, lines[i], lines[i + 1], lines[i + 2], lines[i + 3], 1.0f,
+                    colorA, colorB);
+        }
+    }
+    
+    /**
+     * Draws the segment from (ax, ay) to (bx, by), with the given width and butt caps, clipped to
+     * the tile from (x0, y0) to (x1, y1), with the color interpolated from colorA to colorB. The
+     * coverage of each pixel is the area of its intersection with the segment, measured along the
+     * segment and across it.
+     */
+    private void drawSegment(int x0, int y0, int x1, int y1,
+                             float ax, float ay, float bx, float by, float width,
+                             int colorA, int colorB) {
+        final float dx = bx - ax;
+        final float dy = by - ay;
+        final float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length < 1e-6f) {
+            return;
+        }
+        final float ux = dx / length;
+        final float uy = dy / length;
+        final float halfWidth = width / 2.0f;
+        
+        // The pixels that can be touched by the segment
+        final float margin = halfWidth + 1.0f;
+        int minX = Math.max(x0, (int) Math.floor(Math.min(ax, bx) - margin));
+        int maxX = Math.min(x1 - 1, (int) Math.floor(Math.max(ax, bx) + margin));
+        int minY = Math.max(y0, (int) Math.floor(Math.min(ay, by) - margin));
+        int maxY = Math.min(y1 - 1, (int) Math.floor(Math.max(ay, by) + margin));
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+        
+        final int ar = colorA >> 16 & 0xFF, ag = colorA >> 8 & 0xFF, ab = colorA & 0xFF;
+        final int br = colorB >> 16 & 0xFF, bg = colorB >> 8 & 0xFF, bb = colorB & 0xFF;
+        final boolean xMajor = Math.abs(dx) >= Math.abs(dy);
+        // How far from the center line, in the minor axis, a pixel can still be touched.
+        final float extent = halfWidth / Math.max(Math.abs(xMajor ? ux : uy), 1e-6f) + 1.0f
+                + halfWidth * Math.abs(xMajor ? uy : ux);
+        
+        final int majorStart = xMajor ? minX : minY;
+        final int majorEnd = xMajor ? maxX : maxY;
+        for (int m = majorStart; m <= majorEnd; m++) {
+            // The center line at the center of this column (or row)
+            float c = m + 0.5f;
+            float t = xMajor ? (c - ax) / dx : (c - ay) / dy;
+            float center = xMajor ? ay + t * dy : ax + t * dx;
+            int n0 = Math.max(xMajor ? minY : minX, (int) Math.floor(center - extent));
+            int n1 = Math.min(xMajor ? maxY : maxX, (int) Math.floor(center + extent));
+            for (int n = n0; n <= n1; n++) {
+                int px = xMajor ? m : n;
+                int py = xMajor ? n : m;
+                float rx = px + 0.5f - ax;
+                float ry = py + 0.5f - ay;
+                float along = rx * ux + ry * uy;
+                float across = ry * ux - rx * uy;
+                float coverage = overlap(along - 0.5f, along + 0.5f, 0.0f, length)
+                        * overlap(across - 0.5f, across + 0.5f, -halfWidth, halfWidth);
+                if (coverage <= 0.0f) {
+                    continue;
+                }
+                float k = Math.min(Math.max(along / length, 0.0f), 1.0f);
+                int index = (py - regionY) * regionWidth + (px - regionX);
+                target[index] = blend(target[index],
+                        ar + (br - ar) * k, ag + (bg - ag) * k, ab + (bb - ab) * k, coverage);
+            }
+        }
+    }
+    
+    private static float overlap(float a0, float a1, float b0, float b1) {
+        return Math.max(0.0f, Math.min(a1, b1) - Math.max(a0, b0));
+    }
+    
+    private static int blend(int dst, float r, float g, float b, float alpha) {
+        float inv = 1.0f - alpha;
+        int dr = (int) (r * alpha + (dst >> 16 & 0xFF) * inv + 0.5f);
+        int dg = (int) (g * alpha + (dst >> 8 & 0xFF) * inv + 0.5f);
+        int db = (int) (b * alpha + (dst & 0xFF) * inv + 0.5f);
+        return 0xff000000 | dr << 16 | dg << 8 | db;
+    }
+    
+    private static int mix(int a, int b, float t) {
+        int r = (int) ((a >> 16 & 0xFF) + ((b >> 16 & 0xFF) - (a >> 16 & 0xFF)) * t + 0.5f);
+        int g = (int) ((a >> 8 & 0xFF) + ((b >> 8 & 0xFF) - (a >> 8 & 0xFF)) * t + 0.5f);
+        int bl = (int) ((a & 0xFF) + ((b & 0xFF) - (a & 0xFF)) * t + 0.5f);
+        return r << 16 | g << 8 | bl;
+    }
+    
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final int tile;
+        
+        TileTask(int tile) {
+            this.tile = tile;
+        }
+        
+        @Override
+        protected void compute() {
+            renderTile(tile);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The subtree of every node in the same deep has the same shape, only rotated, scaled and moved.
+ * So, for the instanced render mode, the fractal is split in a deep: the branches above it are
+ * drawn as usual, and a single subtree is computed on the CPU and drawn once for each node in the
+ * split deep, with the transform computed here.
+ * <p>
+ * The subtree has the deep subtreeDeep, so the fractal is split in the deep maxDeep - subtreeDeep.
+ * Each instance has FLOATS_PER_INSTANCE floats: the cos and sin of the node angle, the scale, the
+ * node position and two numbers that map the vertex id in the subtree to the vertex id of the
+ * same vertex in the whole fractal, used for its color.
+ */
+public class SubtreeInstances {
+    static final int FLOATS_PER_INSTANCE = 7;
+    
+    // The nodes of the fractal down to the split deep
+    private final FractalGeometry top;
+    // The subtree of the root, in pixels
+    private final FractalGeometry subtree;
+    private FloatBuffer mesh;
+    private int meshVertexCount = 0;
+    private float[] instances = new float[0];
+    private int instanceCount = 0;
+    private int splitDeep = 0;
+    
+    SubtreeInstances(ForkJoinPool pool) {
+        top = new FractalGeometry(pool);
+        subtree = new FractalGeometry(pool);
+        mesh = allocate(0);
+    }
+    
+    /**
+     * Computes the subtree and the instances for a fractal with the given deep.
+     *
+     * @return false if the fractal is not deep enough to be split with this subtree deep, and
+     * should be drawn without instancing.
+     */
+    boolean update(float[] time, float clockSize, float[] screenSize, int deep, int subtreeDeep) {
+        splitDeep = deep - subtreeDeep;
+        if (splitDeep < 1 || subtreeDeep < 2) {
+            splitDeep = 0;
+            instanceCount = 0;
+            meshVertexCount = 0;
+            return false;
+        }
+        
+        top.setScreenSize(screenSize[0], screenSize[1]);
+        top.setClockSize(clockSize);
+        top.setTime(time[0], time[1]);
+        top.setDeep(splitDeep + 1);
+        top.compute();
+        
+        // With a screen of 1x1, the subtree is in pixels, with the same length of the fractal.
+        subtree.setScreenSize(1.0f, 1.0f);
+        subtree.setClockSize(clockSize * Math.min(screenSize[0], screenSize[1]));
+        subtree.setTime(time[0], time[1]);
+        subtree.setDeep(subtreeDeep);
+        subtree.compute();
+        
+        // The subtree starts at the branch 1, with the pointers of the root.
+        int branches = (1 << subtreeDeep) - 2;
+        if (mesh.capacity() < 4 * branches) {
+            mesh = allocate(Integer.highestOneBit(4 * branches - 1) << 1);
+        }
+        mesh.clear();
+        subtree.fill(mesh, 1, branches);
+        mesh.flip();
+        meshVertexCount = 2 * branches;
+        
+        instanceCount = 1 << splitDeep;
+        if (instances.length < FLOATS_PER_INSTANCE * instanceCount) {
+            instances = new float[FLOATS_PER_INSTANCE * instanceCount];
+        }
+        float scale = 1.0f;
+        for (int i = 0; i < splitDeep; i++) {
+            scale *= FractalGeometry.LENGTH_RATIO;
+        }
+        final int firstNode = instanceCount - 1;
+        for (int id = 0; id < instanceCount; id++) {
+            int node = firstNode + id;
+            int i = FLOATS_PER_INSTANCE * id;
+            instances[i] = top.getNodeCos(node);
+            instances[i + 1] = top.getNodeSin(node);
+            instances[i + 2] = scale;
+            instances[i + 3] = top.getNodeX(node);
+            instances[i + 4] = top.getNodeY(node);
+            // The branch bl of the subtree is the branch 2^split * (bl + 1) + id - 1 of the
+            // fractal. The vertex ids in the vertex id buffer start at the branch 3, while the
+            // subtree starts at the branch 1, so they are 4 units ahead.
+            instances[i + 5] = instanceCount;
+            instances[i + 6] = 2 * (id - 1) - 2 * instanceCount;
+        }
+        return true;
+    }
+    
+    int getSplitDeep() {
+        return splitDeep;
+    }
+    
+    int getInstanceCount() {
+        return instanceCount;
+    }
+    
+    float[] getInstances() {
+        return instances;
+    }
+    
+    /**
+     * The vertices of the subtree, each one with x and y, in pixels.
+     */
+    FloatBuffer getMesh() {
+        return mesh;
+    }
+    
+    int getMeshVertexCount() {
+        return meshVertexCount;
+    }
+    
+    /**
+     * The number of vertices, starting at FractalGeometry.FIRST_BRANCH, above the split deep.
+     */
+    int getTopVertexCount() {
+        return 2 * FractalGeometry.branchCount(splitDeep + 1);
+    }
+    
+    /**
+     * Java port of fractalclock_instanced_vert.glsl. Computes gl_Position.xy of a point of the
+     * subtree, in pixels, in the given instance.
+     */
+    void transform(int instance, float x, float y, float[] screenSize, float[] out) {
+        int i = FLOATS_PER_INSTANCE * instance;
+        float c = instances[i];
+        float s = instances[i + 1];
+        float scale = instances[i + 2];
+        out[0] = (instances[i + 3] + scale * (c * x + s * y)) / screenSize[0];
+        out[1] = (instances[i + 4] + scale * (-s * x + c * y)) / screenSize[1];
+    }
+    
+    /**
+     * Java port of the color index computed by fractalclock_instanced_vert.glsl: the id that the
+     * vertex with the given id in the vertex id buffer have in the whole fractal.
+     */
+    float colorIndex(int instance, float vertexIDf) {
+        int i = FLOATS_PER_INSTANCE * instance;
+        float parity = vertexIDf % 2.0f;
+        return instances[i + 5] * (vertexIDf - parity) + parity + instances[i + 6];
+    }
+    
+    private static FloatBuffer allocate(int floats) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(floats * 4);
+        bb.order(ByteOrder.nativeOrder());
+        return bb.asFloatBuffer();
+    }
+}
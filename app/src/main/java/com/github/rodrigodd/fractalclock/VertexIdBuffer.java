@@ -0,0 +1,92 @@
+package com.github.rodrigodd.fractalclock;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * The ids of the vertices, from FIRST_ID up, that the shaders use to find the branch of each
+ * vertex, or only its color.
+ * <p>
+ * The buffer is sized for the deepest fractal drawn so far, and grows geometrically when a deeper
+ * one needs more vertices, so a fractal that never goes past the default deep only uploads a few
+ * kilobytes. While the ids fit in 16 bits, up to a deep of 15, they are unsigned shorts, and after
+ * that floats, that are exact up to 2^24. GLES2 can't read ints as a vertex attribute.
+ * <p>
+ * The ids are only kept on the CPU until they are uploaded.
+ */
+class VertexIdBuffer {
+    // The first 3 branches are ignored, so vertices starts at index 6.
+    static final int FIRST_ID = 6;
+    static final int MAX_SHORT_VERTICES = 0xFFFF - FIRST_ID + 1;
+    
+    private final int maxVertices;
+    private int capacity = 0;
+    private boolean shorts = true;
+    
+    VertexIdBuffer(int maxVertices) {
+        this.maxVertices = maxVertices;
+    }
+    
+    /**
+     * If the buffer already has the ids of the given number of vertices.
+     */
+    boolean fits(int vertexCount) {
+        return vertexCount <= capacity;
+    }
+    
+    /**
+     * Grows the buffer to at least the given number of vertices, at least doubling it, and returns
+     * the ids of all of them, to be uploaded.
+     */
+    ByteBuffer grow(int vertexCount) {
+        if (vertexCount > maxVertices) {
+            throw new IllegalArgumentException("There can't be more than " + maxVertices + " vertices");
+        }
+        int doubled = Math.min(Math.max(2 * capacity, 1024), maxVertices);
+        if (vertexCount <= MAX_SHORT_VERTICES) {
+            // Don't let the doubling alone leave the 16 bit range.
+            doubled = Math.min(doubled, MAX_SHORT_VERTICES);
+        }
+        capacity = Math.max(vertexCount, doubled);
+        shorts = capacity <= MAX_SHORT_VERTICES;
+        
+        ByteBuffer ids = ByteBuffer.allocateDirect(getBytes()).order(ByteOrder.nativeOrder());
+        if (shorts) {
+            ShortBuffer buffer = ids.asShortBuffer();
+            for (int i = 0; i < capacity; i++) {
+                buffer.put((short) (i + FIRST_ID));
+            }
+        } else {
+            FloatBuffer buffer = ids.asFloatBuffer();
+            for (int i = 0; i < capacity; i++) {
+                buffer.put(i + FIRST_ID);
+            }
+        }
+        return ids;
+    }
+    
+    /**
+     * Forgets the uploaded ids, because the buffer was lost with the GL context.
+     */
+    void invalidate() {
+        capacity = 0;
+        shorts = true;
+    }
+    
+    int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * If the ids are unsigned shorts, or else floats.
+     */
+    boolean isShort() {
+        return shorts;
+    }
+    
+    int getBytes() {
+        return capacity * (shorts ? 2 : 4);
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * Maps the vsync timestamps given by the Choreographer, in the System.nanoTime clock, to the wall
+ * clock, so the time drawn in each frame is the time of its vsync, with sub-millisecond
+ * precision. It also counts the vsyncs that had no frame, because the last frame took too long.
+ * <p>
+ * The wall clock only has millisecond precision, so its offset from nanoTime is read once, in
+ * sync, and each frame only adds its timestamp to it. Otherwise the motion would jitter by up to
+ * a millisecond.
+ */
+class VsyncTimeline {
+    private final long periodNanos;
+    // wall clock nanos = nanoTime + offsetNanos
+    private long offsetNanos;
+    private long lastFrameNanos;
+    private boolean hasLastFrame = false;
+    
+    VsyncTimeline(long periodNanos) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("period must be positive, was " + periodNanos);
+        }
+        this.periodNanos = periodNanos;
+    }
+    
+    long getPeriodNanos() {
+        return periodNanos;
+    }
+    
+    /**
+     * Reads the offset between the wall clock and nanoTime, and forgets the last frame. Must be
+     * called when the frames start again, and when the wall clock changes.
+     */
+    void sync(long currentTimeMillis, long nanoTime) {
+        offsetNanos = currentTimeMillis * 1000000L - nanoTime;
+        hasLastFrame = false;
+    }
+    
+    /**
+     * The wall clock time of a frame, in nanoseconds since the epoch.
+     */
+    long wallNanos(long frameTimeNanos) {
+        return frameTimeNanos + offsetNanos;
+    }
+    
+    /**
+     * Takes the timestamp of a new frame, and returns the number of vsyncs skipped since the last
+     * one.
+     */
+    int frame(long frameTimeNanos) {
+        int missed = 0;
+        if (hasLastFrame) {
+            long vsyncs = (frameTimeNanos - lastFrameNanos + periodNanos / 2) / periodNanos;
+            missed = (int) Math.max(0, vsyncs - 1);
+        }
+        lastFrameNanos = frameTimeNanos;
+        hasLastFrame = true;
+        return missed;
+    }
+}
@@ -0,0 +1,9 @@
+#version 100
+
+precision mediump float;
+
+uniform lowp vec3 color;
+
+void main() {
+    gl_FragColor = vec4(color, 1.0);
+}
\ No newline at end of file
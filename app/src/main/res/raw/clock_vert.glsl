@@ -0,0 +1,10 @@
+precision mediump float;
+
+// The pixels from the center of the screen, by ClockFaceMesh.
+attribute vec2 position;
+
+uniform vec2 screenSize;
+
+void main() {
+    gl_Position = vec4(2.0 * position / screenSize, 0.0, 1.0);
+}
\ No newline at end of file
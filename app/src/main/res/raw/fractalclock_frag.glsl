@@ -1,8 +1,10 @@
 #version 100
 
-precision lowp float;
-varying lowp vec3 vColor;
+precision mediump float;
+// The colors of the fractal, from the first branch, at 0, to the last one, at 1.
+uniform sampler2D gradient;
+varying mediump float vGradient;
 
 void main() {
-    gl_FragColor = vec4(vColor,1.0);
+    gl_FragColor = vec4(texture2D(gradient, vec2(vGradient, 0.5)).rgb, 1.0);
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+#version 100
+
+// Used by the instanced render mode. The same subtree, computed on the CPU, is drawn once for each
+// node in the split deep, rotated, scaled and moved to the node.
+attribute vec2 position;
+// The id of the vertex in the vertex id buffer. It starts at the branch 3, while the subtree starts
+// at the branch 1.
+attribute float vertexIDf;
+uniform vec2 screenSize;
+uniform int maxDeep;
+
+// cos and sin of the node angle, and the scale of the subtree
+uniform vec3 instanceRotation;
+uniform vec2 instanceOffset;
+// Maps vertexIDf to the id of the same vertex in the whole fractal, for the color
+uniform vec2 instanceColor;
+
+// Where the color is sampled in the gradient texture, see fractalclock_frag.glsl
+varying mediump float vGradient;
+
+void main() {
+    float parity = mod(vertexIDf, 2.0);
+    float fractalID = instanceColor.x * (vertexIDf - parity) + parity + instanceColor.y;
+    vGradient = fractalID / exp2(float(maxDeep + 1));
+
+    vec2 pos = instanceRotation.z * vec2(
+         instanceRotation.x * position.x + instanceRotation.y * position.y,
+        -instanceRotation.y * position.x + instanceRotation.x * position.y
+    );
+    gl_Position = vec4((instanceOffset + pos) / screenSize, 0.0, 1.0);
+}
\ No newline at end of file
@@ -0,0 +1,14 @@
+#version 100
+
+// Used by the streamed render mode, where the branches are computed on the CPU.
+attribute vec2 position;
+attribute float vertexIDf;
+uniform int maxDeep;
+
+// Where the color is sampled in the gradient texture, see fractalclock_frag.glsl
+varying mediump float vGradient;
+
+void main() {
+    vGradient = float(vertexIDf) / exp2(float(maxDeep + 1));
+    gl_Position = vec4(position, 0.0, 1.0);
+}
\ No newline at end of file
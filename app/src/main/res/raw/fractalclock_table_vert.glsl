@@ -0,0 +1,41 @@
+#version 100
+
+// Must be the same value of AngleTable.SIZE
+#define ANGLE_TABLE_SIZE 189
+
+attribute float vertexIDf;
+uniform vec2 screenSize;
+uniform int maxDeep;
+// For the segment n of a branch (the first one being 1), after h of its n turns were hour turns,
+// the entry n * (n + 1) / 2 - 1 + h has the cos and the sin of the segment angle, and its length.
+uniform vec3 angleTable[ANGLE_TABLE_SIZE];
+
+// Where the color is sampled in the gradient texture, see fractalclock_frag.glsl
+varying mediump float vGradient;
+
+void main() {
+    // See fractalclock_vert.glsl
+    float branch_index = floor(vertexIDf/2.0);
+    int deep = int(log2(branch_index + 1.0));
+    int id = int(branch_index + 1.0 - exp2(float(deep)));
+    deep += int(mod(vertexIDf, 2.0));
+
+    vGradient = float(vertexIDf) / exp2(float(maxDeep + 1));
+
+    vec2 pos = vec2(0.0, 0.0);
+    int hourTurns = 0;
+    // index of the first entry of the segment i
+    int start = 0;
+    for (int i = 1; i < deep; i++) {
+        if (int(mod(float(id), 2.0)) == 0) {
+            // rotate left
+            hourTurns++;
+        }
+        id = id / 2;
+        vec3 entry = angleTable[start + hourTurns];
+        pos += entry.z * entry.yx;
+        start += i + 1;
+    }
+
+    gl_Position = vec4(pos / screenSize, 0.0, 1.0);
+}
\ No newline at end of file
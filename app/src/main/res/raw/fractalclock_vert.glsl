@@ -6,12 +6,10 @@ uniform float clockSize;
 uniform vec2 time;
 uniform int maxDeep;
 
-uniform lowp vec3 hourColor;
-uniform lowp vec3 minColor;
-
 const float PI = 3.141592653;
 
-varying lowp vec3 vColor;
+// Where the color is sampled in the gradient texture, see fractalclock_frag.glsl
+varying mediump float vGradient;
 
 void main() {
     // floor(vertexId / 2) would be the branch index.
@@ -28,16 +26,14 @@ void main() {
     float length = clockSize * min(screenSize.x, screenSize.y);
     float angle;
 
-    vColor = mix(minColor, hourColor, float(vertexIDf) / exp2(float(maxDeep + 1)));
+    vGradient = float(vertexIDf) / exp2(float(maxDeep + 1));
 
     if(int(mod(float(id), 2.0)) == 0) {
         // rotate left
         angle = 2.0 * PI * time.x;
-//        vColor = hourColor;
     } else {
         // rotate right
         angle = 2.0 * PI * time.y;
-//        vColor = minColor;
     }
     int i;
     for (i = 1; i < deep - 1; i++) {
@@ -57,12 +53,6 @@ void main() {
     if (i<deep) {
         pos.x += length * sin(angle) / screenSize.x;
         pos.y += length * cos(angle) / screenSize.y;
-
-//        if (int(mod(float(id), 2.0)) == 0) {
-//            vColor = hourColor;
-//        } else {
-//            vColor = minColor;
-//        }
     }
 
     gl_Position = vec4(pos, 0.0, 1.0);
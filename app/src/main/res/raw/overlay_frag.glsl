@@ -0,0 +1,9 @@
+#version 100
+
+precision lowp float;
+
+uniform lowp vec4 color;
+
+void main() {
+    gl_FragColor = color;
+}
\ No newline at end of file
@@ -0,0 +1,9 @@
+// Used by the performance overlay, to draw flat rectangles.
+
+precision mediump float;
+
+attribute vec2 position;
+
+void main() {
+    gl_Position = vec4(position, 0.0, 1.0);
+}
\ No newline at end of file
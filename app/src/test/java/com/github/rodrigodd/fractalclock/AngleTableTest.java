@@ -0,0 +1,49 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AngleTableTest {
+    
+    @Test
+    public void size_matchesShader() {
+        assertEquals(189, AngleTable.SIZE);
+        assertEquals(0, AngleTable.index(1, 0));
+        assertEquals(2, AngleTable.index(2, 0));
+        assertEquals(AngleTable.SIZE - 1, AngleTable.index(AngleTable.MAX_SEGMENTS, AngleTable.MAX_SEGMENTS));
+    }
+    
+    @Test
+    public void update_returnsUsedEntries() {
+        AngleTable table = new AngleTable();
+        float[] time = { 0.1f, 0.2f };
+        assertEquals(0, table.update(time, 100.0f, -1));
+        assertEquals(0, table.update(time, 100.0f, 0));
+        assertEquals(2, table.update(time, 100.0f, 1));
+        assertEquals(AngleTable.SIZE, table.update(time, 100.0f, AngleTable.MAX_SEGMENTS));
+    }
+    
+    @Test
+    public void position_matchesShaderLoop() {
+        float[][] times = { { 0.0f, 0.0f }, { 0.2708f, 0.25f }, { 0.8472f, 0.1667f }, { -0.15f, 0.15f } };
+        float[] screenSize = { 1080, 1920 };
+        float clockSize = 0.5f;
+        int deep = 12;
+        float[] expected = new float[2];
+        float[] actual = new float[2];
+        
+        AngleTable table = new AngleTable();
+        for (float[] time : times) {
+            table.update(time, clockSize * Math.min(screenSize[0], screenSize[1]), deep - 1);
+            int vertexCount = 2 * FractalGeometry.branchCount(deep);
+            for (int i = 0; i < vertexCount; i++) {
+                int vertexID = i + 2 * FractalGeometry.FIRST_BRANCH;
+                ShaderReference.position(vertexID, time, clockSize, screenSize, expected);
+                table.position(vertexID, screenSize, actual);
+                assertEquals("x of vertex " + vertexID, expected[0], actual[0], 1e-4f);
+                assertEquals("y of vertex " + vertexID, expected[1], actual[1], 1e-4f);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class BranchStreamTest {
+    private final float[] time = { 0.3f, 0.7f };
+    private final float[] screenSize = { 720, 1280 };
+    
+    @Test
+    public void prepare_writesGeometryOfProducer() {
+        BranchStream stream = new BranchStream(new FractalGeometry(null));
+        int vertexCount = stream.prepare(time, 0.5f, screenSize, 9);
+        assertEquals(2 * FractalGeometry.branchCount(9), vertexCount);
+        
+        FractalGeometry geometry = new FractalGeometry(null);
+        geometry.setScreenSize(screenSize[0], screenSize[1]);
+        geometry.setClockSize(0.5f);
+        geometry.setTime(time[0], time[1]);
+        geometry.setDeep(9);
+        geometry.compute();
+        float[] expected = new float[2 * vertexCount];
+        geometry.fill(expected);
+        
+        FloatBuffer vertices = stream.getVertices();
+        assertEquals(0, vertices.position());
+        assertEquals(expected.length, vertices.remaining());
+        float[] actual = new float[expected.length];
+        vertices.get(actual);
+        assertArrayEquals(expected, actual, 0.0f);
+    }
+    
+    @Test
+    public void prepare_growsOnlyWhenDeepIncreases() {
+        BranchStream stream = new BranchStream(new FractalGeometry(null));
+        stream.prepare(time, 0.5f, screenSize, 10);
+        FloatBuffer vertices = stream.getVertices();
+        
+        stream.prepare(time, 0.5f, screenSize, 8);
+        assertSame(vertices, stream.getVertices());
+        assertEquals(2 * FractalGeometry.branchCount(8), stream.getVertexCount());
+        
+        stream.prepare(time, 0.5f, screenSize, 11);
+        assertNotSame(vertices, stream.getVertices());
+    }
+    
+    @Test
+    public void prepare_emptyFractal() {
+        BranchStream stream = new BranchStream(new FractalGeometry(null));
+        assertEquals(0, stream.prepare(time, 0.5f, screenSize, 2));
+        assertEquals(0, stream.getVertices().remaining());
+    }
+    
+    @Test
+    public void nextBuffer_alternates() {
+        BranchStream stream = new BranchStream(new FractalGeometry(null));
+        int first = stream.nextBuffer();
+        int second = stream.nextBuffer();
+        assertNotEquals(first, second);
+        assertEquals(first, stream.nextBuffer());
+    }
+    
+    @Test
+    public void preferStream() {
+        assertFalse(BranchStream.preferStream(12, 8));
+        assertFalse(BranchStream.preferStream(18, 2));
+        assertTrue(BranchStream.preferStream(BranchStream.AUTO_STREAM_DEEP, BranchStream.AUTO_STREAM_CORES));
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockFaceMeshTest {
+    private static final float RADIUS = 100.0f;
+    
+    @Test
+    public void vertexCountFollowsClockType() {
+        ClockFaceMesh mesh = new ClockFaceMesh();
+        mesh.setClock(ClockFaceMesh.CLOCK_NONE, RADIUS);
+        assertEquals(0, mesh.getVertexCount());
+        mesh.setClock(ClockFaceMesh.CLOCK_POINTERS, RADIUS);
+        assertEquals(ClockFaceMesh.POINTER_VERTICES, mesh.getVertexCount());
+        mesh.setClock(ClockFaceMesh.CLOCK_HOUR_MARKS, RADIUS);
+        assertEquals(ClockFaceMesh.POINTER_VERTICES + 12 * 6, mesh.getVertexCount());
+        mesh.setClock(ClockFaceMesh.CLOCK_MIN_MARKS, RADIUS);
+        assertEquals(ClockFaceMesh.MAX_VERTICES, mesh.getVertexCount());
+    }
+    
+    @Test
+    public void onlyChangesRegenerate() {
+        ClockFaceMesh mesh = new ClockFaceMesh();
+        assertTrue(mesh.setClock(ClockFaceMesh.CLOCK_HOUR_MARKS, RADIUS));
+        assertFalse(mesh.setClock(ClockFaceMesh.CLOCK_HOUR_MARKS, RADIUS));
+        assertTrue(mesh.setClock(ClockFaceMesh.CLOCK_HOUR_MARKS, RADIUS * 2));
+        assertTrue(mesh.setClock(ClockFaceMesh.CLOCK_MIN_MARKS, RADIUS * 2));
+    }
+    
+    @Test
+    public void pointersDoNotTouchTheMarks() {
+        ClockFaceMesh mesh = new ClockFaceMesh();
+        mesh.setClock(ClockFaceMesh.CLOCK_MIN_MARKS, RADIUS);
+        float[] marks = mesh.getVertices().clone();
+        mesh.setTime(0.3f, 0.7f);
+        float[] vertices = mesh.getVertices();
+        int start = ClockFaceMesh.POINTER_VERTICES * ClockFaceMesh.FLOATS_PER_VERTEX;
+        for (int i = start; i < vertices.length; i++) {
+            assertEquals(marks[i], vertices[i], 0.0f);
+        }
+    }
+    
+    @Test
+    public void pointersPointToTheTime() {
+        ClockFaceMesh mesh = new ClockFaceMesh();
+        mesh.setClock(ClockFaceMesh.CLOCK_POINTERS, RADIUS);
+        // Three o'clock: the hour pointer to the right, the minute pointer up.
+        mesh.setTime(0.25f, 0.0f);
+        float[] v = mesh.getVertices();
+        float width = RADIUS * ClockFaceMesh.POINTER_WIDTH;
+        // The third vertex of each quad is at the end of the pointer, minus half of the width.
+        assertEquals(RADIUS, v[4], 1e-3f);
+        assertEquals(-width / 2, v[5], 1e-3f);
+        assertEquals(RADIUS / 5, v[0], 1e-3f);
+        assertEquals(width / 2, v[16], 1e-3f);
+        assertEquals(RADIUS, v[17], 1e-3f);
+    }
+    
+    @Test
+    public void marksAreOutsideThePointers() {
+        ClockFaceMesh mesh = new ClockFaceMesh();
+        mesh.setClock(ClockFaceMesh.CLOCK_MIN_MARKS, RADIUS);
+        float[] v = mesh.getVertices();
+        for (int i = ClockFaceMesh.POINTER_VERTICES; i < mesh.getVertexCount(); i++) {
+            float x = v[2 * i];
+            float y = v[2 * i + 1];
+            float distance = (float) Math.sqrt(x * x + y * y);
+            assertTrue(distance > 1.19f * RADIUS);
+            assertTrue(distance < 1.31f * RADIUS);
+        }
+    }
+    
+    @Test
+    public void clockTypeOf_showsTheClockByDefault() {
+        // A new engine applies the clock type before the preference is ever written.
+        assertEquals(ClockFaceMesh.CLOCK_HOUR_MARKS, ClockFaceMesh.clockTypeOf(""));
+        assertEquals(ClockFaceMesh.CLOCK_HOUR_MARKS, ClockFaceMesh.clockTypeOf("hour_marks"));
+        assertEquals(ClockFaceMesh.CLOCK_POINTERS, ClockFaceMesh.clockTypeOf("only_pointers"));
+        assertEquals(ClockFaceMesh.CLOCK_MIN_MARKS, ClockFaceMesh.clockTypeOf("min_marks"));
+        assertEquals(ClockFaceMesh.CLOCK_NONE, ClockFaceMesh.clockTypeOf("no_clock"));
+    }
+}
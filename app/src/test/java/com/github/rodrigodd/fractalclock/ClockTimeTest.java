@@ -0,0 +1,47 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockTimeTest {
+    private static final long NANOS_PER_MINUTE = 60 * 1000000000L;
+    
+    @Test
+    public void pointersAtKnownTimes() {
+        ClockTime time = new ClockTime();
+        time.set(0, 0);
+        assertEquals(0.0f, time.hour, 0.0f);
+        assertEquals(0.0f, time.min, 0.0f);
+        
+        time.set((3 * 60 + 15) * NANOS_PER_MINUTE, 0);
+        assertEquals(3.25f / 12.0f, time.hour, 1e-6f);
+        assertEquals(0.25f, time.min, 1e-6f);
+        
+        // 22:10 is 10:10 in the clock.
+        time.set((22 * 60 + 10) * NANOS_PER_MINUTE, 0);
+        assertEquals((10 + 10 / 60.0f) / 12.0f, time.hour, 1e-6f);
+        assertEquals(10 / 60.0f, time.min, 1e-6f);
+    }
+    
+    @Test
+    public void timeZoneOffsetMovesOnlyThePointers() {
+        ClockTime utc = new ClockTime();
+        ClockTime local = new ClockTime();
+        long now = 1700000000000L * 1000000L;
+        utc.set(now, 0);
+        local.set(now, -3 * ClockTime.NANOS_PER_HOUR);
+        assertEquals(utc.min, local.min, 1e-6f);
+        assertEquals(utc.hour - 3.0f / 12.0f, local.hour, 1e-6f);
+        assertEquals(utc.abrtTime, local.abrtTime, 0.0f);
+    }
+    
+    @Test
+    public void gradientGoesAroundEach20Hours() {
+        ClockTime time = new ClockTime();
+        time.set(5 * ClockTime.NANOS_PER_HOUR, 0);
+        assertEquals(0.25f, time.abrtTime, 1e-6f);
+        time.set(ClockTime.GRADIENT_PERIOD + 5 * ClockTime.NANOS_PER_HOUR, 0);
+        assertEquals(0.25f, time.abrtTime, 1e-6f);
+    }
+}
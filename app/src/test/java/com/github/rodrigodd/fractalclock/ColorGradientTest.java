@@ -0,0 +1,121 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class ColorGradientTest {
+    private static final int RED = 0xffff0000;
+    private static final int GREEN = 0xff00ff00;
+    private static final int BLUE = 0xff0000ff;
+    
+    private static int channel(int color, int shift) {
+        return (color >>> shift) & 0xff;
+    }
+    
+    private static void assertColor(int expected, int actual, int tolerance) {
+        for (int shift = 0; shift <= 24; shift += 8) {
+            int difference = Math.abs(channel(expected, shift) - channel(actual, shift));
+            assertTrue(String.format("expected %08x, was %08x", expected, actual),
+                    difference <= tolerance);
+        }
+    }
+    
+    @Test
+    public void singleColorIsConstant() {
+        ColorGradient gradient = new ColorGradient(new int[]{0xff123456});
+        for (float point = -2.0f; point < 2.0f; point += 0.01f) {
+            assertEquals(0xff123456, gradient.getColor(point));
+        }
+    }
+    
+    @Test
+    public void stopsHaveTheirColor() {
+        ColorGradient gradient = new ColorGradient(new int[]{RED, GREEN, BLUE});
+        assertColor(RED, gradient.getColor(0.0f), 1);
+        assertColor(GREEN, gradient.getColor(1 / 3.0f), 1);
+        assertColor(BLUE, gradient.getColor(2 / 3.0f), 1);
+    }
+    
+    @Test
+    public void wrapsAround() {
+        ColorGradient gradient = new ColorGradient(new int[]{RED, BLUE});
+        // Halfway from blue, at 0.5, back to red, at 1.
+        assertColor(0xff800080, gradient.getColor(0.75f), 1);
+        assertEquals(gradient.getColor(0.25f), gradient.getColor(1.25f));
+        assertEquals(gradient.getColor(0.25f), gradient.getColor(-0.75f));
+        assertColor(RED, gradient.getColor(0.9999999f), 2);
+    }
+    
+    @Test
+    public void customStops() {
+        ColorGradient gradient = new ColorGradient(new int[]{RED, GREEN}, new float[]{0.2f, 0.4f});
+        assertColor(RED, gradient.getColor(0.2f), 2);
+        assertColor(0xff808000, gradient.getColor(0.3f), 2);
+        assertColor(GREEN, gradient.getColor(0.4f), 2);
+        // From green at 0.4 around to red at 1.2.
+        assertColor(0xff808000, gradient.getColor(0.8f), 2);
+        assertColor(0xffc04000, gradient.getColor(0.0f), 2);
+    }
+    
+    @Test
+    public void setColorsResizes() {
+        ColorGradient gradient = new ColorGradient(new int[]{RED});
+        gradient.setColors(new int[]{RED, GREEN, BLUE, RED, GREEN});
+        assertColor(BLUE, gradient.getColor(0.4f), 1);
+        gradient.setColors(new int[]{GREEN});
+        assertEquals(GREEN, gradient.getColor(0.4f));
+    }
+    
+    @Test
+    public void linearLightIsBrighterInTheMiddle() {
+        ColorGradient gradient = new ColorGradient(new int[]{RED, GREEN});
+        int srgb = gradient.getColor(0.25f);
+        gradient.setLinearLight(true);
+        int linear = gradient.getColor(0.25f);
+        assertColor(0xff808000, srgb, 2);
+        // Half of the light of each channel is about 188 in sRGB.
+        assertColor(0xffbcbc00, linear, 2);
+        assertColor(RED, gradient.getColor(0.0f), 1);
+    }
+    
+    @Test
+    public void colorsAreOpaque() {
+        ColorGradient gradient = new ColorGradient(new int[]{0x00ff0000, 0x8000ff00});
+        for (float point = 0.0f; point < 1.0f; point += 0.05f) {
+            assertEquals(0xff, gradient.getColor(point) >>> 24);
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnorderedStops() {
+        new ColorGradient(new int[]{RED, GREEN}, new float[]{0.5f, 0.2f});
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMismatchedStops() {
+        new ColorGradient(new int[]{RED, GREEN}, new float[]{0.5f});
+    }
+    
+    @Test
+    public void getColor_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ColorGradient gradient = new ColorGradient(new int[]{RED, GREEN, BLUE, RED, GREEN});
+        int sum = 0;
+        for (int i = 0; i < 1000; i++) {
+            sum += gradient.getColor(i * 0.001f);
+        }
+        
+        long id = Thread.currentThread().getId();
+        threads.getThreadAllocatedBytes(id);
+        long before = threads.getThreadAllocatedBytes(id);
+        sum += gradient.getColor(0.3f);
+        sum += gradient.getColor(1.7f);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertEquals(0, allocated);
+        assertNotEquals(0, sum);
+    }
+}
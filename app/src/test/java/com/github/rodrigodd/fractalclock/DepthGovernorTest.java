@@ -0,0 +1,119 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DepthGovernorTest {
+    private static final long BUDGET = 10_000_000L;
+    
+    private static class FakeClock implements DepthGovernor.Clock {
+        long now = 0;
+        
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+    
+    /**
+     * Simulates frames of a GPU where each deep doubles the frame time, and a frame of deep 12
+     * takes nanosAt12. Frames are drawn each frameInterval.
+     */
+    private static void run(DepthGovernor governor, FakeClock clock, long nanosAt12, int frames) {
+        final long frameInterval = 100_000_000L;
+        for (int i = 0; i < frames; i++) {
+            int deep = governor.getDeep();
+            long frameNanos = deep >= 12 ? nanosAt12 << (deep - 12) : nanosAt12 >> (12 - deep);
+            governor.frameStarted();
+            clock.now += frameNanos;
+            governor.frameFinished();
+            clock.now += frameInterval - frameNanos;
+        }
+    }
+    
+    @Test
+    public void startsAtTheUserDeep() {
+        FakeClock clock = new FakeClock();
+        DepthGovernor governor = new DepthGovernor(clock, BUDGET);
+        governor.setMaxDeep(14);
+        assertEquals(14, governor.getDeep());
+    }
+    
+    @Test
+    public void lowersDeepUntilFramesFit() {
+        FakeClock clock = new FakeClock();
+        DepthGovernor governor = new DepthGovernor(clock, BUDGET);
+        governor.setMaxDeep(16);
+        // Deep 16 takes 48ms, deep 13 takes 6ms.
+        run(governor, clock, 3_000_000L, 500);
+        assertEquals(13, governor.getDeep());
+    }
+    
+    @Test
+    public void neverExceedsTheUserDeep() {
+        FakeClock clock = new FakeClock();
+        DepthGovernor governor = new DepthGovernor(clock, BUDGET);
+        governor.setMaxDeep(10);
+        run(governor, clock, 10_000L, 500);
+        assertEquals(10, governor.getDeep());
+    }
+    
+    @Test
+    public void raisesDeepWhenFramesGetFaster() {
+        FakeClock clock = new FakeClock();
+        DepthGovernor governor = new DepthGovernor(clock, BUDGET);
+        governor.setMaxDeep(16);
+        run(governor, clock, 3_000_000L, 500);
+        assertEquals(13, governor.getDeep());
+        
+        // The device got faster, now deep 16 takes 3ms.
+        run(governor, clock, 375_000L, 500);
+        assertEquals(16, governor.getDeep());
+    }
+    
+    @Test
+    public void doesNotOscillate() {
+        FakeClock clock = new FakeClock();
+        DepthGovernor governor = new DepthGovernor(clock, BUDGET);
+        governor.setMaxDeep(16);
+        // Deep 14 takes 7ms, it fits, but deep 15 takes 14ms and don't.
+        run(governor, clock, 1_750_000L, 300);
+        assertEquals(14, governor.getDeep());
+        
+        int changes = 0;
+        int last = governor.getDeep();
+        for (int i = 0; i < 50; i++) {
+            run(governor, clock, 1_750_000L, 20);
+            if (governor.getDeep() != last) {
+                changes++;
+                last = governor.getDeep();
+            }
+        }
+        assertEquals(0, changes);
+    }
+    
+    @Test
+    public void waitsForTheNewDeepToSettle() {
+        FakeClock clock = new FakeClock();
+        DepthGovernor governor = new DepthGovernor(clock, BUDGET);
+        governor.setMaxDeep(16);
+        // The frames right after the deep is set are ignored, even if they are slow.
+        for (int i = 0; i < 2 * DepthGovernor.WINDOW; i++) {
+            governor.frameStarted();
+            clock.now += 50_000_000L;
+            governor.frameFinished();
+        }
+        assertTrue(clock.now < DepthGovernor.SETTLE_NANOS);
+        assertEquals(16, governor.getDeep());
+    }
+    
+    @Test
+    public void lowersToMinDeepAtMost() {
+        FakeClock clock = new FakeClock();
+        DepthGovernor governor = new DepthGovernor(clock, BUDGET);
+        governor.setMaxDeep(12);
+        run(governor, clock, 1_000_000_000L, 2000);
+        assertEquals(DepthGovernor.MIN_DEEP, governor.getDeep());
+    }
+}
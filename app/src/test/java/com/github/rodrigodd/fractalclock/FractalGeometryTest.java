@@ -0,0 +1,148 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class FractalGeometryTest {
+    
+    private static FractalGeometry geometry(ForkJoinPool pool, float hour, float min, int deep) {
+        FractalGeometry geometry = new FractalGeometry(pool);
+        geometry.setScreenSize(1080, 1920);
+        geometry.setClockSize(0.5f);
+        geometry.setTime(hour, min);
+        geometry.setDeep(deep);
+        geometry.compute();
+        return geometry;
+    }
+    
+    @Test
+    public void branchCount_matchesRenderer() {
+        assertEquals(0, FractalGeometry.branchCount(1));
+        assertEquals(0, FractalGeometry.branchCount(2));
+        assertEquals(4, FractalGeometry.branchCount(3));
+        assertEquals((1 << 12) - 4, FractalGeometry.branchCount(12));
+    }
+    
+    /**
+     * The length in pixels of the first branch of the given deep, as drawn by the shader.
+     */
+    private static float branchPixels(int deep, float clockSize, float[] screenSize) {
+        float[] time = { 0.2708f, 0.25f };
+        float[] start = new float[2];
+        float[] end = new float[2];
+        int branch = (1 << deep) - 1;
+        ShaderReference.position(2 * branch, time, clockSize, screenSize, start);
+        ShaderReference.position(2 * branch + 1, time, clockSize, screenSize, end);
+        float dx = (end[0] - start[0]) * screenSize[0] / 2.0f;
+        float dy = (end[1] - start[1]) * screenSize[1] / 2.0f;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+    
+    @Test
+    public void visibleDeep_stopsAtOnePixel() {
+        // In a 1080p screen, the pointers have 270 pixels, and 270 * 0.7^15 > 1 > 270 * 0.7^16.
+        assertEquals(17, FractalGeometry.visibleDeep(0.5f, 1080, 1.0f));
+        float[][] screens = { { 1080, 1920 }, { 1440, 3120 }, { 320, 240 }, { 96, 96 } };
+        float[] clockSizes = { 0.2f, 0.5f, 0.8f };
+        for (float[] screenSize : screens) {
+            for (float clockSize : clockSizes) {
+                float minScreenSize = Math.min(screenSize[0], screenSize[1]);
+                int deep = FractalGeometry.visibleDeep(clockSize, minScreenSize, 1.0f);
+                // The renderer draws up to deep - 1.
+                assertTrue(branchPixels(deep - 1, clockSize, screenSize) >= 1.0f);
+                assertTrue(branchPixels(deep, clockSize, screenSize) < 1.0f);
+            }
+        }
+    }
+    
+    @Test
+    public void visibleDeep_drawsNothingWhenThePointersAreTooShort() {
+        assertEquals(2, FractalGeometry.visibleDeep(0.5f, 2.0f, 1.0f));
+        assertEquals(2, FractalGeometry.visibleDeep(0.0f, 1080, 1.0f));
+        assertEquals(FractalGeometry.MAX_DEEP + 2, FractalGeometry.visibleDeep(0.5f, 1080, 1e-9f));
+    }
+    
+    @Test
+    public void parentOf_followsShaderOrder() {
+        // The pointers start at the root
+        assertEquals(0, FractalGeometry.parentOf(1));
+        assertEquals(0, FractalGeometry.parentOf(2));
+        // In deep 2, the lowest bit of the id is the turn made at the root.
+        assertEquals(1, FractalGeometry.parentOf(3));
+        assertEquals(2, FractalGeometry.parentOf(4));
+        assertEquals(1, FractalGeometry.parentOf(5));
+        assertEquals(2, FractalGeometry.parentOf(6));
+    }
+    
+    @Test
+    public void fill_matchesShader() {
+        float[][] times = { { 0.0f, 0.0f }, { 0.2708f, 0.25f }, { 0.8472f, 0.1667f }, { -0.15f, 0.15f } };
+        float[] screenSize = { 1080, 1920 };
+        float[] expected = new float[2];
+        for (float[] time : times) {
+            FractalGeometry geometry = geometry(null, time[0], time[1], 10);
+            float[] vertices = new float[4 * geometry.getBranchCount()];
+            assertEquals(vertices.length, geometry.fill(vertices));
+            
+            for (int i = 0; i < vertices.length / 2; i++) {
+                int vertexID = i + 2 * FractalGeometry.FIRST_BRANCH;
+                ShaderReference.position(vertexID, time, 0.5f, screenSize, expected);
+                assertEquals("x of vertex " + vertexID, expected[0], vertices[2 * i], 1e-4f);
+                assertEquals("y of vertex " + vertexID, expected[1], vertices[2 * i + 1], 1e-4f);
+            }
+        }
+    }
+    
+    @Test
+    public void fill_bufferMatchesArray() {
+        FractalGeometry geometry = geometry(null, 0.3f, 0.6f, 8);
+        float[] vertices = new float[4 * geometry.getBranchCount()];
+        geometry.fill(vertices);
+        
+        FloatBuffer buffer = FloatBuffer.allocate(vertices.length);
+        geometry.fill(buffer, FractalGeometry.FIRST_BRANCH, geometry.getBranchCount());
+        assertArrayEquals(vertices, buffer.array(), 0.0f);
+    }
+    
+    @Test
+    public void compute_parallelMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int deep = 1; deep <= 16; deep++) {
+                FractalGeometry sequential = geometry(null, 0.123f, 0.456f, deep);
+                FractalGeometry parallel = geometry(pool, 0.123f, 0.456f, deep);
+                
+                float[] expected = new float[4 * sequential.getBranchCount()];
+                float[] actual = new float[expected.length];
+                sequential.fill(expected);
+                parallel.fill(actual);
+                assertArrayEquals("deep " + deep, expected, actual, 0.0f);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void compute_reusesStorageWhenDeepChanges() {
+        FractalGeometry geometry = geometry(null, 0.1f, 0.2f, 12);
+        geometry.setDeep(6);
+        geometry.compute();
+        assertEquals((1 << 6) - 1, geometry.getNodeCount());
+        
+        float[] small = new float[4 * geometry.getBranchCount()];
+        geometry.fill(small);
+        float[] expected = new float[4 * geometry.getBranchCount()];
+        geometry(null, 0.1f, 0.2f, 6).fill(expected);
+        assertArrayEquals(expected, small, 0.0f);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void setDeep_rejectsDeepBeyondVertexBuffer() {
+        new FractalGeometry(null).setDeep(FractalGeometry.MAX_DEEP + 1);
+    }
+}
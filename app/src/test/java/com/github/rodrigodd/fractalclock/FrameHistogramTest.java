@@ -0,0 +1,93 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class FrameHistogramTest {
+    
+    @Test
+    public void bucketEnd_containsItsValues() {
+        for (long nanos = 0; nanos < 100000; nanos++) {
+            int bucket = FrameHistogram.bucketOf(nanos);
+            assertTrue(nanos <= FrameHistogram.bucketEnd(bucket));
+            if (bucket > 0) {
+                assertTrue(nanos > FrameHistogram.bucketEnd(bucket - 1));
+            }
+        }
+        int last = FrameHistogram.bucketOf(FrameHistogram.MAX_NANOS);
+        assertEquals(FrameHistogram.MAX_NANOS, FrameHistogram.bucketEnd(last));
+    }
+    
+    @Test
+    public void percentiles_areWithinTheBucketError() {
+        FrameHistogram histogram = new FrameHistogram("test");
+        // 1ms to 100ms
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000000L, histogram.getMax());
+        assertEquals(50500000L, histogram.getMean());
+        
+        double error = 1.0 / FrameHistogram.SUB_BUCKETS;
+        assertEquals(50e6, histogram.getPercentile(0.50), 50e6 * error);
+        assertEquals(95e6, histogram.getPercentile(0.95), 95e6 * error);
+        assertEquals(99e6, histogram.getPercentile(0.99), 99e6 * error);
+        assertEquals(100000000L, histogram.getPercentile(1.0));
+        // Never below the real value
+        assertTrue(histogram.getPercentile(0.50) >= 50e6);
+    }
+    
+    @Test
+    public void record_clampsHugeValuesButKeepsTheMax() {
+        FrameHistogram histogram = new FrameHistogram("test");
+        histogram.record(Long.MAX_VALUE / 2);
+        histogram.record(-5);
+        assertEquals(2, histogram.getCount());
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+    
+    @Test
+    public void reset_clearsEverything() {
+        FrameHistogram histogram = new FrameHistogram("test");
+        histogram.record(1234567);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+    
+    @Test
+    public void appendTo_formatsInMilliseconds() {
+        FrameHistogram histogram = new FrameHistogram("gl frame");
+        histogram.record(16500000L);
+        StringBuilder out = new StringBuilder();
+        histogram.appendTo(out);
+        assertTrue(out.toString(), out.toString().startsWith("gl frame: n=1 mean=16.500ms"));
+        assertTrue(out.toString(), out.toString().contains("max=16.500ms"));
+    }
+    
+    @Test
+    public void record_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        FrameStats stats = new FrameStats();
+        for (int i = 0; i < 100; i++) {
+            stats.record(i % FrameStats.COUNT, i * 123456L);
+            stats.get(i % FrameStats.COUNT).getPercentile(0.95);
+        }
+        
+        long id = Thread.currentThread().getId();
+        threads.getThreadAllocatedBytes(id);
+        long before = threads.getThreadAllocatedBytes(id);
+        stats.record(FrameStats.GL_FRAME, 16000000L);
+        stats.record(FrameStats.ENGINE_DRAW, 2000000L);
+        stats.get(FrameStats.GL_FRAME).getPercentile(0.99);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertEquals(0, allocated);
+    }
+}
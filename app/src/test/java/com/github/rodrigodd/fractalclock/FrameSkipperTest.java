@@ -0,0 +1,114 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameSkipperTest {
+    private static final float ROOT_LENGTH = 540;
+    private static final int DEEP = 12;
+    
+    private static boolean draw(FrameSkipper skipper, float hour, float min) {
+        return skipper.shouldDraw(hour, min, ROOT_LENGTH, DEEP, 1, 2, 3, 4);
+    }
+    
+    /**
+     * The largest movement of the nodes of the fractal, computed on the CPU.
+     */
+    private static float maxDisplacement(float hour0, float min0, float hour1, float min1) {
+        FractalGeometry a = new FractalGeometry(null);
+        FractalGeometry b = new FractalGeometry(null);
+        for (FractalGeometry geometry : new FractalGeometry[]{a, b}) {
+            geometry.setScreenSize(1080, 1920);
+            geometry.setClockSize(ROOT_LENGTH / 1080);
+            geometry.setDeep(DEEP);
+        }
+        a.setTime(hour0, min0);
+        b.setTime(hour1, min1);
+        a.compute();
+        b.compute();
+        float max = 0;
+        for (int i = 0; i < a.getNodeCount(); i++) {
+            float dx = a.getNodeX(i) - b.getNodeX(i);
+            float dy = a.getNodeY(i) - b.getNodeY(i);
+            max = Math.max(max, (float) Math.sqrt(dx * dx + dy * dy));
+        }
+        return max;
+    }
+    
+    @Test
+    public void boundIsAboveTheRealDisplacement() {
+        float[][] times = {
+                {0.1f, 0.3f, 0.1f + 1e-5f, 0.3f + 12e-5f},
+                {0.5f, 0.9f, 0.5f + 1e-4f, 0.9f + 12e-4f},
+                {0.25f, 0.0f, 0.25f + 1e-3f, 0.0f + 12e-3f},
+        };
+        for (float[] t : times) {
+            float real = maxDisplacement(t[0], t[1], t[2], t[3]);
+            float bound = FrameSkipper.displacementBound(
+                    FrameSkipper.turnDelta(t[0], t[2]), FrameSkipper.turnDelta(t[1], t[3]),
+                    ROOT_LENGTH, DEEP);
+            assertTrue("bound " + bound + " below " + real, bound >= real);
+        }
+    }
+    
+    @Test
+    public void turnDeltaWrapsAround() {
+        assertEquals(0.02f, FrameSkipper.turnDelta(0.99f, 0.01f), 1e-6f);
+        assertEquals(0.02f, FrameSkipper.turnDelta(0.01f, 0.99f), 1e-6f);
+        assertEquals(0.25f, FrameSkipper.turnDelta(0.5f, 0.25f), 1e-6f);
+    }
+    
+    @Test
+    public void skipsSubpixelFrames() {
+        FrameSkipper skipper = new FrameSkipper();
+        skipper.setThreshold(0.5f);
+        assertTrue(draw(skipper, 0.1f, 0.2f));
+        // A vsync of a smooth animation moves the minute pointer by 1/216000 of a turn.
+        float min = 0.2f;
+        int drawn = 0;
+        for (int i = 0; i < 60; i++) {
+            min += 1.0f / 216000;
+            if (draw(skipper, 0.1f, min)) {
+                drawn++;
+            }
+        }
+        assertTrue(drawn > 0);
+        assertTrue(drawn < 60);
+        assertEquals(drawn + 1, skipper.getDrawnFrames());
+        assertEquals(60 - drawn, skipper.getSkippedFrames());
+    }
+    
+    @Test
+    public void smallChangesAddUp() {
+        FrameSkipper skipper = new FrameSkipper();
+        skipper.setThreshold(0.5f);
+        assertTrue(draw(skipper, 0.1f, 0.2f));
+        float step = 1e-6f;
+        float min = 0.2f;
+        while (!draw(skipper, 0.1f, min += step)) {
+            // The distance from the last presented frame must be below the threshold.
+            assertTrue(FrameSkipper.displacementBound(0, min - 0.2f, ROOT_LENGTH, DEEP) < 0.5f);
+        }
+    }
+    
+    @Test
+    public void colorChangesAreDrawn() {
+        FrameSkipper skipper = new FrameSkipper();
+        skipper.setThreshold(100);
+        assertTrue(skipper.shouldDraw(0.1f, 0.2f, ROOT_LENGTH, DEEP, 1, 2, 3, 4));
+        assertFalse(skipper.shouldDraw(0.1f, 0.2f, ROOT_LENGTH, DEEP, 1, 2, 3, 4));
+        assertTrue(skipper.shouldDraw(0.1f, 0.2f, ROOT_LENGTH, DEEP, 1, 2, 3, 5));
+    }
+    
+    @Test
+    public void invalidateAndZeroThresholdAlwaysDraw() {
+        FrameSkipper skipper = new FrameSkipper();
+        skipper.setThreshold(100);
+        assertTrue(draw(skipper, 0.1f, 0.2f));
+        skipper.invalidate();
+        assertTrue(draw(skipper, 0.1f, 0.2f));
+        skipper.setThreshold(0);
+        assertTrue(draw(skipper, 0.1f, 0.2f));
+    }
+}
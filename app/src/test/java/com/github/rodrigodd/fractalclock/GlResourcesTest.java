@@ -0,0 +1,195 @@
+package com.github.rodrigodd.fractalclock;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class GlResourcesTest {
+    
+    /**
+     * Records the GL calls, instead of calling GLES20.
+     */
+    private static class RecordingResources extends GlResources {
+        int nextHandle = 1;
+        int bufferData = 0;
+        int bufferSubData = 0;
+        int texImage = 0;
+        int texSubImage = 0;
+        int texParameters = 0;
+        
+        @Override
+        int genBuffer() {
+            return nextHandle++;
+        }
+        
+        @Override
+        void bindBuffer(int target, int handle) {
+        }
+        
+        @Override
+        void bufferData(int target, int bytes, java.nio.Buffer data, int usage) {
+            bufferData++;
+        }
+        
+        @Override
+        void bufferSubData(int target, int bytes, java.nio.Buffer data) {
+            bufferSubData++;
+        }
+        
+        @Override
+        int genTexture() {
+            return nextHandle++;
+        }
+        
+        @Override
+        void bindTexture(int handle) {
+        }
+        
+        @Override
+        void texParameters(int filter) {
+            texParameters++;
+        }
+        
+        @Override
+        void texImage(int width, int height, int format, java.nio.Buffer pixels) {
+            texImage++;
+        }
+        
+        @Override
+        void texSubImage(int width, int height, int format, java.nio.Buffer pixels) {
+            texSubImage++;
+        }
+    }
+    
+    private static class CountingSource implements GlResources.ProgramSource {
+        int creations = 0;
+        
+        @Override
+        public ShaderProgram create() {
+            creations++;
+            return null;
+        }
+    }
+    
+    @Test
+    public void buffersAreCreatedOncePerContext() {
+        RecordingResources resources = new RecordingResources();
+        GlResources.Buffer buffer = resources.buffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW);
+        assertEquals(0, resources.creations);
+        assertTrue(resources.bind(buffer));
+        assertFalse(resources.bind(buffer));
+        assertEquals(1, resources.creations);
+        
+        resources.onContextCreated();
+        assertTrue(resources.bind(buffer));
+        assertEquals(2, resources.creations);
+    }
+    
+    @Test
+    public void bufferStorageIsReused() {
+        RecordingResources resources = new RecordingResources();
+        GlResources.Buffer buffer = resources.buffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STREAM_DRAW);
+        ByteBuffer data = ByteBuffer.allocateDirect(64);
+        resources.upload(buffer, 32, data);
+        resources.upload(buffer, 32, data);
+        resources.upload(buffer, 16, data);
+        assertEquals(1, resources.bufferData);
+        assertEquals(2, resources.bufferSubData);
+        
+        resources.upload(buffer, 64, data);
+        assertEquals(2, resources.bufferData);
+        resources.reserve(buffer, 48);
+        assertEquals(2, resources.bufferData);
+        
+        // The storage is gone with the context.
+        resources.onContextCreated();
+        resources.upload(buffer, 16, data);
+        assertEquals(3, resources.bufferData);
+    }
+    
+    @Test
+    public void textureOfSameSizeIsUpdatedInPlace() {
+        RecordingResources resources = new RecordingResources();
+        GlResources.Texture texture = resources.texture(GLES20.GL_RGBA, GLES20.GL_LINEAR);
+        ByteBuffer pixels = ByteBuffer.allocateDirect(256 * 4);
+        resources.upload(texture, 256, 1, pixels);
+        resources.upload(texture, 256, 1, pixels);
+        assertEquals(1, resources.texImage);
+        assertEquals(1, resources.texSubImage);
+        assertEquals(1, resources.texParameters);
+        
+        resources.upload(texture, 128, 2, pixels);
+        assertEquals(2, resources.texImage);
+        
+        resources.onContextCreated();
+        assertTrue(resources.bind(texture));
+        resources.upload(texture, 128, 2, pixels);
+        assertEquals(3, resources.texImage);
+        assertEquals(2, resources.texParameters);
+    }
+    
+    @Test
+    public void storageIsCountedInTheCurrentContext() {
+        RecordingResources resources = new RecordingResources();
+        GlResources.Buffer buffer = resources.buffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STREAM_DRAW);
+        GlResources.Texture texture = resources.texture(GLES20.GL_RGBA, GLES20.GL_LINEAR);
+        ByteBuffer data = ByteBuffer.allocateDirect(256 * 4);
+        resources.upload(buffer, 64, data);
+        resources.upload(buffer, 32, data);
+        assertEquals(64, resources.getBytes());
+        resources.reserve(buffer, 128);
+        assertEquals(128, resources.getBytes());
+        
+        resources.upload(texture, 256, 1, data);
+        assertEquals(128 + 256 * 4, resources.getBytes());
+        resources.upload(texture, 128, 1, data);
+        assertEquals(128 + 128 * 4, resources.getBytes());
+        
+        resources.onContextCreated();
+        assertEquals(0, resources.getBytes());
+    }
+    
+    @Test
+    public void programsAreLinkedLazily() {
+        RecordingResources resources = new RecordingResources();
+        CountingSource source = new CountingSource();
+        GlResources.Program program = resources.program(source);
+        assertEquals(0, source.creations);
+        
+        // A unsupported program is not tried again in the same context.
+        assertNull(resources.get(program));
+        assertNull(resources.get(program));
+        assertEquals(1, source.creations);
+        
+        resources.onContextCreated();
+        resources.get(program);
+        assertEquals(2, source.creations);
+    }
+    
+    @Test
+    public void modifiedIsSetByChangesOnly() {
+        RecordingResources resources = new RecordingResources();
+        GlResources.Buffer buffer = resources.buffer(GLES20.GL_ARRAY_BUFFER, GLES20.GL_STATIC_DRAW);
+        GlResources.Program program = resources.program(new CountingSource());
+        ByteBuffer data = ByteBuffer.allocateDirect(64);
+        assertFalse(resources.takeModified());
+        
+        resources.upload(buffer, 64, data);
+        assertTrue(resources.takeModified());
+        assertFalse(resources.takeModified());
+        
+        // Binding, or reserving storage that already exists, changes nothing.
+        resources.bind(buffer);
+        resources.reserve(buffer, 32);
+        assertFalse(resources.takeModified());
+        
+        resources.get(program);
+        assertTrue(resources.takeModified());
+        resources.get(program);
+        assertFalse(resources.takeModified());
+    }
+}
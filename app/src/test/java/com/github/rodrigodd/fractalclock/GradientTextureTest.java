@@ -0,0 +1,64 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class GradientTextureTest {
+    private static final int MIN = 0xff0000ff;
+    private static final int HOUR = 0xffff0000;
+    
+    @Test
+    public void twoColorsSampleLikeMix() {
+        GradientTexture texture = new GradientTexture();
+        texture.setTwoColors(MIN, HOUR);
+        for (float u = 0.0f; u <= 1.0f; u += 0.01f) {
+            int expected = GradientTexture.mix(MIN, HOUR, u);
+            int actual = texture.sample(u);
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int difference = Math.abs((expected >> shift & 0xff) - (actual >> shift & 0xff));
+                // Only the half texels at the edges are clamped.
+                assertTrue(String.format("at %f: %08x, %08x", u, expected, actual), difference <= 1);
+            }
+        }
+    }
+    
+    @Test
+    public void onlyChangesMarkDirty() {
+        GradientTexture texture = new GradientTexture();
+        texture.setTwoColors(MIN, HOUR);
+        texture.takeTexels();
+        assertFalse(texture.isDirty());
+        texture.setTwoColors(MIN, HOUR);
+        assertFalse(texture.isDirty());
+        texture.setTwoColors(MIN, 0xff00ff00);
+        assertTrue(texture.isDirty());
+        texture.takeTexels();
+        texture.invalidate();
+        assertTrue(texture.isDirty());
+    }
+    
+    @Test
+    public void texelsAreRgba() {
+        GradientTexture texture = new GradientTexture();
+        texture.setGradient(new ColorGradient(new int[]{0xff123456}));
+        ByteBuffer texels = texture.takeTexels();
+        assertEquals(0, texels.position());
+        assertEquals(0x12, texels.get(0) & 0xff);
+        assertEquals(0x34, texels.get(1) & 0xff);
+        assertEquals(0x56, texels.get(2) & 0xff);
+        assertEquals(0xff, texels.get(3) & 0xff);
+        assertEquals(0x12, texels.get(4 * (GradientTexture.SIZE - 1)) & 0xff);
+    }
+    
+    @Test
+    public void followsTheGradient() {
+        ColorGradient gradient = new ColorGradient(new int[]{0xffff0000, 0xff00ff00, 0xff0000ff});
+        GradientTexture texture = new GradientTexture();
+        texture.setGradient(gradient);
+        assertTrue((texture.sample(1 / 3.0f) >> 8 & 0xff) > 0xf0);
+        assertTrue((texture.sample(2 / 3.0f) & 0xff) > 0xf0);
+    }
+}
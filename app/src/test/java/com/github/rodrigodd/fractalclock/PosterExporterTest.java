@@ -0,0 +1,102 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class PosterExporterTest {
+    
+    private static SoftwareRenderer renderer() {
+        SoftwareRenderer renderer = new SoftwareRenderer(null);
+        renderer.setClockSize(0.5f);
+        renderer.setTime(0.2708f, 0.25f);
+        renderer.setDeep(8);
+        renderer.setClockType(ClockFaceMesh.CLOCK_HOUR_MARKS);
+        renderer.setBackgroundColor(0xff102030);
+        renderer.setHourPointerColor(0xffff0000);
+        renderer.setMinPointerColor(0xff0000ff);
+        renderer.setClockColor(0xffffffff);
+        return renderer;
+    }
+    
+    @Test
+    public void export_matchesWholeImage() throws IOException {
+        // Not a multiple of the band height, so the last band is partial.
+        int width = 300;
+        int height = 2 * PosterExporter.BAND_HEIGHT + 17;
+        
+        File file = File.createTempFile("poster", ".png");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            new PosterExporter(renderer()).export(width, height, out);
+        } finally {
+            out.close();
+        }
+        
+        SoftwareRenderer expected = renderer();
+        expected.setSize(width, height);
+        int[] framebuffer = new int[width * height];
+        expected.render(framebuffer);
+        
+        BufferedImage image = ImageIO.read(file);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals("pixel " + x + ", " + y,
+                        framebuffer[y * width + x] & 0xFFFFFF, image.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+    
+    @Test
+    public void pngStreamWriter_writesManyChunks() throws IOException {
+        // Noise don't compress, so the data is split in many IDAT chunks.
+        int width = 1000;
+        int height = 100;
+        int[] pixels = new int[width * height];
+        int seed = 12345;
+        for (int i = 0; i < pixels.length; i++) {
+            seed = seed * 1103515245 + 12345;
+            pixels[i] = seed;
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngStreamWriter writer = new PngStreamWriter(out, width, height);
+        for (int y = 0; y < height; y += 7) {
+            int rows = Math.min(7, height - y);
+            writer.writeRows(pixels, y * width, rows);
+        }
+        writer.finish();
+        
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(pixels[y * width + x] & 0xFFFFFF, image.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void export_rejectsPostersBiggerThan16K() throws IOException {
+        new PosterExporter(renderer()).export(PosterExporter.MAX_SIZE + 1, 100, new ByteArrayOutputStream());
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void pngStreamWriter_finishRequiresAllRows() throws IOException {
+        PngStreamWriter writer = new PngStreamWriter(new ByteArrayOutputStream(), 4, 4);
+        writer.writeRows(new int[4 * 3], 0, 3);
+        writer.finish();
+    }
+}
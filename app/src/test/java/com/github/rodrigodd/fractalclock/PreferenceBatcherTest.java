@@ -0,0 +1,202 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class PreferenceBatcherTest {
+    
+    /**
+     * A main thread that only runs the posted runnables when the time is advanced.
+     */
+    private static class FakeMainThread implements PreferenceBatcher.MainThread {
+        long now = 1000;
+        final List<Runnable> runnables = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        
+        @Override
+        public void post(Runnable runnable) {
+            postDelayed(runnable, 0);
+        }
+        
+        @Override
+        public void postDelayed(Runnable runnable, long delayMillis) {
+            runnables.add(runnable);
+            times.add(now + delayMillis);
+        }
+        
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            for (int i = runnables.size() - 1; i >= 0; i--) {
+                if (runnables.get(i) == runnable) {
+                    runnables.remove(i);
+                    times.remove(i);
+                }
+            }
+        }
+        
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+        
+        void advance(long millis) {
+            long end = now + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < runnables.size(); i++) {
+                    if (times.get(i) <= end && (next < 0 || times.get(i) < times.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                now = Math.max(now, times.get(next));
+                times.remove(next);
+                runnables.remove(next).run();
+            }
+            now = end;
+        }
+    }
+    
+    /**
+     * A worker that only runs when told to, like a busy thread.
+     */
+    private static class FakeWorker implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+        
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+        
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+    
+    private static class RecordingStage implements PreferenceBatcher.Stage<Integer> {
+        int prepared = 0;
+        final List<Set<String>> published = new ArrayList<>();
+        final List<Integer> results = new ArrayList<>();
+        
+        @Override
+        public Integer prepare(Set<String> keys) {
+            return ++prepared;
+        }
+        
+        @Override
+        public void publish(Set<String> keys, Integer result) {
+            published.add(keys);
+            results.add(result);
+        }
+    }
+    
+    private FakeMainThread mainThread;
+    private FakeWorker worker;
+    private RecordingStage stage;
+    private PreferenceBatcher<Integer> batcher;
+    
+    @Before
+    public void createBatcher() {
+        mainThread = new FakeMainThread();
+        worker = new FakeWorker();
+        stage = new RecordingStage();
+        batcher = new PreferenceBatcher<>(mainThread, worker, stage);
+    }
+    
+    private static Set<String> keys(String... keys) {
+        return new HashSet<>(Arrays.asList(keys));
+    }
+    
+    @Test
+    public void changesAreMergedInOneBatch() {
+        batcher.changed("clock_scale");
+        mainThread.advance(10);
+        batcher.changed("fractal_deep");
+        mainThread.advance(10);
+        batcher.changed("clock_scale");
+        assertTrue(worker.tasks.isEmpty());
+        
+        mainThread.advance(PreferenceBatcher.DEBOUNCE_MILLIS);
+        worker.runAll();
+        mainThread.advance(0);
+        assertEquals(1, stage.published.size());
+        assertEquals(keys("clock_scale", "fractal_deep"), stage.published.get(0));
+        assertEquals(3, batcher.getChanges());
+        assertEquals(1, batcher.getPublished());
+    }
+    
+    @Test
+    public void longDragIsAppliedWhileDragging() {
+        // A slider step each frame, for a second.
+        for (int i = 0; i < 60; i++) {
+            batcher.changed("clock_scale");
+            mainThread.advance(16);
+            worker.runAll();
+            mainThread.advance(0);
+        }
+        int batches = stage.published.size();
+        // A batch at most each MAX_DELAY_MILLIS, plus the step that starts the next one.
+        assertTrue(batches >= 1000 / (PreferenceBatcher.MAX_DELAY_MILLIS + 16));
+        assertTrue(batches <= 1000 / PreferenceBatcher.MAX_DELAY_MILLIS);
+    }
+    
+    @Test
+    public void onlyTheLatestBatchIsPublished() {
+        batcher.changed("fractal_gradient");
+        mainThread.advance(PreferenceBatcher.DEBOUNCE_MILLIS);
+        // The worker is still busy when the next change comes.
+        batcher.changed("clock_scale");
+        mainThread.advance(PreferenceBatcher.DEBOUNCE_MILLIS);
+        worker.runAll();
+        mainThread.advance(0);
+        
+        assertEquals(2, stage.prepared);
+        assertEquals(1, stage.published.size());
+        // The keys of the dropped batch are in the latest one.
+        assertEquals(keys("fractal_gradient", "clock_scale"), stage.published.get(0));
+        assertEquals(2, (int) stage.results.get(0));
+    }
+    
+    @Test
+    public void nullKeyMeansAll() {
+        batcher.changed("clock_scale");
+        batcher.changed(null);
+        batcher.flush();
+        worker.runAll();
+        mainThread.advance(0);
+        assertEquals(1, stage.published.size());
+        assertNull(stage.published.get(0));
+        
+        batcher.changed("clock_scale");
+        batcher.flush();
+        worker.runAll();
+        mainThread.advance(0);
+        assertEquals(keys("clock_scale"), stage.published.get(1));
+    }
+    
+    @Test
+    public void cancelDropsEverything() {
+        batcher.changed("clock_scale");
+        mainThread.advance(PreferenceBatcher.DEBOUNCE_MILLIS);
+        batcher.changed("fractal_deep");
+        batcher.cancel();
+        worker.runAll();
+        mainThread.advance(1000);
+        worker.runAll();
+        mainThread.advance(0);
+        assertTrue(stage.published.isEmpty());
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ProgramBinaryCacheTest {
+    private static final String VERTEX = "attribute float vertexIDf;\nvoid main() {}";
+    private static final String FRAGMENT = "void main() { gl_FragColor = vec4(1.0); }";
+    private static final String RENDERER = "Adreno (TM) 530";
+    private static final String VERSION = "OpenGL ES 3.2 V@269.0";
+    
+    private File directory;
+    
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("programs").toFile();
+    }
+    
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    private ProgramBinaryCache cache(String renderer, String version) {
+        return new ProgramBinaryCache(new ProgramBinaryCache.DirectoryStorage(directory), renderer, version);
+    }
+    
+    private static ProgramBinaryCache.Entry entry() {
+        byte[] binary = new byte[1000];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) (i * 31);
+        }
+        return new ProgramBinaryCache.Entry(0x8741, binary);
+    }
+    
+    @Test
+    public void savedEntryIsLoadedByTheNextContext() {
+        ProgramBinaryCache first = cache(RENDERER, VERSION);
+        String key = first.key(VERTEX, FRAGMENT);
+        assertNull(first.load(key));
+        assertEquals(1, first.getMisses());
+        assertTrue(first.save(key, entry()));
+        
+        ProgramBinaryCache second = cache(RENDERER, VERSION);
+        ProgramBinaryCache.Entry loaded = second.load(second.key(VERTEX, FRAGMENT));
+        assertNotNull(loaded);
+        assertEquals(0x8741, loaded.format);
+        assertArrayEquals(entry().binary, loaded.binary);
+        assertEquals(1, second.getHits());
+    }
+    
+    @Test
+    public void keyDependsOnSourcesAndDriver() {
+        String key = cache(RENDERER, VERSION).key(VERTEX, FRAGMENT);
+        assertEquals(key, cache(RENDERER, VERSION).key(VERTEX, FRAGMENT));
+        assertNotEquals(key, cache(RENDERER, VERSION).key(VERTEX + " ", FRAGMENT));
+        assertNotEquals(key, cache(RENDERER, VERSION).key(VERTEX, FRAGMENT + " "));
+        assertNotEquals(key, cache("Mali-G71", VERSION).key(VERTEX, FRAGMENT));
+        assertNotEquals(key, cache(RENDERER, "OpenGL ES 3.2 V@270.0").key(VERTEX, FRAGMENT));
+        // Moving text from one source to the other is a different program.
+        assertNotEquals(cache(RENDERER, VERSION).key("ab", "c"), cache(RENDERER, VERSION).key("a", "bc"));
+        assertTrue(key.matches("[0-9a-f]{64}"));
+    }
+    
+    @Test
+    public void corruptedEntryIsRemoved() throws IOException {
+        ProgramBinaryCache cache = cache(RENDERER, VERSION);
+        String key = cache.key(VERTEX, FRAGMENT);
+        cache.save(key, entry());
+        
+        RandomAccessFile file = new RandomAccessFile(new File(directory, key), "rw");
+        try {
+            file.seek(100);
+            file.write(0x55);
+        } finally {
+            file.close();
+        }
+        
+        assertNull(cache.load(key));
+        assertEquals(1, cache.getInvalid());
+        assertFalse(new File(directory, key).exists());
+    }
+    
+    @Test
+    public void truncatedEntryIsRemoved() throws IOException {
+        ProgramBinaryCache cache = cache(RENDERER, VERSION);
+        String key = cache.key(VERTEX, FRAGMENT);
+        FileOutputStream out = new FileOutputStream(new File(directory, key));
+        try {
+            out.write(ProgramBinaryCache.encode(entry()), 0, 50);
+        } finally {
+            out.close();
+        }
+        assertNull(cache.load(key));
+        assertEquals(1, cache.getInvalid());
+    }
+    
+    @Test
+    public void rejectedEntryIsRemoved() {
+        ProgramBinaryCache cache = cache(RENDERER, VERSION);
+        String key = cache.key(VERTEX, FRAGMENT);
+        cache.save(key, entry());
+        assertNotNull(cache.load(key));
+        // What the renderer does when glProgramBinary fails to link.
+        cache.invalidate(key);
+        assertNull(cache.load(key));
+        assertEquals(1, cache.getMisses());
+    }
+    
+    @Test
+    public void missingDirectoryIsCreated() {
+        directory.delete();
+        ProgramBinaryCache cache = cache(RENDERER, VERSION);
+        String key = cache.key(VERTEX, FRAGMENT);
+        assertNull(cache.load(key));
+        assertTrue(cache.save(key, entry()));
+        assertNotNull(cache.load(key));
+    }
+}
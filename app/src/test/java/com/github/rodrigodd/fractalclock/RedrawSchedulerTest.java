@@ -0,0 +1,133 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RedrawSchedulerTest {
+    /**
+     * A wall clock that is a fixed offset from the uptime.
+     */
+    private static class FakeTime implements RedrawScheduler.TimeSource {
+        long uptime = 1000;
+        long wallOffset = 1_600_000_000_123L;
+        
+        @Override
+        public long currentTimeMillis() {
+            return uptime + wallOffset;
+        }
+        
+        @Override
+        public long uptimeMillis() {
+            return uptime;
+        }
+    }
+    
+    /**
+     * Runs the redraws like a Handler would, each one late by a random latency up to maxLatency,
+     * and returns the wall clock time of each redraw.
+     */
+    private static long[] run(RedrawScheduler scheduler, FakeTime time, int redraws, long maxLatency) {
+        Random random = new Random(42);
+        long[] walls = new long[redraws];
+        for (int i = 0; i < redraws; i++) {
+            long target = scheduler.next();
+            assertTrue(target > time.uptime);
+            time.uptime = target + (maxLatency == 0 ? 0 : random.nextInt((int) maxLatency));
+            walls[i] = time.currentTimeMillis();
+        }
+        return walls;
+    }
+    
+    @Test
+    public void secondsAreAlignedWithTheWallClock() {
+        FakeTime time = new FakeTime();
+        RedrawScheduler scheduler = new RedrawScheduler(time);
+        scheduler.setPeriod(1000);
+        long[] walls = run(scheduler, time, 1000, 30);
+        for (long wall : walls) {
+            assertTrue("redraw at " + wall % 1000 + "ms of the second", wall % 1000 < 30);
+        }
+    }
+    
+    @Test
+    public void noSecondIsSkipped() {
+        FakeTime time = new FakeTime();
+        RedrawScheduler scheduler = new RedrawScheduler(time);
+        scheduler.setPeriod(1000);
+        long[] walls = run(scheduler, time, 1000, 30);
+        for (int i = 1; i < walls.length; i++) {
+            assertEquals(walls[i - 1] / 1000 + 1, walls[i] / 1000);
+        }
+    }
+    
+    @Test
+    public void earlyRedrawDoesNotRepeatTheSecond() {
+        FakeTime time = new FakeTime();
+        RedrawScheduler scheduler = new RedrawScheduler(time);
+        scheduler.setPeriod(1000);
+        long target = scheduler.next();
+        // The wall clock was adjusted, so the redraw runs a bit before the second.
+        time.uptime = target - 5;
+        long next = scheduler.next();
+        assertEquals(time.currentTimeMillis() + 5 + 1000, next + time.wallOffset);
+    }
+    
+    @Test
+    public void minutesUseTheTick() {
+        FakeTime time = new FakeTime();
+        RedrawScheduler scheduler = new RedrawScheduler(time);
+        scheduler.setPeriod(60_000);
+        assertTrue(scheduler.usesMinuteTick());
+        assertTrue(scheduler.isAligned());
+        long next = scheduler.next();
+        assertEquals(0, (next + time.wallOffset) % 60_000);
+        
+        scheduler.setPeriod(1000);
+        assertFalse(scheduler.usesMinuteTick());
+    }
+    
+    @Test
+    public void unalignedPeriodDoesNotDrift() {
+        FakeTime time = new FakeTime();
+        RedrawScheduler scheduler = new RedrawScheduler(time);
+        scheduler.setPeriod(33);
+        assertFalse(scheduler.isAligned());
+        long start = time.uptime;
+        int redraws = 10_000;
+        run(scheduler, time, redraws, 10);
+        // The latency of each redraw don't accumulate.
+        long drift = time.uptime - (start + redraws * 33L);
+        assertTrue("drifted " + drift + "ms", drift >= 0 && drift < 10);
+    }
+    
+    @Test
+    public void lateRedrawsAreSkippedKeepingThePhase() {
+        FakeTime time = new FakeTime();
+        RedrawScheduler scheduler = new RedrawScheduler(time);
+        scheduler.setPeriod(70);
+        long first = scheduler.next();
+        // The redraw ran 3.5 periods late.
+        time.uptime = first + 245;
+        long next = scheduler.next();
+        assertEquals(first + 280, next);
+    }
+    
+    @Test
+    public void resetRestartsThePhase() {
+        FakeTime time = new FakeTime();
+        RedrawScheduler scheduler = new RedrawScheduler(time);
+        scheduler.setPeriod(70);
+        scheduler.next();
+        time.uptime += 12_345;
+        scheduler.reset();
+        assertEquals(time.uptime + 70, scheduler.next());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositivePeriod() {
+        new RedrawScheduler(new FakeTime()).setPeriod(0);
+    }
+}
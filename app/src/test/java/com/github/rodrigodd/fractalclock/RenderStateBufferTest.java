@@ -0,0 +1,116 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RenderStateBufferTest {
+    
+    @Test
+    public void nothingPublishedIsTheDefaultState() {
+        RenderStateBuffer buffer = new RenderStateBuffer();
+        RenderState state = buffer.acquire();
+        assertEquals(0, state.sequence);
+        assertEquals(new RenderState().deep, state.deep);
+    }
+    
+    @Test
+    public void readerGetsTheLatestState() {
+        RenderStateBuffer buffer = new RenderStateBuffer();
+        RenderState pending = new RenderState();
+        pending.hour = 0.25f;
+        assertEquals(1, buffer.publish(pending));
+        pending.hour = 0.5f;
+        assertEquals(2, buffer.publish(pending));
+        // Changing the pending state don't change the published one.
+        pending.hour = 0.75f;
+        
+        RenderState state = buffer.acquire();
+        assertEquals(2, state.sequence);
+        assertEquals(0.5f, state.hour, 0.0f);
+        // Without a new publish, the same state is read again.
+        assertSame(state, buffer.acquire());
+        
+        buffer.publish(pending);
+        RenderState next = buffer.acquire();
+        assertNotSame(state, next);
+        assertEquals(3, next.sequence);
+        assertEquals(0.75f, next.hour, 0.0f);
+    }
+    
+    @Test
+    public void settingsAreHandedOverWithTheState() {
+        RenderStateBuffer buffer = new RenderStateBuffer();
+        RenderState pending = new RenderState();
+        pending.renderMode = FractalClockRenderer.RENDER_MODE_INSTANCED;
+        pending.subtreeDeep = 8;
+        pending.showStats = true;
+        buffer.publish(pending);
+        
+        RenderState state = buffer.acquire();
+        assertEquals(FractalClockRenderer.RENDER_MODE_INSTANCED, state.renderMode);
+        assertEquals(8, state.subtreeDeep);
+        assertTrue(state.showStats);
+    }
+    
+    @Test
+    public void writerNeverWritesTheStateBeingRead() {
+        RenderStateBuffer buffer = new RenderStateBuffer();
+        RenderState pending = new RenderState();
+        buffer.publish(pending);
+        RenderState reading = buffer.acquire();
+        for (int i = 0; i < 10; i++) {
+            pending.deep = i;
+            buffer.publish(pending);
+            assertEquals(1, reading.sequence);
+            assertEquals(new RenderState().deep, reading.deep);
+        }
+    }
+    
+    @Test
+    public void concurrentReaderNeverSeesATornState() throws InterruptedException {
+        final RenderStateBuffer buffer = new RenderStateBuffer();
+        final int publishes = 200000;
+        final AtomicReference<String> error = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long last = 0;
+                while (last < publishes) {
+                    RenderState state = buffer.acquire();
+                    if (state.sequence < last) {
+                        error.set("sequence went back from " + last + " to " + state.sequence);
+                        return;
+                    }
+                    last = state.sequence;
+                    if (last == 0) {
+                        // Nothing published yet.
+                        continue;
+                    }
+                    // All the values of a publish are derived from the same number.
+                    int n = state.deep;
+                    if (state.hourPointerColor != n || state.minPointerColor != -n
+                            || state.hour != n * 0.5f || state.clockColor != n + 1) {
+                        error.set("torn state at " + state.sequence);
+                        return;
+                    }
+                }
+            }
+        });
+        reader.start();
+        RenderState pending = new RenderState();
+        for (int n = 1; n <= publishes; n++) {
+            pending.deep = n;
+            pending.hourPointerColor = n;
+            pending.minPointerColor = -n;
+            pending.hour = n * 0.5f;
+            pending.clockColor = n + 1;
+            buffer.publish(pending);
+        }
+        reader.join(10000);
+        assertFalse(reader.isAlive());
+        assertNull(error.get(), error.get());
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ScreenshotPipelineTest {
+    
+    @Test
+    public void swizzle_flipsAndSwapsRedAndBlue() {
+        int width = 3;
+        int height = 2;
+        ByteBuffer rgba = ByteBuffer.allocate(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < width * height; i++) {
+            // r, g, b, a
+            rgba.put((byte) i).put((byte) 0x80).put((byte) (0xF0 + i)).put((byte) 0xFF);
+        }
+        rgba.rewind();
+        
+        int[] argb = new int[width * height];
+        ScreenshotPipeline.swizzle(rgba.asIntBuffer(), argb, width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // The first row read is the bottom of the image.
+                int i = (height - 1 - y) * width + x;
+                int expected = 0xFF000000 | i << 16 | 0x8000 | (0xF0 + i);
+                assertEquals(expected, argb[y * width + x]);
+            }
+        }
+    }
+    
+    @Test
+    public void submit_savesInBackgroundAndCallsBack() throws InterruptedException {
+        final AtomicInteger savedPixel = new AtomicInteger();
+        ScreenshotPipeline pipeline = new ScreenshotPipeline(new ScreenshotPipeline.Sink() {
+            @Override
+            public void save(int[] pixels, int width, int height) {
+                savedPixel.set(pixels[0]);
+            }
+        });
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean saved = new AtomicBoolean();
+        
+        ScreenshotPipeline.Frame frame = pipeline.acquire(1, 1);
+        frame.getBuffer().put(new byte[]{ 0x11, 0x22, 0x33, 0x44 });
+        frame.getBuffer().rewind();
+        pipeline.submit(frame, new ScreenshotPipeline.Callback() {
+            @Override
+            public void onScreenshotDone(boolean s, ScreenshotPipeline.Timings timings, Exception error) {
+                saved.set(s);
+                assertTrue(timings.swizzleNanos >= 0);
+                assertTrue(timings.saveNanos >= 0);
+                done.countDown();
+            }
+        });
+        
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(saved.get());
+        assertEquals(0x44112233, savedPixel.get());
+        pipeline.shutdown();
+    }
+    
+    @Test
+    public void acquire_isBoundedWhileSaving() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(ScreenshotPipeline.MAX_FRAMES);
+        ScreenshotPipeline pipeline = new ScreenshotPipeline(new ScreenshotPipeline.Sink() {
+            @Override
+            public void save(int[] pixels, int width, int height) throws Exception {
+                release.await();
+            }
+        });
+        ScreenshotPipeline.Callback callback = new ScreenshotPipeline.Callback() {
+            @Override
+            public void onScreenshotDone(boolean saved, ScreenshotPipeline.Timings timings, Exception error) {
+                done.countDown();
+            }
+        };
+        
+        for (int i = 0; i < ScreenshotPipeline.MAX_FRAMES; i++) {
+            ScreenshotPipeline.Frame frame = pipeline.acquire(8, 8);
+            assertNotNull(frame);
+            pipeline.submit(frame, callback);
+        }
+        // All frames are waiting to be saved.
+        assertNull(pipeline.acquire(8, 8));
+        
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // The frames are given back right after the callback returns.
+        ScreenshotPipeline.Frame frame = null;
+        for (int i = 0; i < 100 && frame == null; i++) {
+            frame = pipeline.acquire(8, 8);
+            if (frame == null) Thread.sleep(10);
+        }
+        assertNotNull(frame);
+        pipeline.shutdown();
+    }
+    
+    @Test
+    public void submit_reportsFailure() throws InterruptedException {
+        ScreenshotPipeline pipeline = new ScreenshotPipeline(new ScreenshotPipeline.Sink() {
+            @Override
+            public void save(int[] pixels, int width, int height) throws Exception {
+                throw new Exception("no storage");
+            }
+        });
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean saved = new AtomicBoolean(true);
+        final AtomicReference<Exception> reported = new AtomicReference<>();
+        pipeline.submit(pipeline.acquire(2, 2), new ScreenshotPipeline.Callback() {
+            @Override
+            public void onScreenshotDone(boolean s, ScreenshotPipeline.Timings timings, Exception error) {
+                saved.set(s);
+                reported.set(error);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(saved.get());
+        assertEquals("no storage", reported.get().getMessage());
+        pipeline.shutdown();
+    }
+    
+    @Test
+    public void setPixels_isSavedWithoutConversion() throws InterruptedException {
+        final AtomicInteger savedPixel = new AtomicInteger();
+        ScreenshotPipeline pipeline = new ScreenshotPipeline(new ScreenshotPipeline.Sink() {
+            @Override
+            public void save(int[] pixels, int width, int height) {
+                savedPixel.set(pixels[width * height - 1]);
+            }
+        });
+        final CountDownLatch done = new CountDownLatch(1);
+        ScreenshotPipeline.Frame frame = pipeline.acquire(2, 2);
+        frame.setPixels(new int[]{ 0xff000001, 0xff000002, 0xff000003, 0xff102030 });
+        pipeline.submit(frame, new ScreenshotPipeline.Callback() {
+            @Override
+            public void onScreenshotDone(boolean s, ScreenshotPipeline.Timings timings, Exception error) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0xff102030, savedPixel.get());
+        pipeline.shutdown();
+    }    
+    @Test
+    public void buffers_areFreedWhenIdle() throws InterruptedException {
+        ScreenshotPipeline pipeline = new ScreenshotPipeline(new ScreenshotPipeline.Sink() {
+            @Override
+            public void save(int[] pixels, int width, int height) {
+            }
+        });
+        final CountDownLatch done = new CountDownLatch(1);
+        ScreenshotPipeline.Frame saving = pipeline.acquire(8, 8);
+        ScreenshotPipeline.Frame reading = pipeline.acquire(8, 8);
+        pipeline.submit(saving, new ScreenshotPipeline.Callback() {
+            @Override
+            public void onScreenshotDone(boolean s, ScreenshotPipeline.Timings timings, Exception error) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // The saved frame keeps its buffers while the other one is in use.
+        long bytes = 0;
+        for (int i = 0; i < 100 && bytes == 0; i++) {
+            bytes = pipeline.getFreeBytes();
+            if (bytes == 0) Thread.sleep(10);
+        }
+        assertEquals(2 * 4 * 8 * 8, bytes);
+        
+        pipeline.cancel(reading);
+        assertEquals(0, pipeline.getFreeBytes());
+        pipeline.shutdown();
+    }
+    
+    @Test
+    public void submit_afterShutdownIsReported() {
+        ScreenshotPipeline pipeline = new ScreenshotPipeline(new ScreenshotPipeline.Sink() {
+            @Override
+            public void save(int[] pixels, int width, int height) {
+            }
+        });
+        pipeline.shutdown();
+        final AtomicBoolean saved = new AtomicBoolean(true);
+        pipeline.submit(pipeline.acquire(2, 2), new ScreenshotPipeline.Callback() {
+            @Override
+            public void onScreenshotDone(boolean s, ScreenshotPipeline.Timings timings, Exception error) {
+                saved.set(s);
+            }
+        });
+        assertFalse(saved.get());
+        assertNotNull(pipeline.acquire(2, 2));
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.rodrigodd.fractalclock;
+
+import android.opengl.GLES20;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class ShaderProgramTest {
+    
+    /**
+     * Records the GL calls, instead of calling GLES20.
+     */
+    private static class RecordingProgram extends ShaderProgram {
+        int uses = 0;
+        int uploads = 0;
+        int lastLocation = -1;
+        final float[] lastValue = new float[3];
+        
+        RecordingProgram() {
+            super(1);
+            addUniform("screenSize", 0, GLES20.GL_FLOAT_VEC2);
+            addUniform("maxDeep", 1, GLES20.GL_INT);
+            addUniform("hourColor", 2, GLES20.GL_FLOAT_VEC3);
+            addUniform("angleTable", 3, GLES20.GL_FLOAT_VEC3);
+            addAttribute("vertexIDf", 5);
+        }
+        
+        @Override
+        void useProgram() {
+            uses++;
+        }
+        
+        @Override
+        void uploadUniform(int location, int type, float[] value) {
+            uploads++;
+            lastLocation = location;
+            System.arraycopy(value, 0, lastValue, 0, 3);
+        }
+        
+        @Override
+        void uploadArray(int location, int count, float[] values, int offset) {
+            uploads++;
+            lastLocation = location;
+        }
+    }
+    
+    @Before
+    public void setUp() {
+        ShaderProgram.invalidateCurrent();
+    }
+    
+    @Test
+    public void use_uploadsOnlyChangedUniforms() {
+        RecordingProgram program = new RecordingProgram();
+        float[] screenSize = { 360.0f, 640.0f };
+        
+        program.set2fv("screenSize", screenSize);
+        program.set1i("maxDeep", 12);
+        assertEquals(0, program.uploads);
+        program.use();
+        assertEquals(1, program.uses);
+        assertEquals(2, program.uploads);
+        
+        // Nothing changed
+        program.set2fv("screenSize", screenSize);
+        program.set1i("maxDeep", 12);
+        program.use();
+        assertEquals(1, program.uses);
+        assertEquals(2, program.uploads);
+        
+        program.set1i("maxDeep", 13);
+        program.use();
+        assertEquals(3, program.uploads);
+        assertEquals(1, program.lastLocation);
+        assertEquals(13.0f, program.lastValue[0], 0.0f);
+    }
+    
+    @Test
+    public void set_uploadsImmediatelyWhenInUse() {
+        RecordingProgram program = new RecordingProgram();
+        program.use();
+        program.set3fv("hourColor", new float[]{ 1.0f, 0.5f, 0.25f });
+        assertEquals(1, program.uploads);
+        assertEquals(2, program.lastLocation);
+        assertArrayEquals(new float[]{ 1.0f, 0.5f, 0.25f }, program.lastValue, 0.0f);
+    }
+    
+    @Test
+    public void use_switchesProgramsOnlyWhenNeeded() {
+        RecordingProgram a = new RecordingProgram();
+        RecordingProgram b = new RecordingProgram();
+        a.use();
+        a.use();
+        b.use();
+        a.use();
+        assertEquals(2, a.uses);
+        assertEquals(1, b.uses);
+        
+        // After the context is lost, the program must be used again.
+        ShaderProgram.invalidateCurrent();
+        a.use();
+        assertEquals(3, a.uses);
+    }
+    
+    @Test
+    public void missingUniformsAndAttributesAreIgnored() {
+        RecordingProgram program = new RecordingProgram();
+        program.use();
+        program.set1f("clockSize", 0.5f);
+        program.set3fvArray("missing", 2, new float[6], 0);
+        assertEquals(0, program.uploads);
+        assertEquals(5, program.attribute("vertexIDf"));
+        assertEquals(-1, program.attribute("position"));
+    }
+    
+    @Test
+    public void arraysAreAlwaysUploaded() {
+        RecordingProgram program = new RecordingProgram();
+        program.use();
+        float[] table = new float[9];
+        program.set3fvArray("angleTable", 3, table, 0);
+        program.set3fvArray("angleTable", 3, table, 0);
+        assertEquals(2, program.uploads);
+        assertEquals(3, program.lastLocation);
+    }
+    
+    @Test
+    public void use_doesNotAllocateAfterWarmUp() {
+        RecordingProgram program = new RecordingProgram();
+        float[] screenSize = { 360.0f, 640.0f };
+        float[] color = { 1.0f, 0.0f, 0.0f };
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        
+        for (int i = 0; i < 100; i++) {
+            frame(program, screenSize, color, i);
+        }
+        threads.getThreadAllocatedBytes(id);
+        long before = threads.getThreadAllocatedBytes(id);
+        frame(program, screenSize, color, 7);
+        frame(program, screenSize, color, 8);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertEquals(0, allocated);
+    }
+    
+    private static void frame(ShaderProgram program, float[] screenSize, float[] color, int i) {
+        ShaderProgram.invalidateCurrent();
+        program.set2fv("screenSize", screenSize);
+        program.set1i("maxDeep", i % 20);
+        program.set3fv("hourColor", color);
+        program.use();
+        program.attribute("vertexIDf");
+    }
+}
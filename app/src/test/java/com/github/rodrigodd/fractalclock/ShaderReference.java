@@ -0,0 +1,50 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * A direct translation of the branch walk in fractalclock_vert.glsl, used as reference by the
+ * tests of the CPU implementations.
+ */
+class ShaderReference {
+    private static final float PI = 3.141592653f;
+    
+    /**
+     * Computes gl_Position.xy for the given vertex id.
+     */
+    static void position(int vertexID, float[] time, float clockSize, float[] screenSize, float[] out) {
+        int branchIndex = vertexID / 2;
+        int deep = 31 - Integer.numberOfLeadingZeros(branchIndex + 1);
+        int id = branchIndex + 1 - (1 << deep);
+        deep += vertexID % 2;
+        
+        float x = 0.0f;
+        float y = 0.0f;
+        float length = clockSize * Math.min(screenSize[0], screenSize[1]);
+        float angle;
+        
+        if (id % 2 == 0) {
+            angle = 2.0f * PI * time[0];
+        } else {
+            angle = 2.0f * PI * time[1];
+        }
+        int i;
+        for (i = 1; i < deep - 1; i++) {
+            x += length * (float) Math.sin(angle) / screenSize[0];
+            y += length * (float) Math.cos(angle) / screenSize[1];
+            length = length * 0.7f;
+            
+            id = id / 2;
+            if (id % 2 == 0) {
+                angle += 2.0f * PI * time[0];
+            } else {
+                angle += 2.0f * PI * time[1];
+            }
+        }
+        if (i < deep) {
+            x += length * (float) Math.sin(angle) / screenSize[0];
+            y += length * (float) Math.cos(angle) / screenSize[1];
+        }
+        
+        out[0] = x;
+        out[1] = y;
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class SoftwareRendererTest {
+    private static final int WIDTH = 360;
+    private static final int HEIGHT = 640;
+    private static final int BACKGROUND = 0xff102030;
+    
+    private static SoftwareRenderer renderer(ForkJoinPool pool, int deep, int clockType) {
+        SoftwareRenderer renderer = new SoftwareRenderer(pool);
+        renderer.setSize(WIDTH, HEIGHT);
+        renderer.setClockSize(0.5f);
+        renderer.setTime(0.2708f, 0.25f);
+        renderer.setDeep(deep);
+        renderer.setClockType(clockType);
+        renderer.setBackgroundColor(BACKGROUND);
+        renderer.setHourPointerColor(0xffff0000);
+        renderer.setMinPointerColor(0xff0000ff);
+        renderer.setClockColor(0xffffffff);
+        return renderer;
+    }
+    
+    @Test
+    public void render_clearsToBackground() {
+        int[] framebuffer = new int[WIDTH * HEIGHT];
+        renderer(null, 2, ClockFaceMesh.CLOCK_NONE).render(framebuffer);
+        for (int pixel : framebuffer) {
+            assertEquals(BACKGROUND, pixel);
+        }
+    }
+    
+    @Test
+    public void render_drawsBranches() {
+        int deep = 6;
+        int[] framebuffer = new int[WIDTH * HEIGHT];
+        renderer(null, deep, ClockFaceMesh.CLOCK_NONE).render(framebuffer);
+        
+        FractalGeometry geometry = new FractalGeometry(null);
+        geometry.setScreenSize(WIDTH, HEIGHT);
+        geometry.setClockSize(0.5f);
+        geometry.setTime(0.2708f, 0.25f);
+        geometry.setDeep(deep);
+        geometry.compute();
+        float[] lines = new float[4 * geometry.getBranchCount()];
+        geometry.fill(lines);
+        
+        // The middle of each branch is covered, with a color between minColor and hourColor.
+        for (int i = 0; i < lines.length; i += 4) {
+            int x = (int) (((lines[i] + lines[i + 2]) / 2.0f + 1.0f) * WIDTH / 2.0f);
+            int y = (int) ((1.0f - (lines[i + 1] + lines[i + 3]) / 2.0f) * HEIGHT / 2.0f);
+            int pixel = framebuffer[y * WIDTH + x];
+            assertNotEquals("branch " + i / 4, BACKGROUND, pixel);
+            assertEquals(0, pixel >> 8 & 0xFF, 0x20);
+        }
+    }
+    
+    @Test
+    public void render_drawsClock() {
+        int[] framebuffer = new int[WIDTH * HEIGHT];
+        renderer(null, 0, ClockFaceMesh.CLOCK_HOUR_MARKS).render(framebuffer);
+        
+        // The mark of 12 hours, and the minute pointer at 15 minutes.
+        float radius = 0.5f * WIDTH / 2.0f;
+        int mark = framebuffer[(int) (HEIGHT / 2.0f - 1.25f * radius) * WIDTH + WIDTH / 2];
+        assertTrue(Integer.toHexString(mark), (mark & 0xFF) > 0xC0);
+        assertEquals(0xffffffff, framebuffer[(HEIGHT / 2) * WIDTH + (int) (WIDTH / 2.0f + radius / 2.0f)]);
+        assertEquals(BACKGROUND, framebuffer[(int) (HEIGHT / 2.0f + 1.25f * radius) * WIDTH + WIDTH / 2 + 10]);
+    }
+    
+    @Test
+    public void render_parallelMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int[] expected = new int[WIDTH * HEIGHT];
+            int[] actual = new int[WIDTH * HEIGHT];
+            renderer(null, 12, ClockFaceMesh.CLOCK_MIN_MARKS).render(expected);
+            renderer(pool, 12, ClockFaceMesh.CLOCK_MIN_MARKS).render(actual);
+            assertArrayEquals(expected, actual);
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void render_regionMatchesWholeImage() {
+        SoftwareRenderer renderer = renderer(null, 10, ClockFaceMesh.CLOCK_MIN_MARKS);
+        int[] whole = new int[WIDTH * HEIGHT];
+        renderer.render(whole);
+        
+        int x = 37, y = 301, w = 150, h = 90;
+        int[] region = new int[w * h];
+        renderer.render(region, x, y, w, h);
+        for (int j = 0; j < h; j++) {
+            for (int i = 0; i < w; i++) {
+                assertEquals(whole[(y + j) * WIDTH + x + i], region[j * w + i]);
+            }
+        }
+    }
+    
+    @Test
+    public void render_doesNotAllocateAfterWarmUp() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        SoftwareRenderer renderer = renderer(null, 12, ClockFaceMesh.CLOCK_MIN_MARKS);
+        int[] framebuffer = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < 5; i++) {
+            renderer.setTime(i / 5.0f, i / 7.0f);
+            renderer.render(framebuffer);
+        }
+        
+        long id = Thread.currentThread().getId();
+        threads.getThreadAllocatedBytes(id);
+        long before = threads.getThreadAllocatedBytes(id);
+        renderer.setTime(0.5f, 0.75f);
+        renderer.render(framebuffer);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertEquals(0, allocated);
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class SubtreeInstancesTest {
+    private final float[] time = { 0.2708f, 0.25f };
+    private final float[] screenSize = { 1080, 1920 };
+    private final float clockSize = 0.5f;
+    
+    @Test
+    public void update_rejectsShallowFractal() {
+        SubtreeInstances instances = new SubtreeInstances(null);
+        assertFalse(instances.update(time, clockSize, screenSize, 8, 8));
+        assertFalse(instances.update(time, clockSize, screenSize, 8, 1));
+        assertEquals(0, instances.getInstanceCount());
+        assertTrue(instances.update(time, clockSize, screenSize, 8, 7));
+        assertEquals(1, instances.getSplitDeep());
+        assertEquals(2, instances.getInstanceCount());
+    }
+    
+    @Test
+    public void instances_matchWholeFractal() {
+        int deep = 11;
+        FractalGeometry geometry = new FractalGeometry(null);
+        geometry.setScreenSize(screenSize[0], screenSize[1]);
+        geometry.setClockSize(clockSize);
+        geometry.setTime(time[0], time[1]);
+        geometry.setDeep(deep);
+        geometry.compute();
+        float[] expected = new float[4 * geometry.getBranchCount()];
+        geometry.fill(expected);
+        
+        for (int subtreeDeep = 2; subtreeDeep < deep; subtreeDeep++) {
+            SubtreeInstances instances = new SubtreeInstances(null);
+            assertTrue(instances.update(time, clockSize, screenSize, deep, subtreeDeep));
+            int split = instances.getSplitDeep();
+            
+            // Each branch of the fractal must be drawn exactly once, by the top or by an instance.
+            boolean[] drawn = new boolean[geometry.getBranchCount()];
+            for (int i = 0; i < instances.getTopVertexCount() / 2; i++) {
+                drawn[i] = true;
+            }
+            
+            FloatBuffer mesh = instances.getMesh();
+            float[] out = new float[2];
+            for (int id = 0; id < instances.getInstanceCount(); id++) {
+                for (int v = 0; v < instances.getMeshVertexCount(); v++) {
+                    // The subtree starts at its branch 1
+                    int localBranch = v / 2 + 1;
+                    int branch = (1 << split) * (localBranch + 1) + id - 1;
+                    int vertexID = 2 * branch + v % 2;
+                    
+                    // The instanced program reads the same vertex id buffer, that starts at 6.
+                    float bufferID = v + 2 * FractalGeometry.FIRST_BRANCH;
+                    assertEquals(vertexID, instances.colorIndex(id, bufferID), 0.0f);
+                    
+                    instances.transform(id, mesh.get(2 * v), mesh.get(2 * v + 1), screenSize, out);
+                    int i = vertexID - 2 * FractalGeometry.FIRST_BRANCH;
+                    assertEquals(expected[2 * i], out[0], 1e-4f);
+                    assertEquals(expected[2 * i + 1], out[1], 1e-4f);
+                    drawn[i / 2] = true;
+                }
+            }
+            for (int i = 0; i < drawn.length; i++) {
+                assertTrue("subtree deep " + subtreeDeep + ", branch " + i, drawn[i]);
+            }
+        }
+    }
+}
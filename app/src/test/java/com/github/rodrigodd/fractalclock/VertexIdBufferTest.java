@@ -0,0 +1,86 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+public class VertexIdBufferTest {
+    private static final int MAX_VERTICES = 2 * ((1 << 20) - 4);
+    
+    /**
+     * The number of vertices of the fractal of the given deep, like FractalClockRenderer.
+     */
+    private static int vertices(int deep) {
+        return 2 * ((1 << deep) - 4);
+    }
+    
+    @Test
+    public void defaultDeepIsSmall() {
+        VertexIdBuffer ids = new VertexIdBuffer(MAX_VERTICES);
+        assertFalse(ids.fits(vertices(12)));
+        ids.grow(vertices(12));
+        assertTrue(ids.fits(vertices(12)));
+        assertTrue(ids.isShort());
+        // A few kilobytes, instead of the 8 MB of all deeps in ints.
+        assertTrue(ids.getBytes() < 20 * 1024);
+    }
+    
+    @Test
+    public void idsAreShortsUpToDeep15() {
+        VertexIdBuffer ids = new VertexIdBuffer(MAX_VERTICES);
+        ShortBuffer shorts = ids.grow(vertices(15)).asShortBuffer();
+        assertTrue(ids.isShort());
+        assertEquals(VertexIdBuffer.FIRST_ID, shorts.get(0));
+        int last = ids.getCapacity() - 1;
+        assertEquals(last + VertexIdBuffer.FIRST_ID, shorts.get(last) & 0xFFFF);
+        
+        FloatBuffer floats = ids.grow(vertices(16)).asFloatBuffer();
+        assertFalse(ids.isShort());
+        assertEquals(VertexIdBuffer.FIRST_ID, floats.get(0), 0.0f);
+        assertEquals(vertices(16) - 1 + VertexIdBuffer.FIRST_ID, floats.get(vertices(16) - 1), 0.0f);
+    }
+    
+    @Test
+    public void growsGeometrically() {
+        VertexIdBuffer ids = new VertexIdBuffer(MAX_VERTICES);
+        ids.grow(2000);
+        int capacity = ids.getCapacity();
+        ids.grow(capacity + 1);
+        assertEquals(2 * capacity, ids.getCapacity());
+        // Never more than the limit.
+        ids.grow(MAX_VERTICES - 1);
+        ids.grow(MAX_VERTICES);
+        assertEquals(MAX_VERTICES, ids.getCapacity());
+    }
+    
+    @Test
+    public void doublingDoesNotLeaveShorts() {
+        VertexIdBuffer ids = new VertexIdBuffer(MAX_VERTICES);
+        ids.grow(40000);
+        ids.grow(50000);
+        assertTrue(ids.isShort());
+        assertEquals(VertexIdBuffer.MAX_SHORT_VERTICES, ids.getCapacity());
+        ids.grow(VertexIdBuffer.MAX_SHORT_VERTICES + 1);
+        assertFalse(ids.isShort());
+    }
+    
+    @Test
+    public void invalidateStartsOver() {
+        VertexIdBuffer ids = new VertexIdBuffer(MAX_VERTICES);
+        ids.grow(vertices(18));
+        ids.invalidate();
+        assertFalse(ids.fits(1));
+        ByteBuffer data = ids.grow(vertices(10));
+        assertTrue(ids.isShort());
+        assertEquals(ids.getBytes(), data.capacity());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyVertices() {
+        new VertexIdBuffer(MAX_VERTICES).grow(MAX_VERTICES + 1);
+    }
+}
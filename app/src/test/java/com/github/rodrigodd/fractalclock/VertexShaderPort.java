@@ -0,0 +1,117 @@
+package com.github.rodrigodd.fractalclock;
+
+/**
+ * A line by line translation of fractalclock_vert.glsl, keeping its float operations: the deep is
+ * decoded with floor(log2) and the turns are chosen with mod, like in the GPU. ShaderReference
+ * does the same walk with integer operations, so the two can be checked against each other.
+ * <p>
+ * The builtin functions use StrictMath, so the result is the same in any JVM, and the golden
+ * images of the tests don't depend on the machine.
+ */
+class VertexShaderPort {
+    private static final float PI = 3.141592653f;
+    
+    // The uniforms.
+    final float[] screenSize = new float[2];
+    float clockSize;
+    final float[] time = new float[2];
+    int maxDeep;
+    
+    // The varying, written by main.
+    float vGradient;
+    // The sin and cos pairs evaluated by main, so the tests can check the work of a frame.
+    long steps = 0;
+    
+    VertexShaderPort(float hour, float min, float clockSize, float width, float height, int maxDeep) {
+        this.time[0] = hour;
+        this.time[1] = min;
+        this.clockSize = clockSize;
+        this.screenSize[0] = width;
+        this.screenSize[1] = height;
+        this.maxDeep = maxDeep;
+    }
+    
+    static float floor(float x) {
+        return (float) StrictMath.floor(x);
+    }
+    
+    static float log2(float x) {
+        return (float) (StrictMath.log(x) / StrictMath.log(2.0));
+    }
+    
+    static float exp2(float x) {
+        return (float) StrictMath.pow(2.0, x);
+    }
+    
+    static float mod(float x, float y) {
+        return x - y * floor(x / y);
+    }
+    
+    static float sin(float x) {
+        return (float) StrictMath.sin(x);
+    }
+    
+    static float cos(float x) {
+        return (float) StrictMath.cos(x);
+    }
+    
+    /**
+     * The deep of the vertex, decoded like the shader.
+     */
+    static int deep(float vertexIDf) {
+        float branch_index = floor(vertexIDf / 2.0f);
+        int deep = (int) log2(branch_index + 1.0f);
+        return deep + (int) mod(vertexIDf, 2.0f);
+    }
+    
+    /**
+     * Runs the shader for a vertex, writing gl_Position.xy in position, and vGradient.
+     */
+    void main(float vertexIDf, float[] position) {
+        float branch_index = floor(vertexIDf / 2.0f);
+        int deep = (int) log2(branch_index + 1.0f);
+        // id is the offset of a branch in a given deep (starting from 1)
+        int id = (int) (branch_index + 1.0f - exp2((float) deep));
+        // The second vertex of a branch, is a deep above
+        deep += (int) mod(vertexIDf, 2.0f);
+        
+        float x = 0.0f;
+        float y = 0.0f;
+        float length = clockSize * Math.min(screenSize[0], screenSize[1]);
+        float angle;
+        
+        vGradient = vertexIDf / exp2((float) (maxDeep + 1));
+        
+        if ((int) mod((float) id, 2.0f) == 0) {
+            // rotate left
+            angle = 2.0f * PI * time[0];
+        } else {
+            // rotate right
+            angle = 2.0f * PI * time[1];
+        }
+        int i;
+        for (i = 1; i < deep - 1; i++) {
+            x += length * sin(angle) / screenSize[0];
+            y += length * cos(angle) / screenSize[1];
+            steps++;
+            length = length * 0.7f;
+            
+            id = id / 2;
+            if ((int) mod((float) id, 2.0f) == 0) {
+                // rotate left
+                angle += 2.0f * PI * time[0];
+            } else {
+                // rotate right
+                angle += 2.0f * PI * time[1];
+            }
+        }
+        if (i < deep) {
+            x += length * sin(angle) / screenSize[0];
+            y += length * cos(angle) / screenSize[1];
+            steps++;
+        }
+        
+        position[0] = x;
+        position[1] = y;
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class VertexShaderPortTest {
+    private static final int WIDTH = 180;
+    private static final int HEIGHT = 320;
+    private static final int DEEP = 12;
+    private static final long NANOS_PER_MINUTE = 60 * 1000000000L;
+    
+    /**
+     * The number of vertices of the fractal of the given deep, like FractalClockRenderer.
+     */
+    private static int vertices(int deep) {
+        return 2 * ((1 << deep) - 4);
+    }
+    
+    /**
+     * The number of sin and cos pairs the shader evaluates to draw the given deep. A branch of deep
+     * n has its first vertex n - 1 steps away from the center, and its second vertex n steps away.
+     */
+    private static long walkSteps(int deep) {
+        long steps = 0;
+        for (int n = 2; n < deep; n++) {
+            steps += (1L << n) * (2 * n - 1);
+        }
+        return steps;
+    }
+    
+    private static VertexShaderPort port(int hours, int minutes, int deep) {
+        ClockTime time = new ClockTime();
+        time.set((hours * 60 + minutes) * NANOS_PER_MINUTE, 0);
+        return new VertexShaderPort(time.hour, time.min, 0.5f, WIDTH, HEIGHT, deep);
+    }
+    
+    /**
+     * Draws the GL_LINES of the fractal, in the order of the vertex ids, with a DDA. Each pixel
+     * keeps the vGradient of the last line that touched it, quantized to [1, 255], or 0 if no line
+     * touched it.
+     * <p>
+     * The checksums of the golden images come from this port. When the shader is changed on
+     * purpose, the port must be changed the same way, and the checksums updated.
+     */
+    private static byte[] rasterize(VertexShaderPort port, int deep) {
+        byte[] image = new byte[WIDTH * HEIGHT];
+        float[] a = new float[2];
+        float[] b = new float[2];
+        for (int i = 0; i < vertices(deep); i += 2) {
+            float vertexIDf = i + VertexIdBuffer.FIRST_ID;
+            port.main(vertexIDf, a);
+            port.main(vertexIDf + 1.0f, b);
+            byte value = (byte) (1 + (int) (port.vGradient * 254.0f));
+            
+            float x0 = (a[0] + 1.0f) * 0.5f * WIDTH;
+            float y0 = (1.0f - a[1]) * 0.5f * HEIGHT;
+            float x1 = (b[0] + 1.0f) * 0.5f * WIDTH;
+            float y1 = (1.0f - b[1]) * 0.5f * HEIGHT;
+            int steps = Math.max(1, (int) Math.ceil(Math.max(Math.abs(x1 - x0), Math.abs(y1 - y0))));
+            for (int s = 0; s <= steps; s++) {
+                float t = (float) s / steps;
+                int x = (int) (x0 + (x1 - x0) * t);
+                int y = (int) (y0 + (y1 - y0) * t);
+                if (x >= 0 && x < WIDTH && y >= 0 && y < HEIGHT) {
+                    image[y * WIDTH + x] = value;
+                }
+            }
+        }
+        return image;
+    }
+    
+    private static long checksum(byte[] image) {
+        CRC32 crc = new CRC32();
+        crc.update(image);
+        return crc.getValue();
+    }
+    
+    @Test
+    public void deepDecode_matchesIntegerDecode() {
+        // Every vertex id the renderer may draw, including the exact powers of two, where a
+        // rounding error in log2 would move a branch to the deep below.
+        int last = vertices(20) + VertexIdBuffer.FIRST_ID;
+        for (int vertexID = 0; vertexID < last; vertexID++) {
+            int expected = 31 - Integer.numberOfLeadingZeros(vertexID / 2 + 1) + vertexID % 2;
+            if (VertexShaderPort.deep(vertexID) != expected) {
+                fail("deep of vertex " + vertexID);
+            }
+        }
+    }
+    
+    @Test
+    public void mod_isGlslMod() {
+        assertEquals(0.0f, VertexShaderPort.mod(6.0f, 2.0f), 0.0f);
+        assertEquals(1.0f, VertexShaderPort.mod(7.0f, 2.0f), 0.0f);
+        // Unlike %, the result has the sign of y.
+        assertEquals(1.0f, VertexShaderPort.mod(-1.0f, 2.0f), 0.0f);
+        assertEquals(1.0f, VertexShaderPort.mod(2097151.0f, 2.0f), 0.0f);
+    }
+    
+    @Test
+    public void position_matchesReference() {
+        int[][] times = { { 0, 0 }, { 3, 15 }, { 10, 10 } };
+        float[] actual = new float[2];
+        float[] expected = new float[2];
+        for (int[] time : times) {
+            VertexShaderPort port = port(time[0], time[1], DEEP);
+            for (int i = 0; i < vertices(DEEP); i++) {
+                int vertexID = i + VertexIdBuffer.FIRST_ID;
+                port.main(vertexID, actual);
+                ShaderReference.position(vertexID, port.time, port.clockSize, port.screenSize, expected);
+                assertEquals("x of vertex " + vertexID, expected[0], actual[0], 1e-5f);
+                assertEquals("y of vertex " + vertexID, expected[1], actual[1], 1e-5f);
+            }
+        }
+    }
+    
+    @Test
+    public void gradient_growsWithTheVertexId() {
+        VertexShaderPort port = port(3, 15, DEEP);
+        float[] position = new float[2];
+        float previous = -1.0f;
+        for (int i = 0; i < vertices(DEEP); i++) {
+            port.main(i + VertexIdBuffer.FIRST_ID, position);
+            assertTrue(port.vGradient > previous);
+            assertTrue(port.vGradient < 1.0f);
+            previous = port.vGradient;
+        }
+    }
+    
+    @Test
+    public void goldenImage_0000() {
+        assertEquals(3376604628L, checksum(rasterize(port(0, 0, DEEP), DEEP)));
+    }
+    
+    @Test
+    public void goldenImage_0315() {
+        assertEquals(697208509L, checksum(rasterize(port(3, 15, DEEP), DEEP)));
+    }
+    
+    @Test
+    public void goldenImage_1010() {
+        assertEquals(3762655570L, checksum(rasterize(port(10, 10, DEEP), DEEP)));
+    }
+    
+    @Test
+    public void goldenImage_dependsOnTheTime() {
+        long midnight = checksum(rasterize(port(0, 0, DEEP), DEEP));
+        assertNotEquals(midnight, checksum(rasterize(port(0, 1, DEEP), DEEP)));
+        // 12:00 is the same image of 00:00.
+        assertEquals(midnight, checksum(rasterize(port(12, 0, DEEP), DEEP)));
+    }
+    
+    @Test
+    public void frameWork_isTheWalkOfEachBranch() {
+        // Changing the vertex layout or the walk, so a frame does more work, breaks it. The time
+        // of a frame is measured by BranchWalkBenchmark.
+        for (int deep = 3; deep <= 14; deep++) {
+            VertexShaderPort port = port(10, 10, deep);
+            float[] position = new float[2];
+            for (int i = 0; i < vertices(deep); i++) {
+                port.main(i + VertexIdBuffer.FIRST_ID, position);
+            }
+            assertEquals("steps of deep " + deep, walkSteps(deep), port.steps);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VsyncTimelineTest {
+    private static final long PERIOD = 16_666_667L;
+    
+    @Test
+    public void mapsFramesToTheWallClock() {
+        VsyncTimeline timeline = new VsyncTimeline(PERIOD);
+        long wallMillis = 1_600_000_000_000L;
+        long nanoTime = 123_456_789L;
+        timeline.sync(wallMillis, nanoTime);
+        assertEquals(wallMillis * 1000000L, timeline.wallNanos(nanoTime));
+        // Sub-millisecond steps are kept.
+        assertEquals(wallMillis * 1000000L + PERIOD, timeline.wallNanos(nanoTime + PERIOD));
+    }
+    
+    @Test
+    public void countsMissedVsyncs() {
+        VsyncTimeline timeline = new VsyncTimeline(PERIOD);
+        timeline.sync(0, 0);
+        long frame = 1_000_000_000L;
+        assertEquals(0, timeline.frame(frame));
+        frame += PERIOD;
+        assertEquals(0, timeline.frame(frame));
+        // Timestamps jitter a bit around the vsync.
+        frame += PERIOD + 500_000;
+        assertEquals(0, timeline.frame(frame));
+        frame += 3 * PERIOD - 500_000;
+        assertEquals(2, timeline.frame(frame));
+    }
+    
+    @Test
+    public void syncForgetsTheLastFrame() {
+        VsyncTimeline timeline = new VsyncTimeline(PERIOD);
+        timeline.sync(0, 0);
+        timeline.frame(0);
+        // The frames stopped while the wallpaper was hidden.
+        timeline.sync(0, 0);
+        assertEquals(0, timeline.frame(100 * PERIOD));
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The positions of all the vertices of the fractal, for each deep, by the ports of the branch walk
+ * of fractalclock_vert.glsl, that is what each vertex costs to the GPU, and by the CPU engines.
+ * Each call computes a whole frame. Comparing shaderPort and shaderFloatPort with the previous
+ * results shows if a change to the walk or the vertex layout made a frame more expensive.
+ */
+@State(Scope.Thread)
+public class BranchWalkBenchmark {
+    @Param({ "8", "10", "12", "14", "16", "18" })
+    public int deep;
+    
+    private final float[] time = { 0.3f, 0.7f };
+    private final float[] screenSize = { 1080.0f, 1920.0f };
+    private final float clockSize = 0.5f;
+    private final float[] position = new float[2];
+    private VertexShaderPort floatPort;
+    private float[] vertices;
+    private FractalGeometry serial;
+    private FractalGeometry parallel;
+    private ForkJoinPool pool;
+    
+    @Setup
+    public void setup() {
+        vertices = new float[4 * FractalGeometry.branchCount(deep)];
+        floatPort = new VertexShaderPort(time[0], time[1], clockSize, screenSize[0], screenSize[1], deep);
+        pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        serial = geometry(null);
+        parallel = geometry(pool);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+    
+    private FractalGeometry geometry(ForkJoinPool pool) {
+        FractalGeometry geometry = new FractalGeometry(pool);
+        geometry.setScreenSize(screenSize[0], screenSize[1]);
+        geometry.setClockSize(clockSize);
+        geometry.setTime(time[0], time[1]);
+        geometry.setDeep(deep);
+        return geometry;
+    }
+    
+    private void step() {
+        // The minute pointer moves a little each frame, so nothing is cached.
+        time[1] += 0.00001f;
+        if (time[1] >= 1.0f) {
+            time[1] -= 1.0f;
+        }
+    }
+    
+    @Benchmark
+    public float shaderPort() {
+        step();
+        float sum = 0.0f;
+        // The same vertices drawn by the renderer, that skips the first 3 branches.
+        int vertexCount = 2 * ((1 << deep) - 4);
+        for (int i = 0; i < vertexCount; i++) {
+            ShaderReference.position(i + VertexIdBuffer.FIRST_ID, time, clockSize, screenSize, position);
+            sum += position[0] + position[1];
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    public float shaderFloatPort() {
+        step();
+        floatPort.time[1] = time[1];
+        float sum = 0.0f;
+        int vertexCount = 2 * ((1 << deep) - 4);
+        for (int i = 0; i < vertexCount; i++) {
+            floatPort.main(i + VertexIdBuffer.FIRST_ID, position);
+            sum += position[0] + position[1];
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    public float[] geometrySerial() {
+        step();
+        serial.setTime(time[0], time[1]);
+        serial.compute();
+        serial.fill(vertices);
+        return vertices;
+    }
+    
+    @Benchmark
+    public float[] geometryParallel() {
+        step();
+        parallel.setTime(time[0], time[1]);
+        parallel.compute();
+        parallel.fill(vertices);
+        return vertices;
+    }
+}
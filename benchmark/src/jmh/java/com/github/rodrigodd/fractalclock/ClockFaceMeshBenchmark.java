@@ -0,0 +1,44 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The vertices of the clock pointers, computed in each frame, and of the marks, computed when the
+ * clock type or size changes.
+ */
+@State(Scope.Thread)
+public class ClockFaceMeshBenchmark {
+    @Param({ "0", "1", "2" })
+    public int clockType;
+    
+    private final ClockFaceMesh mesh = new ClockFaceMesh();
+    private float radius = 500.0f;
+    private float min = 0.0f;
+    
+    @Setup
+    public void setup() {
+        mesh.setClock(clockType, radius);
+    }
+    
+    @Benchmark
+    public float[] setTime() {
+        min += 0.0001f;
+        if (min >= 1.0f) {
+            min -= 1.0f;
+        }
+        mesh.setTime(min / 12.0f, min);
+        return mesh.getVertices();
+    }
+    
+    @Benchmark
+    public int setClock() {
+        // Alternates the radius, so the marks are generated each time.
+        radius = radius == 500.0f ? 501.0f : 500.0f;
+        mesh.setClock(clockType, radius);
+        return mesh.getVertexCount();
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.TimeZone;
+
+/**
+ * The time of day math done at the start of each draw of FractalClockEngine.
+ */
+@State(Scope.Thread)
+public class ClockTimeBenchmark {
+    private final ClockTime clockTime = new ClockTime();
+    private final TimeZone timeZone = TimeZone.getTimeZone("America/Sao_Paulo");
+    // A frame at 60 Hz after the other.
+    private long timeNanoseconds = 1700000000000L * 1000000L;
+    
+    @Benchmark
+    public float set() {
+        timeNanoseconds += 16666667L;
+        clockTime.set(timeNanoseconds, 0);
+        return clockTime.hour + clockTime.min + clockTime.abrtTime;
+    }
+    
+    @Benchmark
+    public float setWithTimeZone() {
+        timeNanoseconds += 16666667L;
+        long offset = timeZone.getOffset(timeNanoseconds / 1000000L) * 1000000L;
+        clockTime.set(timeNanoseconds, offset);
+        return clockTime.hour + clockTime.min + clockTime.abrtTime;
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.rodrigodd.fractalclock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * ColorGradient.getColor, called for the five gradients in each draw, and the bake done when the
+ * colors change.
+ */
+@State(Scope.Thread)
+public class ColorGradientBenchmark {
+    @Param({ "2", "5", "16" })
+    public int stops;
+    
+    @Param({ "false", "true" })
+    public boolean linearLight;
+    
+    private ColorGradient gradient;
+    private int[] colors;
+    private float point = 0.0f;
+    
+    @Setup
+    public void setup() {
+        colors = new int[stops];
+        for (int i = 0; i < stops; i++) {
+            colors[i] = 0xff000000 | (i * 0x3b5d1f) & 0xffffff;
+        }
+        gradient = new ColorGradient(colors);
+        gradient.setLinearLight(linearLight);
+    }
+    
+    @Benchmark
+    public int getColor() {
+        // A different point each call, like the time that moves between draws.
+        point += 0.000123f;
+        if (point >= 1.0f) {
+            point -= 1.0f;
+        }
+        return gradient.getColor(point);
+    }
+    
+    @Benchmark
+    public ColorGradient setColors() {
+        gradient.setColors(colors);
+        return gradient;
+    }
+}